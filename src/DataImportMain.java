@@ -1,9 +1,15 @@
 import database.CsvImporter;
 import database.DatabaseManager;
+import database.ImportMetrics;
+import database.SchemaFeature;
+import database.ShardedImporter;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Main class for the Flight Punctuality Data Import Program.
@@ -13,21 +19,121 @@ public class DataImportMain {
 
     /**
      * Main entry point for the application.
-     * @param args command line arguments (optional path to CSV file)
+     * @param args command line arguments: optional path to a CSV file (plain, gzip or zstd),
+     *             {@code -} to read standard input, or a directory whose CSV files are
+     *             imported in parallel,
+     *             {@code --workers=N} to import with N parser threads,
+     *             {@code --batch} to send rows with JDBC batches,
+     *             {@code --mmap} to read the file through a memory-mapped tokenizer,
+     *             {@code --profile=bulk} to load a new database with the bulk-load SQLite
+     *             profile (not with {@code --append} or {@code --resume}),
+     *             {@code --append} to add new rows to the existing database,
+     *             {@code --resume} to continue an interrupted import from its last checkpoint,
+     *             {@code --shards=N} to import a directory with N workers (default: one per core),
+     *             {@code --wide-delays} to also store delay minutes as columns on Flight,
+     *             {@code --surrogate-keys} to refer to airlines and airports by integer IDs
+     *             (new databases only),
+     *             {@code --year-partitions} to store each year's flights in their own tables
+     *             (new databases only),
+     *             {@code --drop-year=YYYY} to drop a year from a partitioned database before
+     *             importing (repeatable; with {@code --append} this reloads the year from the
+     *             file, without a file the years are only dropped),
+     *             {@code --no-optimize} to skip ANALYZE, compaction and the integrity check
+     *             after the import, {@code --optimize} to run them after an append or
+     *             resume too (by default only a new import is optimized, as compacting
+     *             rewrites the whole file),
+     *             {@code --metrics-json=FILE} to write the import metrics as JSON and
+     *             {@code --quarantine=PATH} to write rejected rows to a CSV file (for a directory
+     *             import, PATH is a directory that gets one .rejects.csv file per input file)
      */
     public static void main(String[] args) {
         System.out.println("Flight Punctuality Data Import Program");
         System.out.println("-------------------------------------");
 
         // Process command line arguments
-        String csvFilePath = args.length > 0 ? args[0] : "src/flights.csv";
+        String csvFilePath = null;
+        int workers = 0;
+        CsvImporter.InsertMode insertMode = CsvImporter.InsertMode.ROW_BY_ROW;
+        boolean mappedInput = false;
+        DatabaseManager.Profile profile = DatabaseManager.Profile.DEFAULT;
+        boolean append = false;
+        boolean resume = false;
+        boolean wideDelays = false;
+        boolean surrogateKeys = false;
+        boolean yearPartitions = false;
+        List<Integer> dropYears = new ArrayList<>();
+        Boolean optimize = null;
+        int shards = Runtime.getRuntime().availableProcessors();
+        String metricsJson = null;
+        String quarantine = null;
+        for (String arg : args) {
+            if (arg.startsWith("--workers=")) {
+                workers = Integer.parseInt(arg.substring("--workers=".length()));
+            } else if (arg.equals("--batch")) {
+                insertMode = CsvImporter.InsertMode.BATCH;
+            } else if (arg.equals("--mmap")) {
+                mappedInput = true;
+            } else if (arg.equals("--profile=bulk")) {
+                profile = DatabaseManager.Profile.BULK_LOAD;
+            } else if (arg.equals("--profile=default")) {
+                profile = DatabaseManager.Profile.DEFAULT;
+            } else if (arg.equals("--append")) {
+                append = true;
+            } else if (arg.equals("--resume")) {
+                resume = true;
+            } else if (arg.equals("--wide-delays")) {
+                wideDelays = true;
+            } else if (arg.equals("--surrogate-keys")) {
+                surrogateKeys = true;
+            } else if (arg.equals("--year-partitions")) {
+                yearPartitions = true;
+            } else if (arg.startsWith("--drop-year=")) {
+                dropYears.add(Integer.parseInt(arg.substring("--drop-year=".length())));
+            } else if (arg.equals("--optimize")) {
+                optimize = true;
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.startsWith("--quarantine=")) {
+                quarantine = arg.substring("--quarantine=".length());
+            } else if (arg.startsWith("--metrics-json=")) {
+                metricsJson = arg.substring("--metrics-json=".length());
+            } else if (arg.startsWith("--shards=")) {
+                shards = Integer.parseInt(arg.substring("--shards=".length()));
+            } else {
+                csvFilePath = arg;
+            }
+        }
+
+        if (optimize == null) {
+            // Appends add to a database that is already large; compacting it would rewrite the whole file
+            optimize = !append && !resume;
+        }
+
+        if (csvFilePath == null && !dropYears.isEmpty()) {
+            dropYears(dropYears);
+            return;
+        }
+        if (csvFilePath == null) {
+            csvFilePath = "src/flights.csv";
+        }
 
         // Check if file exists
         File csvFile = new File(csvFilePath);
-        if (!csvFile.exists() || !csvFile.isFile()) {
+        boolean stdin = CsvImporter.STDIN_PATH.equals(csvFilePath);
+        if (!stdin && !csvFile.exists()) {
             System.err.println("Error: CSV file not found: " + csvFilePath);
             System.exit(1);
         }
+        boolean directory = csvFile.isDirectory();
+        if (directory && (append || resume)) {
+            System.err.println("Error: --append and --resume take a single CSV file");
+            System.exit(1);
+        }
+        if (profile == DatabaseManager.Profile.BULK_LOAD && (append || resume)) {
+            // Without a durable journal a crash would risk the rows already loaded and the checkpoint
+            System.err.println("Error: --profile=bulk is only for new databases, not with --append or --resume");
+            System.exit(1);
+        }
 
         System.out.println("Using CSV file: " + csvFilePath);
 
@@ -35,23 +141,107 @@ public class DataImportMain {
         DatabaseManager dbManager = new DatabaseManager();
         try {
             // Connect to database
+            long startTime = System.nanoTime();
             dbManager.connect();
+            if (profile != DatabaseManager.Profile.DEFAULT) {
+                dbManager.applyProfile(profile);
+            }
 
-            // Create schema
-            System.out.println("Creating database schema...");
-            dbManager.createSchema();
+            if (append) {
+                System.out.println("Checking database schema for append...");
+                dbManager.createSchemaIfNotExists();
+            } else if (resume) {
+                // Keep the rows committed before the interruption
+                System.out.println("Resuming import into existing database...");
+                dbManager.createSchemaIfNotExists();
+            } else {
+                // Create schema
+                System.out.println("Creating database schema...");
+                dbManager.createSchema();
+            }
+            if (surrogateKeys) {
+                dbManager.enableFeature(SchemaFeature.SURROGATE_KEYS);
+            }
+            if (wideDelays) {
+                // Fills the new columns from Delay_Reason when the database already holds flights
+                dbManager.enableFeature(SchemaFeature.WIDE_DELAYS);
+            }
+            if (yearPartitions) {
+                dbManager.enableFeature(SchemaFeature.YEAR_PARTITIONS);
+            }
+            for (int year : dropYears) {
+                dbManager.dropYear(year);
+            }
+            if (append) {
+                // Keep existing data; indices must exist up front so the natural key lookups
+                // are fast and SQLite maintains them incrementally as rows are added
+                dbManager.createIndices();
+            }
 
             // Import CSV data
             System.out.println("Starting CSV import...");
-            CsvImporter importer = new CsvImporter(dbManager.getConnection());
-            importer.importCsv(csvFilePath);
+            long importStart = System.nanoTime();
+            long processedRows;
+            ImportMetrics metrics;
+            if (directory) {
+                File stagingDirectory = new File(dbManager.getDatabasePath()).getAbsoluteFile().getParentFile();
+                ShardedImporter importer = new ShardedImporter(dbManager.getConnection(), stagingDirectory, shards);
+                if (quarantine != null) {
+                    new File(quarantine).mkdirs();
+                    importer.setQuarantineDirectory(new File(quarantine));
+                }
+                importer.importDirectory(csvFile);
+                processedRows = importer.getProcessedRows();
+                metrics = importer.getMetrics();
+            } else {
+                CsvImporter importer = new CsvImporter(dbManager.getConnection());
+                importer.setPipelineWorkers(workers);
+                importer.setInsertMode(insertMode);
+                importer.setMappedInput(mappedInput);
+                importer.setAppendMode(append);
+                importer.setResume(resume);
+                importer.setQuarantineFile(quarantine);
+                importer.importCsv(csvFilePath);
+                processedRows = importer.getProcessedRows();
+                metrics = importer.getMetrics();
+            }
+            if (metricsJson != null) {
+                metrics.writeJson(Path.of(metricsJson));
+                System.out.println("Wrote import metrics to " + metricsJson);
+            }
+            long importEnd = System.nanoTime();
 
             // Create indices after data is imported (for better performance)
-            System.out.println("Creating database indices...");
-            dbManager.createIndices();
+            if (!append) {
+                System.out.println("Creating database indices...");
+                dbManager.createIndices();
+            }
+            long indexEnd = System.nanoTime();
+
+            // Statistics and a compacted file, so the first queries already get good plans
+            if (optimize) {
+                System.out.println("Optimizing database...");
+                dbManager.optimize();
+            }
+            long optimizeEnd = System.nanoTime();
+
+            // Tells the application its cached analyses are out of date
+            dbManager.advanceImportGeneration();
+
+            // Leave the database in WAL mode, so the application's read-only connections
+            // are not blocked by the next import and never have to switch it themselves
+            dbManager.applyProfile(DatabaseManager.Profile.READ_OPTIMIZED);
+            long endTime = System.nanoTime();
 
             System.out.println("Import completed successfully.");
-            System.out.println("Total rows processed: " + importer.getProcessedRows());
+            System.out.println("Total rows processed: " + processedRows);
+            System.out.printf("Timings with profile %s: import %.1fs (%,.0f rows/s), indices %.1fs, optimize %.1fs, total %.1fs%n",
+                    profile,
+                    (importEnd - importStart) / 1e9,
+                    processedRows / ((importEnd - importStart) / 1e9),
+                    (indexEnd - importEnd) / 1e9,
+                    (optimizeEnd - indexEnd) / 1e9,
+                    (endTime - startTime) / 1e9);
 
         } catch (SQLException e) {
             System.err.println("Database error: " + e.getMessage());
@@ -68,4 +258,28 @@ public class DataImportMain {
             }
         }
     }
+
+    /**
+     * Drops years from the partitioned database without importing anything.
+     * @param years the years to drop
+     */
+    private static void dropYears(List<Integer> years) {
+        DatabaseManager dbManager = new DatabaseManager();
+        try {
+            dbManager.connect();
+            for (int year : years) {
+                dbManager.dropYear(year);
+            }
+            dbManager.advanceImportGeneration();
+        } catch (SQLException e) {
+            System.err.println("Database error: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                dbManager.disconnect();
+            } catch (SQLException e) {
+                System.err.println("Error closing database connection: " + e.getMessage());
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -1,27 +1,68 @@
 package database;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import model.Flight;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Handles importing CSV flight data into the SQLite database.
  */
 public class CsvImporter {
 
+    /**
+     * How flight and delay rows are sent to the database.
+     */
+    public enum InsertMode {
+        /** One executeUpdate per row, reading back the generated flight_id. */
+        ROW_BY_ROW,
+        /** Importer-assigned flight IDs, rows queued with addBatch and sent per commit. */
+        BATCH
+    }
+
     private static final int BATCH_SIZE = 1000;
-    private static final int PROGRESS_INTERVAL = 10000;
+    private static final int REPORT_INTERVAL_SECONDS = 5;
+
+    /** Rejected or warned rows printed individually; further ones are only counted. */
+    private static final int MAX_LOGGED_ROWS = 20;
+
+    /** Path that reads the CSV from standard input. */
+    public static final String STDIN_PATH = "-";
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+    private static final byte[] ZSTD_MAGIC = {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd};
 
     private final Connection connection;
-    private final Map<String, Integer> airportIds = new HashMap<>();
-    private final Map<String, Integer> airlineIds = new HashMap<>();
+    private final DimensionRegistry dimensions = new DimensionRegistry();
 
     private int processedRows = 0;
+    private int batchCount = 0;
+    private int pipelineWorkers = 0;
+    private InsertMode insertMode = InsertMode.ROW_BY_ROW;
+    private boolean mappedInput = false;
+    private boolean appendMode = false;
+    private boolean resume = false;
+    private int duplicateRows = 0;
+    private FlightRecord lastRecord;
+    private List<StageStats> stageStats = List.of();
+    private ImportMetrics metrics = new ImportMetrics();
+    private boolean sharedMetrics = false;
+    private int loggedRows = 0;
+    private String quarantineFile;
+    private QuarantineWriter quarantine;
 
     /**
      * Creates a new CSV importer using the given database connection.
@@ -32,252 +73,586 @@ public class CsvImporter {
     }
 
     /**
-     * Imports flight data from the specified CSV file.
+     * Sets the number of parser threads used by the import pipeline.
+     * With 0 workers the file is read, parsed and written on the calling thread.
+     * @param pipelineWorkers number of parser/validator threads
+     */
+    public void setPipelineWorkers(int pipelineWorkers) {
+        this.pipelineWorkers = pipelineWorkers;
+    }
+
+    /**
+     * Sets how flight and delay rows are sent to the database.
+     * @param insertMode the insert mode
+     */
+    public void setInsertMode(InsertMode insertMode) {
+        this.insertMode = insertMode;
+    }
+
+    /**
+     * Sets whether the file is read through a memory-mapped byte tokenizer
+     * instead of line by line. With pipeline workers enabled, tokenizing runs
+     * on its own thread alongside the writer. Compressed files and standard input
+     * cannot be mapped and are always streamed.
+     * @param mappedInput true to memory-map the input file
+     */
+    public void setMappedInput(boolean mappedInput) {
+        this.mappedInput = mappedInput;
+    }
+
+    /**
+     * Sets whether rows already in the database are skipped. In append mode each row's
+     * natural key (date, airline, flight number, origin) is looked up before inserting,
+     * and existing airlines and airports are loaded up front, so a file can be loaded
+     * into a database that already holds earlier data.
+     * @param appendMode true to skip rows that were already loaded
+     */
+    public void setAppendMode(boolean appendMode) {
+        this.appendMode = appendMode;
+    }
+
+    /**
+     * Sets whether to continue from the checkpoint recorded by an earlier, interrupted
+     * import of the same file. The reader seeks straight to the checkpoint's byte offset.
+     * @param resume true to resume from the last checkpoint
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Sets a file that rejected rows are written to, with their line number and reason,
+     * instead of being printed. The rows are written on a background thread and keep
+     * the source's columns, so the file can be corrected and imported again.
+     * @param quarantineFile path of the quarantine CSV, or null to print rejected rows
+     */
+    public void setQuarantineFile(String quarantineFile) {
+        this.quarantineFile = quarantineFile;
+    }
+
+    /**
+     * Makes this importer record into a collector shared with other importers, such as
+     * the shards of a directory import. The owner of a shared collector starts and
+     * finishes it and prints its reports.
+     * @param metrics the shared metrics collector
+     */
+    public void setMetrics(ImportMetrics metrics) {
+        this.metrics = metrics;
+        this.sharedMetrics = true;
+    }
+
+    /**
+     * Imports flight data from the specified CSV file. Gzip and zstd compressed files
+     * are recognized by their magic bytes and decompressed while streaming; zstd needs
+     * zstd-jni on the classpath. A path of {@value #STDIN_PATH} reads standard input.
      * @param csvFilePath the path to the CSV file
      * @throws IOException if an I/O error occurs
      * @throws SQLException if a database access error occurs
      */
     public void importCsv(String csvFilePath) throws IOException, SQLException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath))) {
+        quarantine = null;
+        Set<SchemaFeature> features = SchemaFeature.enabledFeatures(connection);
+        boolean surrogateKeys = features.contains(SchemaFeature.SURROGATE_KEYS);
+        if (appendMode || resume || surrogateKeys) {
+            // Surrogate IDs must continue from those an earlier import into this database assigned
+            dimensions.load(connection, surrogateKeys);
+        }
+
+        boolean stdin = STDIN_PATH.equals(csvFilePath);
+        String source = stdin ? "stdin" : new File(csvFilePath).getAbsolutePath();
+        ImportCheckpoint checkpoint = resume ? ImportCheckpoint.load(connection, source) : null;
+        if (checkpoint != null) {
+            System.out.println("Resuming after line " + checkpoint.lineNumber +
+                    " (byte " + checkpoint.byteOffset + ", last flight ID " + checkpoint.lastFlightId + ")");
+        } else if (resume) {
+            System.out.println("No checkpoint found for " + source + ", starting from the beginning");
+        }
+
+        if (!sharedMetrics) {
+            metrics.start();
+            metrics.startReporting(REPORT_INTERVAL_SECONDS);
+        }
+        Exception failure = null;
+        try (FlightWriter writer = new FlightWriter(connection, insertMode, dimensions, appendMode, source, features)) {
+            if (mappedInput && !stdin && detectCompression(csvFilePath) == null) {
+                importMapped(csvFilePath, checkpoint, writer);
+            } else {
+                importLines(csvFilePath, checkpoint, writer);
+            }
+
+            // Final commit for any remaining batches
+            if (batchCount > 0 || lastRecord != null) {
+                commit(writer, lastRecord);
+                batchCount = 0;
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (!sharedMetrics) {
+                metrics.finish();
+            }
+            if (quarantine != null) {
+                closeQuarantine(failure);
+            }
+        }
+        metrics.setStageStats(stageStats);
+        if (quarantine != null && quarantine.getRows() > 0) {
+            System.out.println("  " + quarantine.getRows() + " rejected rows written to " + quarantine.getPath());
+        }
+
+        System.out.println("Import completed. Processed " + processedRows + " rows.");
+        if (duplicateRows > 0) {
+            System.out.println("  " + duplicateRows + " rows were already loaded and skipped");
+        }
+        if (!dimensions.getConflicts().isEmpty()) {
+            System.out.println("  " + dimensions.getConflicts().size() + " airline/airport name conflicts");
+        }
+        for (StageStats stats : stageStats) {
+            System.out.println("  " + stats);
+        }
+        if (!sharedMetrics) {
+            metrics.printSummary();
+        }
+    }
+
+    /**
+     * Imports a CSV file read line by line.
+     * @param csvFilePath the path to the CSV file
+     * @param checkpoint where to resume, or null to start at the first row
+     * @param writer the flight writer
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if a database access error occurs
+     */
+    private void importLines(String csvFilePath, ImportCheckpoint checkpoint, FlightWriter writer)
+            throws IOException, SQLException {
+        try (CsvLineReader reader = new CsvLineReader(openInput(csvFilePath))) {
             // Read header line to get column indices
             String headerLine = reader.readLine();
             if (headerLine == null) {
                 throw new IOException("CSV file is empty");
             }
 
-            String[] headers = parseCsvLine(headerLine);
-            Map<String, Integer> columnMap = mapColumnIndices(headers);
-
-            // Prepare statements for inserting data
-            PreparedStatement airlineStmt = connection.prepareStatement(
-                    "INSERT OR IGNORE INTO Airline (iata_code, name) VALUES (?, ?)"
-            );
+            openQuarantine(headerLine);
 
-            PreparedStatement airportStmt = connection.prepareStatement(
-                    "INSERT OR IGNORE INTO Airport (iata_code, name) VALUES (?, ?)"
-            );
+            ProjectionPlan plan = new ProjectionPlan(parseCsvLine(headerLine));
 
-            PreparedStatement flightStmt = connection.prepareStatement(
-                    "INSERT INTO Flight (date, airline_code, flight_number, flight_origin, " +
-                            "flight_destination, scheduled_departure, actual_departure, " +
-                            "scheduled_arrival, actual_arrival) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
-                    PreparedStatement.RETURN_GENERATED_KEYS
-            );
-
-            PreparedStatement delayStmt = connection.prepareStatement(
-                    "INSERT INTO Delay_Reason (flight_id, reason, delay_length) VALUES (?, ?, ?)"
-            );
-
-            // Process data rows
-            String line;
-            int batchCount = 0;
+            long lineNumber = 1;
+            if (checkpoint != null) {
+                reader.seek(checkpoint.byteOffset);
+                lineNumber = checkpoint.lineNumber;
+            }
 
-            while ((line = reader.readLine()) != null) {
+            ImportPipeline.RowParser parser = (line, number, endOffset) -> {
+                long start = System.nanoTime();
+                FlightRecord record = new FlightRecord(number, endOffset);
                 try {
-                    String[] data = parseCsvLine(line);
-
-                    // Skip rows that don't have enough data
-                    if (data.length < getMinRequiredColumns(columnMap)) {
-                        System.out.println("Skipping row: insufficient columns in line " + (processedRows + 1));
-                        continue;
-                    }
-
-                    // Get values from the CSV row
-                    String flDate = getColumnValue(data, columnMap, "FL_DATE").replace("-", "");
-                    String airlineName = getColumnValue(data, columnMap, "AIRLINE");
-                    String airlineCode = getColumnValue(data, columnMap, "AIRLINE_CODE");
-                    String flNumberStr = getColumnValue(data, columnMap, "FL_NUMBER");
-                    String origin = getColumnValue(data, columnMap, "ORIGIN");
-                    String originCity = getColumnValue(data, columnMap, "ORIGIN_CITY");
-                    String dest = getColumnValue(data, columnMap, "DEST");
-                    String destCity = getColumnValue(data, columnMap, "DEST_CITY");
-                    String crsDepTimeStr = getColumnValue(data, columnMap, "CRS_DEP_TIME");
-                    String depTimeStr = getColumnValue(data, columnMap, "DEP_TIME");
-                    String crsArrTimeStr = getColumnValue(data, columnMap, "CRS_ARR_TIME");
-                    String arrTimeStr = getColumnValue(data, columnMap, "ARR_TIME");
-                    String cancelledStr = getColumnValue(data, columnMap, "CANCELLED");
-
-                    // Skip if essential data is missing
-                    if (isEmptyOrNull(airlineCode) || isEmptyOrNull(origin) || isEmptyOrNull(dest)) {
-                        System.out.println("Skipping row: missing essential data in line " + (processedRows + 1));
-                        continue;
-                    }
-
-                    // Skip cancelled flights if needed
-                    if (!isEmptyOrNull(cancelledStr) && !cancelledStr.equals("0.0") && !cancelledStr.equals("0")) {
-                        System.out.println("Skipping cancelled flight in line " + (processedRows + 1));
-                        continue;
-                    }
-
-                    // Insert airline if not already processed
-                    airlineStmt.setString(1, airlineCode.trim());
-                    airlineStmt.setString(2, airlineName.trim());
-                    airlineStmt.executeUpdate();
-
-                    // Insert origin airport if not already processed
-                    airportStmt.setString(1, origin.trim());
-                    airportStmt.setString(2, originCity.trim());
-                    airportStmt.executeUpdate();
-
-                    // Insert destination airport if not already processed
-                    airportStmt.setString(1, dest.trim());
-                    airportStmt.setString(2, destCity.trim());
-                    airportStmt.executeUpdate();
-
-                    // Insert flight data
-                    flightStmt.setString(1, flDate);
-                    flightStmt.setString(2, airlineCode.trim());
-
-                    try {
-                        flightStmt.setInt(3, Integer.parseInt(flNumberStr.trim()));
-                    } catch (NumberFormatException e) {
-                        System.out.println("Invalid flight number at line " + (processedRows + 1) + ": " + flNumberStr);
-                        continue;
-                    }
-
-                    flightStmt.setString(4, origin.trim());
-                    flightStmt.setString(5, dest.trim());
-
-                    // Handle scheduled and actual times
-                    flightStmt.setInt(6, parseTimeValue(crsDepTimeStr));
-                    flightStmt.setInt(7, parseTimeValue(depTimeStr));
-                    flightStmt.setInt(8, parseTimeValue(crsArrTimeStr));
-                    flightStmt.setInt(9, parseTimeValue(arrTimeStr));
-
-                    flightStmt.executeUpdate();
-
-                    // Get the generated flight_id
-                    int flightId = -1;
-                    try (var rs = flightStmt.getGeneratedKeys()) {
-                        if (rs.next()) {
-                            flightId = rs.getInt(1);
-                        } else {
-                            System.out.println("Failed to get flight ID for row " + (processedRows + 1));
-                            continue;
-                        }
-                    }
-
-                    // Insert delay reasons if present
-                    insertDelayReason(delayStmt, flightId, "CARRIER", getColumnValue(data, columnMap, "DELAY_DUE_CARRIER"));
-                    insertDelayReason(delayStmt, flightId, "WEATHER", getColumnValue(data, columnMap, "DELAY_DUE_WEATHER"));
-                    insertDelayReason(delayStmt, flightId, "NAS", getColumnValue(data, columnMap, "DELAY_DUE_NAS"));
-                    insertDelayReason(delayStmt, flightId, "SECURITY", getColumnValue(data, columnMap, "DELAY_DUE_SECURITY"));
-                    insertDelayReason(delayStmt, flightId, "LATE_AIRCRAFT", getColumnValue(data, columnMap, "DELAY_DUE_LATE_AIRCRAFT"));
-
-                    // Commit in batches for better performance
-                    batchCount++;
-                    if (batchCount >= BATCH_SIZE) {
-                        connection.commit();
-                        batchCount = 0;
-                    }
-
-                    processedRows++;
-                    if (processedRows % PROGRESS_INTERVAL == 0) {
-                        System.out.println("Processed " + processedRows + " rows");
-                    }
-                } catch (Exception e) {
-                    System.out.println("Error processing row " + (processedRows + 1) + ": " + e.getMessage());
-                    e.printStackTrace();
+                    parseRecord(new SplitCsvRow(parseCsvLine(line)), plan, record);
+                } catch (RuntimeException e) {
+                    record.reject("error: " + e);
+                }
+                if (!record.isValid() && quarantine != null) {
+                    record.sourceText = line;
+                }
+                metrics.recordParse(System.nanoTime() - start);
+                return record;
+            };
+
+            if (pipelineWorkers > 0) {
+                ImportPipeline pipeline = new ImportPipeline(reader, lineNumber + 1, parser,
+                        record -> writeRecord(writer, record),
+                        pipelineWorkers);
+                pipeline.run();
+                stageStats = pipeline.getStageStats();
+            } else {
+                // Process data rows
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    writeRecord(writer, parser.parse(line, lineNumber, reader.offset()));
                 }
             }
+        }
+    }
 
-            // Final commit for any remaining batches
-            if (batchCount > 0) {
-                connection.commit();
+    /**
+     * Opens a CSV source for streaming. Compressed input is decompressed on a background
+     * thread, and standard input is read ahead the same way, so reading overlaps with parsing.
+     * @param csvFilePath the path to the CSV file, or {@value #STDIN_PATH}
+     * @return the stream of uncompressed CSV bytes
+     * @throws IOException if the source cannot be opened
+     */
+    private static InputStream openInput(String csvFilePath) throws IOException {
+        boolean stdin = STDIN_PATH.equals(csvFilePath);
+        BufferedInputStream in = new BufferedInputStream(
+                stdin ? System.in : new FileInputStream(csvFilePath), INPUT_BUFFER_SIZE);
+        String compression = detectCompression(in);
+        if ("gzip".equals(compression)) {
+            return new ReadAheadInputStream(new GZIPInputStream(in, INPUT_BUFFER_SIZE), "csv-gunzip");
+        }
+        if ("zstd".equals(compression)) {
+            return new ReadAheadInputStream(openZstd(in), "csv-unzstd");
+        }
+        return stdin ? new ReadAheadInputStream(in, "csv-stdin") : in;
+    }
+
+    /**
+     * Checks whether a file is compressed.
+     * @param csvFilePath the path to the file
+     * @return "gzip", "zstd" or null for plain text
+     * @throws IOException if the file cannot be read
+     */
+    private static String detectCompression(String csvFilePath) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(csvFilePath), ZSTD_MAGIC.length)) {
+            return detectCompression(in);
+        }
+    }
+
+    /**
+     * Checks the magic bytes at the start of a stream without consuming them.
+     * @param in the stream, positioned at its start
+     * @return "gzip", "zstd" or null for plain text
+     * @throws IOException if reading fails
+     */
+    private static String detectCompression(BufferedInputStream in) throws IOException {
+        in.mark(ZSTD_MAGIC.length);
+        byte[] head = in.readNBytes(ZSTD_MAGIC.length);
+        in.reset();
+        if (startsWith(head, GZIP_MAGIC)) {
+            return "gzip";
+        }
+        if (startsWith(head, ZSTD_MAGIC)) {
+            return "zstd";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            System.out.println("Import completed. Processed " + processedRows + " rows.");
+    /**
+     * Opens a zstd decompressor from zstd-jni, which is an optional dependency and
+     * therefore loaded reflectively.
+     * @param in the compressed stream
+     * @return the decompressing stream
+     * @throws IOException if zstd-jni is not on the classpath or the stream cannot be opened
+     */
+    private static InputStream openZstd(InputStream in) throws IOException {
+        try {
+            Class<?> type = Class.forName("com.github.luben.zstd.ZstdInputStream");
+            return (InputStream) type.getConstructor(InputStream.class).newInstance(in);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Reading zstd input requires zstd-jni (com.github.luben:zstd-jni) on the classpath");
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot open zstd stream", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot open zstd stream", e);
         }
     }
 
     /**
-     * Maps column names to their indices.
-     * @param headers the CSV header row
-     * @return map of column names to indices
+     * Imports a CSV file through the memory-mapped tokenizer.
+     * @param csvFilePath the path to the CSV file
+     * @param checkpoint where to resume, or null to start at the first row
+     * @param writer the flight writer
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if a database access error occurs
      */
-    private Map<String, Integer> mapColumnIndices(String[] headers) {
-        Map<String, Integer> columnMap = new HashMap<>();
-        for (int i = 0; i < headers.length; i++) {
-            columnMap.put(headers[i].trim(), i);
+    private void importMapped(String csvFilePath, ImportCheckpoint checkpoint, FlightWriter writer)
+            throws IOException, SQLException {
+        try (CsvTokenizer tokenizer = new CsvTokenizer(Path.of(csvFilePath))) {
+            // Read header record to get column indices
+            if (!tokenizer.next()) {
+                throw new IOException("CSV file is empty");
+            }
+
+            openQuarantine(tokenizer.recordText());
+
+            String[] headers = new String[tokenizer.fieldCount()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = tokenizer.text(i);
+            }
+            ProjectionPlan plan = new ProjectionPlan(headers);
+
+            if (checkpoint != null) {
+                tokenizer.seek(checkpoint.byteOffset, checkpoint.lineNumber + 1);
+            }
+
+            // Parse time here includes tokenizing the record
+            ImportPipeline.RecordSource source = () -> {
+                long start = System.nanoTime();
+                if (!tokenizer.next()) {
+                    return null;
+                }
+                FlightRecord record = new FlightRecord(tokenizer.lineNumber(), tokenizer.nextRecordOffset());
+                try {
+                    parseRecord(tokenizer, plan, record);
+                } catch (RuntimeException e) {
+                    record.reject("error: " + e);
+                }
+                if (!record.isValid() && quarantine != null) {
+                    record.sourceText = tokenizer.recordText();
+                }
+                metrics.recordParse(System.nanoTime() - start);
+                return record;
+            };
+
+            if (pipelineWorkers > 0) {
+                ImportPipeline pipeline = new ImportPipeline(source, record -> writeRecord(writer, record));
+                pipeline.run();
+                stageStats = pipeline.getStageStats();
+            } else {
+                FlightRecord record;
+                while ((record = source.next()) != null) {
+                    writeRecord(writer, record);
+                }
+            }
         }
-        return columnMap;
     }
 
     /**
-     * Gets the minimum number of columns required based on mapped indices.
-     * @param columnMap the column name to index map
-     * @return the minimum number of columns required
+     * Parses and validates one CSV record into the given record, using the plan's
+     * field slots. Safe to call from several threads with different rows.
+     * @param row the record's fields
+     * @param plan the column slots resolved from the header
+     * @param record the record to fill in or reject
      */
-    private int getMinRequiredColumns(Map<String, Integer> columnMap) {
-        int maxIndex = 0;
-        String[] requiredColumns = {"FL_DATE", "AIRLINE_CODE", "FL_NUMBER", "ORIGIN", "DEST"};
-
-        for (String column : requiredColumns) {
-            Integer index = columnMap.get(column);
-            if (index != null && index > maxIndex) {
-                maxIndex = index;
+    private void parseRecord(CsvRow row, ProjectionPlan plan, FlightRecord record) {
+        // Skip rows that don't have enough data
+        if (row.fieldCount() < plan.minColumns) {
+            record.reject("insufficient columns");
+            return;
+        }
+
+        record.airlineCode = row.text(plan.airlineCode);
+        record.origin = row.text(plan.origin);
+        record.dest = row.text(plan.dest);
+        String cancelled = row.text(plan.cancelled);
+
+        // Skip if essential data is missing
+        if (record.airlineCode.isEmpty() || record.origin.isEmpty() || record.dest.isEmpty()) {
+            record.reject("missing essential data");
+            return;
+        }
+
+        // Skip cancelled flights if needed
+        if (!cancelled.isEmpty() && !cancelled.equals("0.0") && !cancelled.equals("0")) {
+            record.reject("cancelled flight");
+            return;
+        }
+
+        record.flightNumber = row.integer(plan.flightNumber);
+        if (record.flightNumber == CsvRow.INVALID) {
+            record.reject("invalid flight number: " + row.text(plan.flightNumber));
+            return;
+        }
+
+        record.date = row.date(plan.date);
+        if (!decodeDate(record)) {
+            record.reject("invalid date: " + row.text(plan.date));
+            return;
+        }
+        record.airlineName = row.text(plan.airline);
+        record.originCity = row.text(plan.originCity);
+        record.destCity = row.text(plan.destCity);
+
+        // Handle scheduled and actual times
+        record.scheduledDeparture = decodeTime(row, record, plan.scheduledDeparture);
+        record.actualDeparture = decodeTime(row, record, plan.actualDeparture);
+        record.scheduledArrival = decodeTime(row, record, plan.scheduledArrival);
+        record.actualArrival = decodeTime(row, record, plan.actualArrival);
+        if (record.scheduledDeparture > 0 && record.actualDeparture > 0) {
+            record.departureDelay = Flight.delayMinutes(record.scheduledDeparture, record.actualDeparture);
+        }
+        if (record.scheduledArrival > 0 && record.actualArrival > 0) {
+            record.arrivalDelay = Flight.delayMinutes(record.scheduledArrival, record.actualArrival);
+        }
+
+        // Delay reasons, in the order of FlightRecord.DELAY_REASONS
+        for (int i = 0; i < FlightRecord.DELAY_REASONS.length; i++) {
+            int minutes = decodeOptional(row, record, plan.delays[i], "delay value for " + FlightRecord.DELAY_REASONS[i]);
+            if (minutes > 0) {
+                record.delays[i] = minutes;
             }
         }
 
-        return maxIndex + 1;
+        record.airTime = decodeOptional(row, record, plan.airTime, "air time");
+        record.distance = decodeOptional(row, record, plan.distance, "distance");
+        record.diverted = decodeOptional(row, record, plan.diverted, "diverted flag");
+    }
+
+    /**
+     * Fills in the epoch day, year and month of a record from its yyyyMMdd date.
+     * @param record the record, with its date set
+     * @return false if the date is not a valid calendar date
+     */
+    private static boolean decodeDate(FlightRecord record) {
+        String date = record.date;
+        if (date.length() != 8) {
+            return false;
+        }
+        int value = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = date.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+        try {
+            record.epochDay = (int) LocalDate.of(value / 10000, value / 100 % 100, value % 100).toEpochDay();
+        } catch (DateTimeException e) {
+            return false;
+        }
+        record.year = value / 10000;
+        record.month = value / 100 % 100;
+        return true;
     }
 
     /**
-     * Gets a column value safely from a data row.
-     * @param data the data row
-     * @param columnMap the column name to index map
-     * @param columnName the column name
-     * @return the column value or empty string if not found
+     * Decodes an HHMM time field, warning and using 0 if it is malformed.
+     * @param row the record's fields
+     * @param record the record to attach a warning to
+     * @param field the field index
+     * @return the time in HHMM form
      */
-    private String getColumnValue(String[] data, Map<String, Integer> columnMap, String columnName) {
-        Integer index = columnMap.get(columnName);
-        if (index == null || index >= data.length) {
-            return "";
+    private int decodeTime(CsvRow row, FlightRecord record, int field) {
+        int time = row.time(field);
+        if (time == CsvRow.INVALID) {
+            record.warn("invalid time format: " + row.text(field));
+            return 0;
         }
-        return data[index].trim();
+        return time;
     }
 
     /**
-     * Checks if a string is null or empty.
-     * @param str the string to check
-     * @return true if null or empty
+     * Decodes a decimal field rounded to a whole number, warning if it is malformed.
+     * @param row the record's fields
+     * @param record the record to attach a warning to
+     * @param field the field index
+     * @param description what the field holds, used in the warning
+     * @return the value, or {@link FlightRecord#MISSING} if the field is empty or malformed
      */
-    private boolean isEmptyOrNull(String str) {
-        return str == null || str.trim().isEmpty();
+    private int decodeOptional(CsvRow row, FlightRecord record, int field, String description) {
+        if (row.isEmpty(field)) {
+            return FlightRecord.MISSING;
+        }
+        int value = row.rounded(field);
+        if (value == CsvRow.INVALID) {
+            record.warn("invalid " + description + ": " + row.text(field));
+            return FlightRecord.MISSING;
+        }
+        return value;
     }
 
     /**
-     * Parses a time value from string, handling various formats.
-     * @param timeStr the time string
-     * @return the time as an integer in HHMM format
+     * Writes a parsed record, reporting it if rejected, and commits in batches.
+     * Always called on a single thread, in file order.
+     * @param writer the flight writer
+     * @param record the parsed record
+     * @throws SQLException if a database access error occurs
      */
-    private int parseTimeValue(String timeStr) {
-        if (isEmptyOrNull(timeStr)) {
-            return 0;
+    private void writeRecord(FlightWriter writer, FlightRecord record) throws SQLException {
+        lastRecord = record;
+        if (record.warning != null) {
+            metrics.recordWarning(record.warning);
+            logRow("Warning at line " + record.lineNumber + ": " + record.warning);
+        }
+        if (!record.isValid()) {
+            metrics.recordReject(record.rejectMessage);
+            if (quarantine != null) {
+                quarantine.add(record.lineNumber, record.rejectMessage, record.sourceText);
+            } else {
+                logRow("Skipping line " + record.lineNumber + ": " + record.rejectMessage);
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        if (writer.exists(record)) {
+            duplicateRows++;
+            metrics.recordDuplicate();
+            return;
+        }
+
+        if (!writer.write(record)) {
+            metrics.recordReject("no flight ID generated");
+            logRow("Failed to get flight ID for line " + record.lineNumber);
+            return;
         }
+        metrics.recordInsert(System.nanoTime() - start);
+
+        // Commit in batches for better performance
+        batchCount++;
+        if (batchCount >= BATCH_SIZE) {
+            commit(writer, record);
+            batchCount = 0;
+        }
+
+        processedRows++;
+    }
 
-        // Remove any decimal part if present
-        if (timeStr.contains(".")) {
-            timeStr = timeStr.substring(0, timeStr.indexOf('.'));
+    /**
+     * Starts the quarantine writer if a quarantine file is set.
+     * @param headerLine the source's header line, repeated in the quarantine file
+     * @throws IOException if an old quarantine file cannot be removed
+     */
+    private void openQuarantine(String headerLine) throws IOException {
+        if (quarantineFile != null) {
+            quarantine = new QuarantineWriter(Path.of(quarantineFile), headerLine);
         }
+    }
 
+    /**
+     * Closes the quarantine writer. If the import is already failing, a failure to
+     * write the quarantine file is added to that exception instead of replacing it.
+     * @param failure the exception the import is failing with, or null
+     * @throws IOException if writing the quarantine file failed and the import did not
+     */
+    private void closeQuarantine(Exception failure) throws IOException {
         try {
-            // Try parsing directly
-            return Integer.parseInt(timeStr);
-        } catch (NumberFormatException e) {
-            try {
-                // Try parsing as a time (HH:MM)
-                if (timeStr.contains(":")) {
-                    String[] parts = timeStr.split(":");
-                    int hours = Integer.parseInt(parts[0]);
-                    int minutes = Integer.parseInt(parts[1]);
-                    return hours * 100 + minutes;
-                }
-            } catch (Exception ex) {
-                System.out.println("Invalid time format: " + timeStr);
+            quarantine.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                throw e;
             }
-            return 0;
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Commits the current batch and records how long it took.
+     * @param writer the flight writer
+     * @param record the last record handled, stored as the checkpoint
+     * @throws SQLException if a database access error occurs
+     */
+    private void commit(FlightWriter writer, FlightRecord record) throws SQLException {
+        long start = System.nanoTime();
+        writer.commit(record);
+        metrics.recordCommit(System.nanoTime() - start);
+    }
+
+    /**
+     * Prints a message about a single row. Only the first few are printed, since printing
+     * every bad row of a dirty file slows the import down; the rest are counted in the metrics.
+     * @param message the message
+     */
+    private void logRow(String message) {
+        if (loggedRows < MAX_LOGGED_ROWS) {
+            System.out.println(message);
+        } else if (loggedRows == MAX_LOGGED_ROWS) {
+            System.out.println("Further skipped rows and warnings are counted but not printed");
         }
+        loggedRows++;
     }
 
     /**
@@ -324,32 +699,6 @@ public class CsvImporter {
         return fields.toArray(new String[0]);
     }
 
-    /**
-     * Inserts a delay reason if the delay value is valid.
-     * @param stmt the prepared statement for delay reason insertion
-     * @param flightId the flight ID
-     * @param reason the delay reason
-     * @param delayStr the delay length as string
-     * @throws SQLException if a database access error occurs
-     */
-    private void insertDelayReason(PreparedStatement stmt, int flightId, String reason, String delayStr)
-            throws SQLException {
-        if (delayStr != null && !delayStr.trim().isEmpty()) {
-            try {
-                float delay = Float.parseFloat(delayStr.trim());
-                if (delay > 0) {
-                    int delayMinutes = Math.round(delay);
-                    stmt.setInt(1, flightId);
-                    stmt.setString(2, reason);
-                    stmt.setInt(3, delayMinutes);
-                    stmt.executeUpdate();
-                }
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid delay value for " + reason + ": " + delayStr);
-            }
-        }
-    }
-
     /**
      * Gets the total number of rows processed.
      * @return the count of processed rows
@@ -357,4 +706,37 @@ public class CsvImporter {
     public int getProcessedRows() {
         return processedRows;
     }
+
+    /**
+     * Gets the counters of the last import run.
+     * @return the import metrics
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of rows skipped in append mode because they were already loaded.
+     * @return the count of duplicate rows
+     */
+    public int getDuplicateRows() {
+        return duplicateRows;
+    }
+
+    /**
+     * Gets airline and airport codes that appeared with more than one name.
+     * The first name seen for a code is the one stored.
+     * @return descriptions of the conflicts
+     */
+    public List<String> getNameConflicts() {
+        return dimensions.getConflicts();
+    }
+
+    /**
+     * Gets per-stage throughput of the last pipelined import.
+     * @return stage statistics, empty if the last import was single-threaded
+     */
+    public List<StageStats> getStageStats() {
+        return stageStats;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads UTF-8 text lines from a stream while tracking the byte offset of each line,
+ * which {@link java.io.BufferedReader} does not expose. The offsets are what import
+ * checkpoints record, and {@link #seek(long)} skips straight back to one.
+ * Not thread-safe.
+ */
+class CsvLineReader implements AutoCloseable {
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+
+    /** Stream offset of buffer[0]. */
+    private long bufferStart;
+
+    private byte[] line = new byte[512];
+
+    /**
+     * Creates a reader over the given stream, which must be positioned at offset 0.
+     * @param in the input stream
+     */
+    CsvLineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line without its terminator.
+     * @return the line, or null at end of stream
+     * @throws IOException if reading fails
+     */
+    String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit && !fill()) {
+                return length == 0 ? null : decode(length);
+            }
+            byte b = buffer[position++];
+            if (b == '\n') {
+                return decode(length);
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = b;
+        }
+    }
+
+    private String decode(int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean fill() throws IOException {
+        bufferStart += limit;
+        position = 0;
+        limit = 0;
+        int read = in.read(buffer);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Gets the byte offset just past the last line returned.
+     * @return the offset of the next line
+     */
+    long offset() {
+        return bufferStart + position;
+    }
+
+    /**
+     * Moves forward to the given byte offset, which must be the start of a line.
+     * On a file stream this is a seek; earlier rows are not read.
+     * @param offset the absolute byte offset
+     * @throws IOException if the stream ends before the offset
+     */
+    void seek(long offset) throws IOException {
+        if (offset < offset()) {
+            throw new IOException("Cannot seek backwards to offset " + offset);
+        }
+        if (offset <= bufferStart + limit) {
+            position = (int) (offset - bufferStart);
+            return;
+        }
+
+        long remaining = offset - (bufferStart + limit);
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Stream ended before checkpoint offset " + offset);
+            }
+            remaining -= skipped;
+        }
+        bufferStart = offset;
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * Closes the underlying stream.
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,60 @@
+package database;
+
+/**
+ * Typed access to the fields of one CSV record by index. Field indices come from a
+ * {@link ProjectionPlan}; a negative index stands for a column the file does not have.
+ * The numeric decoders return {@link #INVALID} for malformed values instead of throwing.
+ */
+interface CsvRow {
+
+    /** Returned by the numeric decoders when a field is not a valid number. */
+    int INVALID = Integer.MIN_VALUE;
+
+    /**
+     * Gets the number of fields in the record.
+     * @return the field count
+     */
+    int fieldCount();
+
+    /**
+     * Checks if a field is missing or blank.
+     * @param field the field index, may be negative for an absent column
+     * @return true if there is no value
+     */
+    boolean isEmpty(int field);
+
+    /**
+     * Decodes a field as trimmed text.
+     * @param field the field index, may be negative for an absent column
+     * @return the field value, or an empty string if absent
+     */
+    String text(int field);
+
+    /**
+     * Decodes a date field, dropping any dashes so 2021-01-31 becomes 20210131.
+     * @param field the field index
+     * @return the date as a YYYYMMDD string, or an empty string if absent
+     */
+    String date(int field);
+
+    /**
+     * Decodes a field as a plain integer.
+     * @param field the field index
+     * @return the value, or {@link #INVALID} if the field is absent or not an integer
+     */
+    int integer(int field);
+
+    /**
+     * Decodes a time field written as HHMM, HHMM.0 or H:MM.
+     * @param field the field index
+     * @return the time in HHMM form, 0 if absent, or {@link #INVALID} if malformed
+     */
+    int time(int field);
+
+    /**
+     * Decodes a decimal field, such as delay minutes or a distance, rounded to a whole number.
+     * @param field the field index
+     * @return the rounded value, 0 if absent, or {@link #INVALID} if malformed
+     */
+    int rounded(int field);
+}
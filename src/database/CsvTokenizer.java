@@ -0,0 +1,467 @@
+package database;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Byte-level CSV tokenizer over a memory-mapped file.
+ * <p>
+ * Each call to {@link #next()} locates the fields of one record and stores their
+ * offsets into the mapped buffer; nothing is copied. Numeric fields are decoded
+ * straight from the bytes and text fields go through an intern table, so the
+ * repeated airline and city names of a BTS file are only decoded once.
+ * Fields are trimmed and surrounding quotes removed, quoted newlines and
+ * doubled quotes are supported. Not thread-safe.
+ */
+class CsvTokenizer implements CsvRow, AutoCloseable {
+
+    /** Files larger than this are mapped in consecutive windows. */
+    private static final long WINDOW_SIZE = 256L << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private int windowLimit;
+
+    private int position;
+    private int recordStart;
+    private int recordEnd;
+    private long lineNumber;
+    private long nextLineNumber = 1;
+
+    private int fieldCount;
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private boolean[] fieldEscaped = new boolean[64];
+
+    private final StringTable strings = new StringTable(false);
+    private final StringTable dates = new StringTable(true);
+
+    /**
+     * Opens and maps the given file.
+     * @param path the CSV file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    CsvTokenizer(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0);
+    }
+
+    /**
+     * Jumps to a record boundary recorded by an earlier import, without scanning the bytes before it.
+     * @param offset absolute byte offset of the next record to read
+     * @param lineNumber the line number of that record
+     * @throws IOException if the offset is past the end of the file or mapping fails
+     */
+    void seek(long offset, long lineNumber) throws IOException {
+        if (offset > fileSize) {
+            throw new IOException("Checkpoint offset " + offset + " is past the end of the file");
+        }
+        map(offset);
+        nextLineNumber = lineNumber;
+    }
+
+    /**
+     * Maps the window starting at the given file offset.
+     * @param offset absolute file offset
+     * @throws IOException if mapping fails
+     */
+    private void map(long offset) throws IOException {
+        windowStart = offset;
+        windowLimit = (int) Math.min(WINDOW_SIZE, fileSize - offset);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, windowLimit);
+        position = 0;
+    }
+
+    /**
+     * Advances to the next record.
+     * @return false at end of file
+     * @throws IOException if remapping the file fails
+     */
+    boolean next() throws IOException {
+        while (true) {
+            if (position >= windowLimit && windowStart + windowLimit >= fileSize) {
+                return false;
+            }
+            if (scanRecord()) {
+                return true;
+            }
+            // The record runs past the end of this window, remap starting at the record
+            map(windowStart + position);
+        }
+    }
+
+    /**
+     * Scans one record from the current position.
+     * @return false if the window ends before the record does
+     */
+    private boolean scanRecord() {
+        boolean lastWindow = windowStart + windowLimit >= fileSize;
+        int p = position;
+        int fieldStart = p;
+        boolean inQuotes = false;
+        boolean escaped = false;
+        int newlines = 0;
+        fieldCount = 0;
+
+        while (true) {
+            if (p >= windowLimit) {
+                if (!lastWindow) {
+                    return false;
+                }
+                addField(fieldStart, p, escaped);
+                finishRecord(p, p, newlines);
+                return true;
+            }
+            byte b = buffer.get(p);
+            if (b == '"') {
+                if (inQuotes && p + 1 < windowLimit && buffer.get(p + 1) == '"') {
+                    escaped = true;
+                    p++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (b == '\n') {
+                newlines++;
+                if (!inQuotes) {
+                    addField(fieldStart, p, escaped);
+                    finishRecord(p, p + 1, newlines);
+                    return true;
+                }
+            } else if (b == ',' && !inQuotes) {
+                addField(fieldStart, p, escaped);
+                fieldStart = p + 1;
+                escaped = false;
+            }
+            p++;
+        }
+    }
+
+    /**
+     * Records the bounds of one field, trimmed and without surrounding quotes.
+     */
+    private void addField(int start, int end, boolean escaped) {
+        while (start < end && buffer.get(start) <= ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+            start++;
+            end--;
+        }
+
+        if (fieldCount == fieldStarts.length) {
+            int capacity = fieldCount * 2;
+            fieldStarts = java.util.Arrays.copyOf(fieldStarts, capacity);
+            fieldEnds = java.util.Arrays.copyOf(fieldEnds, capacity);
+            fieldEscaped = java.util.Arrays.copyOf(fieldEscaped, capacity);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    private void finishRecord(int end, int nextPosition, int newlines) {
+        recordStart = position;
+        recordEnd = end;
+        position = nextPosition;
+        lineNumber = nextLineNumber;
+        nextLineNumber += Math.max(newlines, 1);
+    }
+
+    /**
+     * Gets the number of fields in the current record.
+     * @return the field count
+     */
+    @Override
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Gets the line number the current record starts on.
+     * @return the 1-based line number
+     */
+    long lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Gets the absolute file offset just past the current record.
+     * @return the byte offset of the next record
+     */
+    long nextRecordOffset() {
+        return windowStart + position;
+    }
+
+    /**
+     * Checks if a field is missing or blank.
+     * @param field the field index, may be negative for an absent column
+     * @return true if there is no value
+     */
+    @Override
+    public boolean isEmpty(int field) {
+        return field < 0 || field >= fieldCount || fieldStarts[field] == fieldEnds[field];
+    }
+
+    /**
+     * Decodes a field as text, interning repeated values.
+     * @param field the field index, may be negative for an absent column
+     * @return the field value, or an empty string if absent
+     */
+    @Override
+    public String text(int field) {
+        if (isEmpty(field)) {
+            return "";
+        }
+        if (fieldEscaped[field]) {
+            // Rare: doubled quotes inside a quoted field, decode without interning
+            return decode(fieldStarts[field], fieldEnds[field]).replace("\"\"", "\"");
+        }
+        return strings.intern(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Decodes a date field, dropping any dashes so 2021-01-31 becomes 20210131.
+     * @param field the field index
+     * @return the date as a YYYYMMDD string, or an empty string if absent
+     */
+    @Override
+    public String date(int field) {
+        if (isEmpty(field)) {
+            return "";
+        }
+        return dates.intern(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Decodes a field as a plain integer.
+     * @param field the field index
+     * @return the value, or {@link #INVALID} if the field is absent or not an integer
+     */
+    @Override
+    public int integer(int field) {
+        if (isEmpty(field)) {
+            return INVALID;
+        }
+        int p = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = buffer.get(p) == '-';
+        if (negative || buffer.get(p) == '+') {
+            p++;
+        }
+        if (p == end) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int digit = buffer.get(p) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            // Out of int range, as Integer.parseInt would reject it; -2147483648 still fits
+            if (value > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) {
+                return INVALID;
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Decodes a time field written as HHMM, HHMM.0 or H:MM.
+     * @param field the field index
+     * @return the time in HHMM form, 0 if absent, or {@link #INVALID} if malformed
+     */
+    @Override
+    public int time(int field) {
+        if (isEmpty(field)) {
+            return 0;
+        }
+        int value = 0;
+        int hours = -1;
+        int digits = 0;
+        for (int p = fieldStarts[field], end = fieldEnds[field]; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                if (++digits > 6) {
+                    return INVALID;
+                }
+            } else if (b == '.') {
+                // Ignore the decimal part, as the line-based parser does
+                break;
+            } else if (b == ':' && hours < 0 && digits > 0) {
+                hours = value;
+                value = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0) {
+            return INVALID;
+        }
+        return hours < 0 ? value : hours * 100 + value;
+    }
+
+    /**
+     * Decodes a decimal field, rounded to a whole number.
+     * @param field the field index
+     * @return the rounded value, 0 if absent, or {@link #INVALID} if malformed
+     */
+    @Override
+    public int rounded(int field) {
+        if (isEmpty(field)) {
+            return 0;
+        }
+        int p = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = buffer.get(p) == '-';
+        if (negative || buffer.get(p) == '+') {
+            p++;
+        }
+        double value = 0;
+        double scale = 0;
+        int digits = 0;
+        for (; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b >= '0' && b <= '9') {
+                if (scale == 0) {
+                    value = value * 10 + (b - '0');
+                } else {
+                    value += (b - '0') * scale;
+                    scale /= 10;
+                }
+                digits++;
+            } else if (b == '.' && scale == 0) {
+                scale = 0.1;
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0) {
+            return INVALID;
+        }
+        return Math.round((float) (negative ? -value : value));
+    }
+
+    /**
+     * Decodes the current record as a string, without its line terminator.
+     * Only meant for reporting rejected rows.
+     * @return the raw record text
+     */
+    String recordText() {
+        int end = recordEnd;
+        if (end > recordStart && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        return decode(recordStart, end);
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the underlying file channel.
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Open-addressing table mapping byte sequences to decoded strings.
+     */
+    private static class StringTable {
+
+        private final boolean stripDashes;
+        private byte[][] keys = new byte[1024][];
+        private String[] values = new String[1024];
+        private int size;
+
+        StringTable(boolean stripDashes) {
+            this.stripDashes = stripDashes;
+        }
+
+        String intern(MappedByteBuffer buffer, int start, int end) {
+            int length = end - start;
+            int hash = 1;
+            for (int p = start; p < end; p++) {
+                hash = 31 * hash + buffer.get(p);
+            }
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (matches(keys[slot], buffer, start, length)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            byte[] key = new byte[length];
+            buffer.get(start, key);
+            String value = new String(key, StandardCharsets.UTF_8);
+            if (stripDashes) {
+                value = value.replace("-", "");
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private static boolean matches(byte[] key, MappedByteBuffer buffer, int start, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int hash = 1;
+                    for (byte b : oldKeys[i]) {
+                        hash = 31 * hash + b;
+                    }
+                    int slot = mix(hash) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -1,28 +1,120 @@
 package database;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Handles database connection and schema creation for the flight punctuality application.
  */
 public class DatabaseManager {
 
-    private static final String DB_URL = "jdbc:sqlite:flights.db";
+    /**
+     * Named sets of SQLite pragmas for the different phases of the database's life.
+     */
+    public enum Profile {
+        /** Driver defaults, no pragmas applied. */
+        DEFAULT(),
+
+        /**
+         * Fast ingest: rollback journal kept in memory, no fsync, large page cache and
+         * no foreign key checks. A crash during the import can leave the file unusable,
+         * so the import has to be re-run; it is therefore only for new databases, never for
+         * appending to or resuming into one. page_size only takes effect on a new database file.
+         */
+        BULK_LOAD(
+                "page_size = 8192",
+                "journal_mode = MEMORY",
+                "synchronous = OFF",
+                "cache_size = -262144",
+                "temp_store = MEMORY",
+                "mmap_size = 268435456",
+                "foreign_keys = OFF"
+        ),
+
+        /**
+         * The state to leave the file in after an import: WAL, so the application's
+         * readers are not blocked by the next import. Only the journal mode is stored
+         * in the file; the page cache and memory-mapped reads are connection settings,
+         * which the application sets on the connections it opens (see
+         * {@code service.ReadConnectionPool}).
+         */
+        READ_OPTIMIZED(
+                "journal_mode = WAL"
+        );
+
+        private final String[] pragmas;
+
+        Profile(String... pragmas) {
+            this.pragmas = pragmas;
+        }
+    }
+
+    /** Delay reasons as stored in Delay_Reason.reason, in import order. */
+    public static final List<String> DELAY_REASONS = List.of("CARRIER", "WEATHER", "NAS", "SECURITY", "LATE_AIRCRAFT");
+
+    /** Flight column holding the sum of all delay columns when {@link SchemaFeature#WIDE_DELAYS} is enabled. */
+    public static final String DELAY_TOTAL_COLUMN = "delay_total";
+
+    /** Schema_Info key of the import generation, see {@link #advanceImportGeneration()}. */
+    public static final String IMPORT_GENERATION_KEY = "import_generation";
+
+    private static final String DEFAULT_DB_PATH = "flights.db";
+    private final String dbPath;
     private Connection connection;
 
+    /**
+     * Creates a manager for the application database, flights.db in the working directory.
+     */
+    public DatabaseManager() {
+        this(DEFAULT_DB_PATH);
+    }
+
+    /**
+     * Creates a manager for the SQLite database at the given path.
+     * @param dbPath path to the database file
+     */
+    public DatabaseManager(String dbPath) {
+        this.dbPath = dbPath;
+    }
+
     /**
      * Creates a new database connection.
      * @throws SQLException if a database access error occurs
      */
     public void connect() throws SQLException {
-        connection = DriverManager.getConnection(DB_URL);
+        connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
         connection.setAutoCommit(false); // Important for performance during bulk inserts
         System.out.println("Connected to the database.");
     }
 
+    /**
+     * Applies the pragmas of a profile to the current connection.
+     * @param profile the profile to apply
+     * @throws SQLException if a database access error occurs
+     */
+    public void applyProfile(Profile profile) throws SQLException {
+        // journal_mode cannot be changed inside a transaction, so step out of manual commit mode
+        connection.setAutoCommit(true);
+        try (Statement stmt = connection.createStatement()) {
+            for (String pragma : profile.pragmas) {
+                stmt.execute("PRAGMA " + pragma);
+            }
+        } finally {
+            connection.setAutoCommit(false);
+        }
+        System.out.println("Applied database profile " + profile + ".");
+    }
+
     /**
      * Closes the database connection.
      * @throws SQLException if a database access error occurs
@@ -41,84 +133,669 @@ public class DatabaseManager {
     public void createSchema() throws SQLException {
         try (Statement stmt = connection.createStatement()) {
             // Drop existing tables if they exist
+            YearPartitions.dropAll(connection);
             stmt.executeUpdate("DROP TABLE IF EXISTS Delay_Reason");
             stmt.executeUpdate("DROP TABLE IF EXISTS Flight");
             stmt.executeUpdate("DROP TABLE IF EXISTS Airline");
             stmt.executeUpdate("DROP TABLE IF EXISTS Airport");
+            stmt.executeUpdate("DROP TABLE IF EXISTS Import_Checkpoint");
+            stmt.executeUpdate("DROP TABLE IF EXISTS Schema_Info");
+            DelayRollups.dropTables(stmt);
 
-            // Create tables according to the schema
+            createTables(stmt, false);
 
-            // Airport table
-            stmt.executeUpdate(
-                    "CREATE TABLE Airport (" +
-                            "iata_code CHAR(3) PRIMARY KEY, " +
-                            "name TEXT" +
-                            ")"
-            );
+            connection.commit();
+            System.out.println("Database schema created.");
+        }
+    }
 
-            // Airline table
-            stmt.executeUpdate(
-                    "CREATE TABLE Airline (" +
-                            "iata_code CHAR(2) PRIMARY KEY, " +
-                            "name TEXT" +
-                            ")"
-            );
+    /**
+     * Creates any missing tables, keeping existing tables and their data.
+     * Used when appending new data to an existing database.
+     * @throws SQLException if a database access error occurs
+     */
+    public void createSchemaIfNotExists() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            createTables(stmt, SchemaFeature.SURROGATE_KEYS.isEnabled(connection));
 
-            // Flight table
-            stmt.executeUpdate(
-                    "CREATE TABLE Flight (" +
-                            "flight_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                            "date CHAR(8), " +
-                            "airline_code CHAR(2), " +
-                            "flight_number INTEGER, " +
-                            "flight_origin CHAR(3), " +
-                            "flight_destination CHAR(3), " +
-                            "scheduled_departure INTEGER, " +
-                            "actual_departure INTEGER, " +
-                            "scheduled_arrival INTEGER, " +
-                            "actual_arrival INTEGER, " +
-                            "FOREIGN KEY (airline_code) REFERENCES Airline(iata_code), " +
-                            "FOREIGN KEY (flight_origin) REFERENCES Airport(iata_code), " +
-                            "FOREIGN KEY (flight_destination) REFERENCES Airport(iata_code)" +
-                            ")"
-            );
+            // Columns added after the first release, missing from older databases
+            addColumnIfMissing(stmt, "Flight", "air_time", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "distance", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "diverted", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "epoch_day", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "year", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "month", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "departure_delay", "INTEGER");
+            addColumnIfMissing(stmt, "Flight", "arrival_delay", "INTEGER");
+            if (!SchemaFeature.YEAR_PARTITIONS.isEnabled(connection)) {
+                // Partitioned databases were created with these columns
+                fillDerivedColumns(stmt);
+            }
+            fillDelayRollups(stmt);
 
-            // Delay_Reason table
-            stmt.executeUpdate(
-                    "CREATE TABLE Delay_Reason (" +
-                            "delay_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                            "flight_id INTEGER, " +
-                            "reason TEXT, " +
-                            "delay_length INTEGER, " +
-                            "FOREIGN KEY (flight_id) REFERENCES Flight(flight_id)" +
-                            ")"
-            );
+            connection.commit();
+            System.out.println("Database schema checked.");
+        }
+    }
+
+    /**
+     * Computes the date and delay columns for flights imported before they existed.
+     * Uses the same rules as the importer: the date is yyyyMMdd, and a delay is only
+     * known when both times are set, with differences over 12 hours crossing midnight.
+     * @param stmt the statement to execute with
+     * @throws SQLException if a database access error occurs
+     */
+    private void fillDerivedColumns(Statement stmt) throws SQLException {
+        int updated = stmt.executeUpdate(
+                "UPDATE Flight SET " +
+                        "epoch_day = CAST(julianday(substr(date, 1, 4) || '-' || substr(date, 5, 2) || '-' || " +
+                        "substr(date, 7, 2)) - 2440587.5 AS INTEGER), " +
+                        "year = CAST(substr(date, 1, 4) AS INTEGER), " +
+                        "month = CAST(substr(date, 5, 2) AS INTEGER), " +
+                        "departure_delay = " + delayMinutesSql("scheduled_departure", "actual_departure") + ", " +
+                        "arrival_delay = " + delayMinutesSql("scheduled_arrival", "actual_arrival") + " " +
+                        "WHERE epoch_day IS NULL"
+        );
+        if (updated > 0) {
+            System.out.println("Filled date and delay columns for " + updated + " flights.");
+        }
+    }
+
+    /**
+     * Computes the delay rollups for flights imported before the rollup tables existed.
+     * @param stmt the statement to execute with
+     * @throws SQLException if a database access error occurs
+     */
+    private void fillDelayRollups(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT EXISTS (SELECT 1 FROM Flight) AND NOT EXISTS (SELECT 1 FROM Airline_Year_Delay)")) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return;
+            }
+        }
+        DelayRollups.rebuild(stmt, SchemaFeature.SURROGATE_KEYS.isEnabled(connection));
+        System.out.println("Computed delay rollups for existing flights.");
+    }
+
+    /**
+     * Builds the SQL equivalent of {@code Flight.delayMinutes} for two HHMM columns.
+     * @param scheduled the scheduled time column
+     * @param actual the actual time column
+     * @return an expression giving the delay in minutes, or NULL if either time is 0
+     */
+    private static String delayMinutesSql(String scheduled, String actual) {
+        String diff = "((" + actual + " / 100) * 60 + " + actual + " % 100 - (" +
+                scheduled + " / 100) * 60 - " + scheduled + " % 100)";
+        return "CASE WHEN " + scheduled + " > 0 AND " + actual + " > 0 THEN " +
+                "CASE WHEN " + diff + " < -720 THEN " + diff + " + 1440 " +
+                "WHEN " + diff + " > 720 THEN " + diff + " - 1440 " +
+                "ELSE " + diff + " END END";
+    }
+
+    /**
+     * Adds a column to an existing table unless it is already there.
+     * @param stmt the statement to execute with
+     * @param table the table name
+     * @param column the column name
+     * @param type the column type
+     * @throws SQLException if a database access error occurs
+     */
+    private void addColumnIfMissing(Statement stmt, String table, String column, String type) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column)) {
+                    return;
+                }
+            }
+        }
+        stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        System.out.println("Added column " + table + "." + column);
+    }
+
+    /**
+     * Creates the tables that do not exist yet.
+     * @param stmt the statement to execute with
+     * @param surrogateKeys true to create the tables of {@link SchemaFeature#SURROGATE_KEYS}
+     * @throws SQLException if a database access error occurs
+     */
+    private void createTables(Statement stmt, boolean surrogateKeys) throws SQLException {
+        // Create tables according to the schema
+
+        // Airport table
+        stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS Airport (" +
+                        (surrogateKeys ? "airport_id INTEGER PRIMARY KEY, iata_code CHAR(3) NOT NULL UNIQUE, "
+                                : "iata_code CHAR(3) PRIMARY KEY, ") +
+                        "name TEXT" +
+                        ")"
+        );
+
+        // Airline table
+        stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS Airline (" +
+                        (surrogateKeys ? "airline_id INTEGER PRIMARY KEY, iata_code CHAR(2) NOT NULL UNIQUE, "
+                                : "iata_code CHAR(2) PRIMARY KEY, ") +
+                        "name TEXT" +
+                        ")"
+        );
+
+        createFlightTable(stmt, "Flight", surrogateKeys);
+        createDelayReasonTable(stmt, "Delay_Reason", "Flight");
+
+        // Import progress per source file, used to resume an interrupted import
+        stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS Import_Checkpoint (" +
+                        "source TEXT PRIMARY KEY, " +
+                        "byte_offset INTEGER, " +
+                        "line_number INTEGER, " +
+                        "last_flight_id INTEGER, " +
+                        "updated_at TEXT" +
+                        ")"
+        );
+
+        // Optional schema features the database was built with, see SchemaFeature
+        stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS Schema_Info (" +
+                        "key TEXT PRIMARY KEY, " +
+                        "value TEXT" +
+                        ")"
+        );
+
+        // Delay totals per airline, airport and period, see DelayRollups
+        DelayRollups.createTables(stmt);
+    }
+
+    /**
+     * Creates a flight table unless it exists.
+     * @param stmt the statement to execute with
+     * @param table the table name, Flight or a partition template
+     * @param surrogateKeys true to refer to airlines and airports by ID
+     * @throws SQLException if a database access error occurs
+     */
+    private void createFlightTable(Statement stmt, String table, boolean surrogateKeys) throws SQLException {
+        String airline = surrogateKeys ? "airline_id" : "airline_code";
+        String origin = surrogateKeys ? "origin_id" : "flight_origin";
+        String destination = surrogateKeys ? "destination_id" : "flight_destination";
+        String airlineKey = surrogateKeys ? "Airline(airline_id)" : "Airline(iata_code)";
+        String airportKey = surrogateKeys ? "Airport(airport_id)" : "Airport(iata_code)";
+        stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS " + table + " (" +
+                        "flight_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "date CHAR(8), " +
+                        airline + (surrogateKeys ? " INTEGER, " : " CHAR(2), ") +
+                        "flight_number INTEGER, " +
+                        origin + (surrogateKeys ? " INTEGER, " : " CHAR(3), ") +
+                        destination + (surrogateKeys ? " INTEGER, " : " CHAR(3), ") +
+                        "scheduled_departure INTEGER, " +
+                        "actual_departure INTEGER, " +
+                        "scheduled_arrival INTEGER, " +
+                        "actual_arrival INTEGER, " +
+                        "air_time INTEGER, " +
+                        "distance INTEGER, " +
+                        "diverted INTEGER, " +
+                        "epoch_day INTEGER, " +
+                        "year INTEGER, " +
+                        "month INTEGER, " +
+                        "departure_delay INTEGER, " +
+                        "arrival_delay INTEGER, " +
+                        "FOREIGN KEY (" + airline + ") REFERENCES " + airlineKey + ", " +
+                        "FOREIGN KEY (" + origin + ") REFERENCES " + airportKey + ", " +
+                        "FOREIGN KEY (" + destination + ") REFERENCES " + airportKey +
+                        ")"
+        );
+    }
+
+    /**
+     * Creates a delay reason table unless it exists.
+     * @param stmt the statement to execute with
+     * @param table the table name, Delay_Reason or a partition template
+     * @param flightTable the flight table its rows refer to
+     * @throws SQLException if a database access error occurs
+     */
+    private void createDelayReasonTable(Statement stmt, String table, String flightTable) throws SQLException {
+        stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS " + table + " (" +
+                        "delay_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "flight_id INTEGER, " +
+                        "reason TEXT, " +
+                        "delay_length INTEGER, " +
+                        "FOREIGN KEY (flight_id) REFERENCES " + flightTable + "(flight_id)" +
+                        ")"
+        );
+    }
+
+    /**
+     * Gets the Flight column holding the minutes of one delay reason when
+     * {@link SchemaFeature#WIDE_DELAYS} is enabled.
+     * @param reason one of {@link #DELAY_REASONS}
+     * @return the column name, e.g. delay_late_aircraft
+     */
+    public static String delayColumn(String reason) {
+        return "delay_" + reason.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Enables an optional schema feature, adding its columns and filling them from the
+     * data already stored. Enabling a feature that is already enabled does nothing.
+     * @param feature the feature to enable
+     * @throws SQLException if a database access error occurs
+     */
+    public void enableFeature(SchemaFeature feature) throws SQLException {
+        if (feature.isEnabled(connection)) {
+            return;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            createTables(stmt, SchemaFeature.SURROGATE_KEYS.isEnabled(connection));
+            switch (feature) {
+                case WIDE_DELAYS:
+                    addWideDelayColumns(stmt);
+                    break;
+                case SURROGATE_KEYS:
+                    createSurrogateKeyTables(stmt);
+                    break;
+                case YEAR_PARTITIONS:
+                    createPartitionTemplates(stmt);
+                    break;
+            }
+            stmt.executeUpdate("INSERT OR REPLACE INTO Schema_Info (key, value) VALUES ('" + feature.getKey() + "', '1')");
 
             connection.commit();
-            System.out.println("Database schema created.");
+            System.out.println("Enabled schema feature " + feature.getKey() + ".");
+        }
+    }
+
+    /**
+     * Replaces the empty Airline, Airport and Flight tables with their surrogate key layout.
+     * @param stmt the statement to execute with
+     * @throws SQLException if Flight holds rows or a database access error occurs
+     */
+    private void createSurrogateKeyTables(Statement stmt) throws SQLException {
+        if (YearPartitions.isPartitioned(connection)) {
+            throw new SQLException("Surrogate keys must be enabled before year partitions");
+        }
+        try (ResultSet rs = stmt.executeQuery("SELECT EXISTS (SELECT 1 FROM Flight)")) {
+            if (rs.next() && rs.getBoolean(1)) {
+                throw new SQLException("Surrogate keys can only be enabled on an empty database; re-import the data instead");
+            }
+        }
+        stmt.executeUpdate("DROP TABLE Flight");
+        stmt.executeUpdate("DROP TABLE Airline");
+        stmt.executeUpdate("DROP TABLE Airport");
+        createTables(stmt, true);
+        if (SchemaFeature.WIDE_DELAYS.isEnabled(connection)) {
+            addWideDelayColumns(stmt);
+        }
+    }
+
+    /**
+     * Replaces the empty Flight and Delay_Reason tables with the views and templates
+     * of {@link YearPartitions}.
+     * @param stmt the statement to execute with
+     * @throws SQLException if Flight holds rows or a database access error occurs
+     */
+    private void createPartitionTemplates(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT EXISTS (SELECT 1 FROM Flight)")) {
+            if (rs.next() && rs.getBoolean(1)) {
+                throw new SQLException("Year partitions can only be enabled on an empty database; re-import the data instead");
+            }
+        }
+        stmt.executeUpdate("DROP TABLE Delay_Reason");
+        stmt.executeUpdate("DROP TABLE Flight");
+        createFlightTable(stmt, YearPartitions.FLIGHT_TEMPLATE, SchemaFeature.SURROGATE_KEYS.isEnabled(connection));
+        createDelayReasonTable(stmt, YearPartitions.DELAY_TEMPLATE, YearPartitions.FLIGHT_TEMPLATE);
+        YearPartitions.createViews(stmt, List.of());
+        if (SchemaFeature.WIDE_DELAYS.isEnabled(connection)) {
+            addWideDelayColumns(stmt);
+        }
+    }
+
+    /**
+     * Lists the tables that hold flights and their delay reasons.
+     * @return pairs of flight table and delay reason table: Flight and Delay_Reason,
+     * or with year partitions the templates and every partition
+     * @throws SQLException if a database access error occurs
+     */
+    private List<String[]> flightTables() throws SQLException {
+        if (YearPartitions.isPartitioned(connection)) {
+            return YearPartitions.tables(connection);
+        }
+        List<String[]> tables = new ArrayList<>();
+        tables.add(new String[]{"Flight", "Delay_Reason"});
+        return tables;
+    }
+
+    /**
+     * Records that an import changed the data by giving the database a new import
+     * generation, so results cached for the previous generation are no longer used.
+     * Generations are never reused, even when the schema is recreated: the new one is
+     * the current time in milliseconds, or the previous one plus one if that is larger.
+     * @return the new generation
+     * @throws SQLException if a database access error occurs
+     */
+    public long advanceImportGeneration() throws SQLException {
+        long generation = Math.max(readImportGeneration(connection) + 1, System.currentTimeMillis());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT OR REPLACE INTO Schema_Info (key, value) VALUES ('"
+                    + IMPORT_GENERATION_KEY + "', '" + generation + "')");
+        }
+        connection.commit();
+        System.out.println("Import generation is now " + generation + ".");
+        return generation;
+    }
+
+    /**
+     * Reads the import generation of a database.
+     * @param connection the database connection
+     * @return the generation, 0 for a database no import has recorded one in
+     * @throws SQLException if a database access error occurs
+     */
+    public static long readImportGeneration(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'Schema_Info'")) {
+                if (!rs.next()) {
+                    return 0;
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT value FROM Schema_Info WHERE key = '" + IMPORT_GENERATION_KEY + "'")) {
+                return rs.next() ? Long.parseLong(rs.getString(1)) : 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the partition holding the flights of a year. Only the partition's tables
+     * and the year's rollup rows are removed, so this takes no longer for a large year
+     * than for a small one. Loading the year again is then an append of its data.
+     * @param year the year to drop
+     * @throws SQLException if the database is not partitioned or a database access error occurs
+     */
+    public void dropYear(int year) throws SQLException {
+        if (!SchemaFeature.YEAR_PARTITIONS.isEnabled(connection)) {
+            throw new SQLException("Dropping a year requires year partitions");
+        }
+        YearPartitions.drop(connection, year);
+        try (Statement stmt = connection.createStatement()) {
+            DelayRollups.deleteYear(stmt, year);
+        }
+        connection.commit();
+        System.out.println("Dropped flights of " + year + ".");
+    }
+
+    /**
+     * Adds the wide delay columns to the flight tables and fills them from their delay reasons.
+     * @param stmt the statement to execute with
+     * @throws SQLException if a database access error occurs
+     */
+    private void addWideDelayColumns(Statement stmt) throws SQLException {
+        StringBuilder sums = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        for (String reason : DELAY_REASONS) {
+            String column = delayColumn(reason);
+            sums.append(", SUM(CASE WHEN reason = '").append(reason).append("' THEN delay_length ELSE 0 END) AS ")
+                    .append(column);
+            assignments.append(column).append(" = d.").append(column).append(", ");
+        }
+
+        for (String[] tables : flightTables()) {
+            String flightTable = tables[0];
+            for (String reason : DELAY_REASONS) {
+                addColumnIfMissing(stmt, flightTable, delayColumn(reason), "INTEGER NOT NULL DEFAULT 0");
+            }
+            addColumnIfMissing(stmt, flightTable, DELAY_TOTAL_COLUMN, "INTEGER NOT NULL DEFAULT 0");
+
+            // One pass over the delay reasons for databases that already hold flights
+            int updated = stmt.executeUpdate(
+                    "UPDATE " + flightTable + " SET " + assignments + DELAY_TOTAL_COLUMN + " = d.total " +
+                            "FROM (SELECT flight_id" + sums + ", SUM(delay_length) AS total " +
+                            "FROM " + tables[1] + " WHERE delay_length > 0 GROUP BY flight_id) AS d " +
+                            "WHERE " + flightTable + ".flight_id = d.flight_id"
+            );
+            if (updated > 0) {
+                System.out.println("Filled wide delay columns for " + updated + " flights.");
+            }
         }
     }
 
     /**
-     * Creates indices to improve query performance.
+     * Creates indices to improve query performance. Indices that already exist are kept,
+     * so this is safe to call on a database that is being appended to.
      * @throws SQLException if a database access error occurs
      */
     public void createIndices() throws SQLException {
+        boolean surrogateKeys = SchemaFeature.SURROGATE_KEYS.isEnabled(connection);
+        String airline = surrogateKeys ? "airline_id" : "airline_code";
+        String origin = surrogateKeys ? "origin_id" : "flight_origin";
+        String destination = surrogateKeys ? "destination_id" : "flight_destination";
         try (Statement stmt = connection.createStatement()) {
-            // Create indices on columns that will be frequently queried
-            stmt.executeUpdate("CREATE INDEX idx_flight_date ON Flight(date)");
-            stmt.executeUpdate("CREATE INDEX idx_flight_origin ON Flight(flight_origin)");
-            stmt.executeUpdate("CREATE INDEX idx_flight_dest ON Flight(flight_destination)");
-            stmt.executeUpdate("CREATE INDEX idx_flight_airline ON Flight(airline_code)");
-            stmt.executeUpdate("CREATE INDEX idx_flight_number ON Flight(flight_number)");
-            stmt.executeUpdate("CREATE INDEX idx_delay_reason_flight ON Delay_Reason(flight_id)");
-            stmt.executeUpdate("CREATE INDEX idx_delay_reason ON Delay_Reason(reason)");
+            // With year partitions every partition gets its own indices, and the templates
+            // get them too so partitions created later clone them
+            for (String[] tables : flightTables()) {
+                String flightTable = tables[0];
+                String delayTable = tables[1];
+                String flightPrefix = "idx_" + flightTable.toLowerCase(Locale.ROOT);
+                String delayPrefix = "idx_" + delayTable.toLowerCase(Locale.ROOT);
+                // Create indices on columns that will be frequently queried
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_epoch_day ON " + flightTable + "(epoch_day)");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_year_month ON " + flightTable + "(year, month)");
+                // Also serves lookups by origin alone
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_origin_year ON " + flightTable + "(" + origin + ", year, month)");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_dest ON " + flightTable + "(" + destination + ")");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_airline ON " + flightTable + "(" + airline + ")");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_number ON " + flightTable + "(flight_number)");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + delayPrefix + "_flight ON " + delayTable + "(flight_id)");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + delayPrefix + " ON " + delayTable + "(reason)");
+
+                // Natural key, used to detect rows that were already loaded when appending
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_natural_key " +
+                        "ON " + flightTable + "(date, " + airline + ", flight_number, " + origin + ")");
+
+                if (SchemaFeature.WIDE_DELAYS.isEnabled(connection)) {
+                    // Partial indices: most flights have no delay of a given reason,
+                    // and delay filters always require the column to be positive
+                    for (String reason : DELAY_REASONS) {
+                        String column = delayColumn(reason);
+                        stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_" + column +
+                                " ON " + flightTable + "(" + column + ") WHERE " + column + " > 0");
+                    }
+                    stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + flightPrefix + "_" + DELAY_TOTAL_COLUMN +
+                            " ON " + flightTable + "(" + DELAY_TOTAL_COLUMN + ") WHERE " + DELAY_TOTAL_COLUMN + " > 0");
+                }
+            }
 
             connection.commit();
             System.out.println("Database indices created.");
         }
     }
 
+    /**
+     * Prepares a freshly imported database for querying: gathers planner statistics
+     * with ANALYZE (sqlite_stat1, plus the sqlite_stat4 samples when SQLite is built
+     * with them), rewrites the file compacted with VACUUM INTO, runs quick_check on
+     * the copy and only then replaces the database file with it. Prints the pages used
+     * by every table and index afterwards.
+     * <p>
+     * Needs free disk space for a second copy of the database while it runs. The file
+     * is only replaced while this connection holds it exclusively: if another
+     * connection has the database open in WAL mode, is reading it, or wrote to it
+     * since the copy was taken, the copy is discarded and the database keeps its
+     * statistics but is not compacted. Connections idle on a database in rollback
+     * journal mode hold no lock and cannot be detected.
+     * @throws SQLException if the integrity check fails or a database access error occurs
+     * @throws IOException if the compacted file cannot replace the database file
+     */
+    public void optimize() throws SQLException, IOException {
+        // The file the connection actually has open, which is where the copy has to go
+        String file;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT file FROM pragma_database_list WHERE name = 'main'")) {
+            file = rs.next() ? rs.getString(1) : "";
+        }
+        if (file == null || file.isEmpty()) {
+            throw new SQLException("Cannot optimize a database that is not stored in a file");
+        }
+        Path databaseFile = Path.of(file);
+        Path compactFile = Path.of(file + ".compact");
+        Files.deleteIfExists(compactFile);
+
+        // ANALYZE first so the statistics are part of the copy; VACUUM cannot run in a transaction
+        connection.commit();
+        connection.setAutoCommit(true);
+        long dataVersion;
+        String journalMode;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("ANALYZE");
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT name FROM sqlite_master WHERE name = 'sqlite_stat4'")) {
+                System.out.println(rs.next()
+                        ? "Gathered planner statistics (sqlite_stat1, sqlite_stat4)."
+                        : "Gathered planner statistics (sqlite_stat1; sqlite_stat4 not available).");
+            }
+            dataVersion = pragma(stmt, "data_version");
+            journalMode = pragmaText(stmt, "journal_mode");
+            stmt.executeUpdate("VACUUM INTO '" + compactFile.toString().replace("'", "''") + "'");
+        } finally {
+            connection.setAutoCommit(false);
+        }
+
+        try (Connection check = DriverManager.getConnection("jdbc:sqlite:" + compactFile);
+             Statement stmt = check.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA quick_check")) {
+            String result = rs.next() ? rs.getString(1) : "no result";
+            if (!"ok".equals(result)) {
+                throw new SQLException("Integrity check of the compacted database failed: " + result);
+            }
+        }
+
+        long before = Files.size(databaseFile);
+        if (!lockExclusively(journalMode, dataVersion)) {
+            Files.deleteIfExists(compactFile);
+            System.out.println("Database is in use by another connection; kept it uncompacted.");
+            printStorageReport();
+            return;
+        }
+        // Out of WAL mode there is no write-ahead log left, and holding the lock keeps
+        // other connections out until the file has been replaced
+        Files.move(compactFile, databaseFile, StandardCopyOption.REPLACE_EXISTING);
+        disconnect();
+        connect();
+        if ("wal".equalsIgnoreCase(journalMode)) {
+            setJournalMode(journalMode);
+        }
+        System.out.printf("Compacted database from %,d to %,d bytes; integrity check ok.%n",
+                before, Files.size(databaseFile));
+
+        printStorageReport();
+    }
+
+    /**
+     * Takes an exclusive lock on the database, held until the connection closes. In
+     * WAL mode, readers hold no lock that BEGIN EXCLUSIVE would wait for, so the
+     * database is first switched to rollback journal mode, which SQLite refuses
+     * while any other connection has it open.
+     * @param journalMode the journal mode the database is in
+     * @param dataVersion the data version when the caller last read the database
+     * @return true if the lock is held and no other connection wrote since; false,
+     *         with the journal mode restored and no lock held, otherwise
+     * @throws SQLException if a database access error occurs
+     */
+    private boolean lockExclusively(String journalMode, long dataVersion) throws SQLException {
+        boolean walMode = "wal".equalsIgnoreCase(journalMode);
+        connection.setAutoCommit(true);
+        try (Statement stmt = connection.createStatement()) {
+            long expectedVersion = dataVersion;
+            if (walMode) {
+                String mode = journalMode;
+                if (pragma(stmt, "data_version") == dataVersion) {
+                    try {
+                        mode = pragmaText(stmt, "journal_mode = DELETE");
+                    } catch (SQLException e) {
+                        // Refused because another connection has the database open
+                    }
+                }
+                if ("wal".equalsIgnoreCase(mode)) {
+                    connection.setAutoCommit(false);
+                    return false;
+                }
+                // Leaving WAL mode counts as a change of its own
+                expectedVersion = pragma(stmt, "data_version");
+            }
+            try {
+                stmt.execute("BEGIN EXCLUSIVE");
+                if (pragma(stmt, "data_version") == expectedVersion) {
+                    // Stays in the transaction; closing the connection ends it
+                    return true;
+                }
+                stmt.execute("ROLLBACK");
+            } catch (SQLException e) {
+                // Another connection is reading or writing
+            }
+            if (walMode) {
+                pragmaText(stmt, "journal_mode = WAL");
+            }
+        }
+        connection.setAutoCommit(false);
+        return false;
+    }
+
+    /**
+     * Switches the journal mode of the database, which is stored in the file.
+     * @param journalMode the journal mode, e.g. WAL
+     * @throws SQLException if a database access error occurs
+     */
+    private void setJournalMode(String journalMode) throws SQLException {
+        // journal_mode cannot be changed inside a transaction, so step out of manual commit mode
+        connection.setAutoCommit(true);
+        try (Statement stmt = connection.createStatement()) {
+            pragmaText(stmt, "journal_mode = " + journalMode);
+        } finally {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    private static long pragma(Statement stmt, String pragma) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static String pragmaText(Statement stmt, String pragma) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * Prints the number of pages used by every table and index, largest first.
+     * @throws SQLException if a database access error occurs
+     */
+    private void printStorageReport() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            int pageSize;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA page_size")) {
+                pageSize = rs.next() ? rs.getInt(1) : 0;
+            }
+            System.out.println("Storage report (" + pageSize + "-byte pages):");
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT s.name, COALESCE(m.type, 'table'), s.pageno FROM dbstat s " +
+                            "LEFT JOIN sqlite_master m ON m.name = s.name " +
+                            "WHERE s.aggregate = TRUE ORDER BY s.pageno DESC, s.name")) {
+                while (rs.next()) {
+                    System.out.printf("  %-5s %-40s %,10d pages%n", rs.getString(2), rs.getString(1), rs.getLong(3));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the path of the database file.
+     * @return the database file path
+     */
+    public String getDatabasePath() {
+        return dbPath;
+    }
+
     /**
      * Gets the current database connection.
      * @return the database connection
@@ -0,0 +1,257 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delay totals per airline and year, origin and year, and origin and month, kept in
+ * the Airline_Year_Delay, Origin_Year_Delay and Origin_Month_Delay tables so the
+ * delay analyses read a few hundred rows instead of every flight.
+ * <p>
+ * Each table holds, per group, the sum, count, minimum and maximum of the
+ * Delay_Reason minutes, plus the sum and count of the non-negative arrival delays
+ * used when a group has no delay reasons. Groups are keyed by IATA code whether or
+ * not the database uses surrogate keys. The importer adds up the rows it writes and
+ * upserts the totals in the same transaction as the rows, so the tables always
+ * match the committed flights.
+ */
+class DelayRollups implements AutoCloseable {
+
+    /** The rollup tables, each with its grouping columns. */
+    private static final String[][] TABLES = {
+            {"Airline_Year_Delay", "airline_code", "year"},
+            {"Origin_Year_Delay", "origin_code", "year"},
+            {"Origin_Month_Delay", "origin_code", "year", "month"}
+    };
+
+    private static final String TOTAL_COLUMNS =
+            "delay_sum, delay_count, delay_min, delay_max, arrival_delay_sum, arrival_count";
+
+    /** Totals of the rows written since the last flush, per group. */
+    private static class Totals {
+        long delaySum;
+        int delayCount;
+        int delayMin = Integer.MAX_VALUE;
+        int delayMax = Integer.MIN_VALUE;
+        long arrivalDelaySum;
+        int arrivalCount;
+    }
+
+    private final List<Map<List<Object>, Totals>> pending = List.of(new HashMap<>(), new HashMap<>(), new HashMap<>());
+    private final PreparedStatement[] upsertStmts = new PreparedStatement[TABLES.length];
+
+    /**
+     * Prepares the upsert statements.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    DelayRollups(Connection connection) throws SQLException {
+        for (int i = 0; i < TABLES.length; i++) {
+            upsertStmts[i] = connection.prepareStatement(upsertSql(TABLES[i], "VALUES (?" + ", ?".repeat(TABLES[i].length + 4) + ")"));
+        }
+    }
+
+    /**
+     * Builds the statement creating a rollup table.
+     * @param table the table and its grouping columns
+     * @return the CREATE TABLE statement
+     */
+    private static String createTableSql(String[] table) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table[0]).append(" (");
+        for (int i = 1; i < table.length; i++) {
+            sql.append(table[i]).append(i == 1 ? " TEXT NOT NULL, " : " INTEGER NOT NULL, ");
+        }
+        return sql.append("delay_sum INTEGER NOT NULL, delay_count INTEGER NOT NULL, ")
+                .append("delay_min INTEGER, delay_max INTEGER, ")
+                .append("arrival_delay_sum INTEGER NOT NULL, arrival_count INTEGER NOT NULL, ")
+                .append("PRIMARY KEY (").append(groupColumns(table)).append(")) WITHOUT ROWID")
+                .toString();
+    }
+
+    /**
+     * Builds an upsert adding totals to a rollup table.
+     * @param table the table and its grouping columns
+     * @param source VALUES or SELECT supplying the grouping columns and totals, in table order
+     * @return the INSERT statement
+     */
+    private static String upsertSql(String[] table, String source) {
+        return "INSERT INTO " + table[0] + " (" + groupColumns(table) + ", " + TOTAL_COLUMNS + ") " +
+                source + " " +
+                "ON CONFLICT (" + groupColumns(table) + ") DO UPDATE SET " +
+                "delay_sum = delay_sum + excluded.delay_sum, " +
+                "delay_count = delay_count + excluded.delay_count, " +
+                "delay_min = COALESCE(MIN(delay_min, excluded.delay_min), delay_min, excluded.delay_min), " +
+                "delay_max = COALESCE(MAX(delay_max, excluded.delay_max), delay_max, excluded.delay_max), " +
+                "arrival_delay_sum = arrival_delay_sum + excluded.arrival_delay_sum, " +
+                "arrival_count = arrival_count + excluded.arrival_count";
+    }
+
+    /**
+     * Lists the grouping columns of a rollup table.
+     * @param table the table and its grouping columns
+     * @return comma-separated column names
+     */
+    private static String groupColumns(String[] table) {
+        return String.join(", ", List.of(table).subList(1, table.length));
+    }
+
+    /**
+     * Creates the rollup tables that do not exist yet.
+     * @param stmt the statement to execute with
+     * @throws SQLException if a database access error occurs
+     */
+    static void createTables(Statement stmt) throws SQLException {
+        for (String[] table : TABLES) {
+            stmt.executeUpdate(createTableSql(table));
+        }
+    }
+
+    /**
+     * Drops the rollup tables.
+     * @param stmt the statement to execute with
+     * @throws SQLException if a database access error occurs
+     */
+    static void dropTables(Statement stmt) throws SQLException {
+        for (String[] table : TABLES) {
+            stmt.executeUpdate("DROP TABLE IF EXISTS " + table[0]);
+        }
+    }
+
+    /**
+     * Recomputes the rollup tables from Flight and Delay_Reason, for databases
+     * imported before the tables existed.
+     * @param stmt the statement to execute with
+     * @param surrogateKeys true if Flight refers to airlines and airports by ID
+     * @throws SQLException if a database access error occurs
+     */
+    static void rebuild(Statement stmt, boolean surrogateKeys) throws SQLException {
+        String codes = surrogateKeys
+                ? "JOIN Airline a ON a.airline_id = f.airline_id JOIN Airport o ON o.airport_id = f.origin_id "
+                : "JOIN Airline a ON a.iata_code = f.airline_code JOIN Airport o ON o.iata_code = f.flight_origin ";
+        for (String[] table : TABLES) {
+            StringBuilder groups = new StringBuilder(table[1].equals("airline_code") ? "a.iata_code" : "o.iata_code");
+            for (int i = 2; i < table.length; i++) {
+                groups.append(", f.").append(table[i]);
+            }
+            stmt.executeUpdate("DELETE FROM " + table[0]);
+            // Totals per flight first, so the arrival delay is counted once however many reasons it has
+            stmt.executeUpdate(upsertSql(table,
+                    "SELECT " + groups + ", " +
+                            "COALESCE(SUM(d.delay_sum), 0), COALESCE(SUM(d.delay_count), 0), " +
+                            "MIN(d.delay_min), MAX(d.delay_max), " +
+                            "COALESCE(SUM(MAX(f.arrival_delay, 0)), 0), COUNT(f.arrival_delay) " +
+                            "FROM Flight f " + codes +
+                            "LEFT JOIN (SELECT flight_id, SUM(delay_length) AS delay_sum, COUNT(*) AS delay_count, " +
+                            "MIN(delay_length) AS delay_min, MAX(delay_length) AS delay_max " +
+                            "FROM Delay_Reason GROUP BY flight_id) d ON d.flight_id = f.flight_id " +
+                            "GROUP BY " + groups));
+        }
+    }
+
+    /**
+     * Removes the totals of one year, whose flights were dropped.
+     * @param stmt the statement to execute with
+     * @param year the year
+     * @throws SQLException if a database access error occurs
+     */
+    static void deleteYear(Statement stmt, int year) throws SQLException {
+        for (String[] table : TABLES) {
+            stmt.executeUpdate("DELETE FROM " + table[0] + " WHERE year = " + year);
+        }
+    }
+
+    /**
+     * Adds the rollup tables of an attached database to this one's.
+     * @param stmt the statement to execute with
+     * @param schema the name the other database is attached as
+     * @throws SQLException if a database access error occurs
+     */
+    static void merge(Statement stmt, String schema) throws SQLException {
+        for (String[] table : TABLES) {
+            // WHERE true keeps SQLite from reading ON CONFLICT as a join constraint
+            stmt.executeUpdate(upsertSql(table,
+                    "SELECT " + groupColumns(table) + ", " + TOTAL_COLUMNS + " FROM " + schema + "." + table[0] + " WHERE true"));
+        }
+    }
+
+    /**
+     * Adds a written flight to the pending totals.
+     * @param record the record that was written
+     */
+    void add(FlightRecord record) {
+        add(pending.get(0), List.of(record.airlineCode, record.year), record);
+        add(pending.get(1), List.of(record.origin, record.year), record);
+        add(pending.get(2), List.of(record.origin, record.year, record.month), record);
+    }
+
+    /**
+     * Adds a flight to the totals of one group.
+     * @param groups the pending totals of a table
+     * @param key the grouping column values
+     * @param record the record that was written
+     */
+    private static void add(Map<List<Object>, Totals> groups, List<Object> key, FlightRecord record) {
+        Totals totals = groups.computeIfAbsent(key, k -> new Totals());
+        for (int delay : record.delays) {
+            if (delay > 0) {
+                totals.delaySum += delay;
+                totals.delayCount++;
+                totals.delayMin = Math.min(totals.delayMin, delay);
+                totals.delayMax = Math.max(totals.delayMax, delay);
+            }
+        }
+        if (record.arrivalDelay != FlightRecord.MISSING) {
+            totals.arrivalDelaySum += Math.max(record.arrivalDelay, 0);
+            totals.arrivalCount++;
+        }
+    }
+
+    /**
+     * Upserts the pending totals. Called right before the transaction holding the
+     * rows they cover is committed.
+     * @throws SQLException if a database access error occurs
+     */
+    void flush() throws SQLException {
+        for (int i = 0; i < TABLES.length; i++) {
+            PreparedStatement stmt = upsertStmts[i];
+            for (Map.Entry<List<Object>, Totals> entry : pending.get(i).entrySet()) {
+                int index = 1;
+                for (Object value : entry.getKey()) {
+                    stmt.setObject(index++, value);
+                }
+                Totals totals = entry.getValue();
+                stmt.setLong(index++, totals.delaySum);
+                stmt.setInt(index++, totals.delayCount);
+                if (totals.delayCount > 0) {
+                    stmt.setInt(index++, totals.delayMin);
+                    stmt.setInt(index++, totals.delayMax);
+                } else {
+                    stmt.setNull(index++, Types.INTEGER);
+                    stmt.setNull(index++, Types.INTEGER);
+                }
+                stmt.setLong(index++, totals.arrivalDelaySum);
+                stmt.setInt(index, totals.arrivalCount);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            pending.get(i).clear();
+        }
+    }
+
+    /**
+     * Closes the prepared statements.
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement stmt : upsertStmts) {
+            stmt.close();
+        }
+    }
+}
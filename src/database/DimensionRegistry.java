@@ -0,0 +1,156 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which airlines and airports have already been written during an import,
+ * so each one is inserted once instead of once per flight row. It also hands out the
+ * dense integer IDs of {@link SchemaFeature#SURROGATE_KEYS}, in order of first appearance.
+ * Not thread-safe; it is only used by the writer thread.
+ */
+class DimensionRegistry {
+
+    private final Map<String, String> airlineNames = new HashMap<>();
+    private final Map<String, String> airportNames = new HashMap<>();
+    private final Map<String, Integer> airlineIds = new HashMap<>();
+    private final Map<String, Integer> airportIds = new HashMap<>();
+    private final Set<String> conflicts = new LinkedHashSet<>();
+
+    /**
+     * Loads the airlines and airports already stored, so rows of an appended
+     * import are neither re-inserted nor allowed to silently rename them.
+     * @param connection the database connection
+     * @param surrogateKeys true if the tables carry surrogate IDs to load as well
+     * @throws SQLException if a database access error occurs
+     */
+    void load(Connection connection, boolean surrogateKeys) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            load(stmt, surrogateKeys ? "SELECT iata_code, name, airline_id FROM Airline"
+                    : "SELECT iata_code, name FROM Airline", airlineNames, airlineIds);
+            load(stmt, surrogateKeys ? "SELECT iata_code, name, airport_id FROM Airport"
+                    : "SELECT iata_code, name FROM Airport", airportNames, airportIds);
+        }
+    }
+
+    /**
+     * Loads one dimension table.
+     * @param stmt the statement to execute with
+     * @param sql query returning code, name and optionally the ID
+     * @param names the known names by code
+     * @param ids the known IDs by code
+     * @throws SQLException if a database access error occurs
+     */
+    private static void load(Statement stmt, String sql, Map<String, String> names, Map<String, Integer> ids)
+            throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            boolean withIds = rs.getMetaData().getColumnCount() > 2;
+            while (rs.next()) {
+                names.put(rs.getString(1), rs.getString(2));
+                if (withIds) {
+                    ids.put(rs.getString(1), rs.getInt(3));
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers an airline code and name.
+     * @param code the airline IATA code
+     * @param name the airline name from the current row
+     * @return true if the airline has not been seen before and must be inserted
+     */
+    boolean registerAirline(String code, String name) {
+        return register("Airline", airlineNames, airlineIds, code, name);
+    }
+
+    /**
+     * Registers an airport code and name.
+     * @param code the airport IATA code
+     * @param name the airport name from the current row
+     * @return true if the airport has not been seen before and must be inserted
+     */
+    boolean registerAirport(String code, String name) {
+        return register("Airport", airportNames, airportIds, code, name);
+    }
+
+    /**
+     * Checks whether an airline code has been registered or loaded.
+     * @param code the airline IATA code
+     * @return true if the airline is known
+     */
+    boolean isKnownAirline(String code) {
+        return airlineNames.containsKey(code);
+    }
+
+    /**
+     * Checks whether an airport code has been registered or loaded.
+     * @param code the airport IATA code
+     * @return true if the airport is known
+     */
+    boolean isKnownAirport(String code) {
+        return airportNames.containsKey(code);
+    }
+
+    /**
+     * Gets the surrogate ID of a registered airline.
+     * @param code the airline IATA code
+     * @return the airline ID
+     */
+    int getAirlineId(String code) {
+        return airlineIds.get(code);
+    }
+
+    /**
+     * Gets the surrogate ID of a registered airport.
+     * @param code the airport IATA code
+     * @return the airport ID
+     */
+    int getAirportId(String code) {
+        return airportIds.get(code);
+    }
+
+    /**
+     * Registers a code, recording a conflict the first time a different name shows up for it.
+     * @param kind the dimension name used in conflict messages
+     * @param names the known names by code
+     * @param ids the known IDs by code, extended with the next ID if the code is new
+     * @param code the code to register
+     * @param name the name from the current row
+     * @return true if the code is new
+     */
+    private boolean register(String kind, Map<String, String> names, Map<String, Integer> ids,
+                             String code, String name) {
+        String known = names.putIfAbsent(code, name);
+        if (known == null) {
+            // New codes are rare, so finding the highest ID each time is cheap
+            ids.put(code, ids.isEmpty() ? 1 : Collections.max(ids.values()) + 1);
+            return true;
+        }
+        if (!known.equals(name)) {
+            // Keep the first name, report each differing name only once
+            String conflict = kind + " " + code + ": kept '" + known + "', ignored '" + name + "'";
+            if (conflicts.add(conflict)) {
+                System.out.println("Name conflict for " + conflict);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the name conflicts found so far.
+     * @return descriptions of codes seen with more than one name
+     */
+    List<String> getConflicts() {
+        return new ArrayList<>(conflicts);
+    }
+}
@@ -0,0 +1,96 @@
+package database;
+
+/**
+ * A single parsed and validated CSV row, ready to be written to the database.
+ * A record is either valid or carries the reason it was rejected.
+ */
+class FlightRecord {
+
+    /**
+     * Delay reasons in the order they are stored in {@link #delays}.
+     */
+    static final String[] DELAY_REASONS = DatabaseManager.DELAY_REASONS.toArray(new String[0]);
+
+    /** Value of an optional numeric column that was empty or absent, stored as NULL. */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    final long lineNumber;
+
+    /** Byte offset in the source just past this row, where a resumed import continues. */
+    final long endOffset;
+
+    String date;
+    String airlineCode;
+    String airlineName;
+    int flightNumber;
+    String origin;
+    String originCity;
+    String dest;
+    String destCity;
+    int scheduledDeparture;
+    int actualDeparture;
+    int scheduledArrival;
+    int actualArrival;
+
+    /** Derived from {@link #date} and the times while parsing, so queries need not compute them. */
+    int epochDay;
+    int year;
+    int month;
+
+    /** Delays in minutes, negative if early, {@link #MISSING} when a time is unknown. */
+    int departureDelay = MISSING;
+    int arrivalDelay = MISSING;
+
+    /** Optional columns, {@link #MISSING} when the file has no value. */
+    int airTime = MISSING;
+    int distance = MISSING;
+    int diverted = MISSING;
+
+    /** Delay minutes per reason, 0 when the reason did not apply. */
+    final int[] delays = new int[DELAY_REASONS.length];
+
+    /** Set when the row must be skipped. */
+    String rejectMessage;
+
+    /** The row as it appeared in the source, only kept for rejected rows so they can be quarantined. */
+    String sourceText;
+
+    /** Non-fatal problems found while parsing, reported but the row is still imported. */
+    String warning;
+
+    /**
+     * Creates an empty record for the given CSV line.
+     * @param lineNumber the 1-based line number in the source file
+     * @param endOffset the byte offset just past the line
+     */
+    FlightRecord(long lineNumber, long endOffset) {
+        this.lineNumber = lineNumber;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * Checks if this record should be written.
+     * @return true if the row passed validation
+     */
+    boolean isValid() {
+        return rejectMessage == null;
+    }
+
+    /**
+     * Marks this record as rejected.
+     * @param message description of why the row was skipped
+     * @return this record
+     */
+    FlightRecord reject(String message) {
+        this.rejectMessage = message;
+        return this;
+    }
+
+    /**
+     * Appends a non-fatal warning to this record.
+     * @param message the warning message
+     */
+    void warn(String message) {
+        warning = warning == null ? message : warning + "; " + message;
+    }
+}
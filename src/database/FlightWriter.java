@@ -0,0 +1,403 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes parsed flight records to the database using prepared statements.
+ * Only one thread may use a writer at a time.
+ * <p>
+ * In {@link CsvImporter.InsertMode#BATCH} mode the writer assigns flight IDs itself,
+ * counting up from the current maximum, so flight and delay rows can be queued with
+ * {@code addBatch} and sent together when the batch is committed instead of
+ * reading back a generated key for every row.
+ * <p>
+ * With {@link SchemaFeature#YEAR_PARTITIONS} each record goes to the partition of its
+ * year, created on first use, and the writer always assigns the IDs, since every
+ * partition table would otherwise number its rows from 1.
+ */
+class FlightWriter implements AutoCloseable {
+
+    private final Connection connection;
+    private final CsvImporter.InsertMode insertMode;
+    private final DimensionRegistry dimensions;
+    private final PreparedStatement airlineStmt;
+    private final PreparedStatement airportStmt;
+    private final Map<Integer, Target> targets = new HashMap<>();
+    private final PreparedStatement checkpointStmt;
+    private final DelayRollups rollups;
+    private final String source;
+    private final boolean wideDelays;
+    private final boolean surrogateKeys;
+    private final boolean partitioned;
+    private final boolean assignIds;
+    private final boolean appendMode;
+    private final String flightSql;
+    /** Natural keys of the flights queued in the pending batch, which lookups cannot see yet. */
+    private final Set<String> batchedKeys = new HashSet<>();
+
+    private int nextFlightId;
+    private int lastFlightId;
+
+    /** The statements writing to one flight table and its delay reason table. */
+    private static class Target {
+        PreparedStatement flightStmt;
+        PreparedStatement delayStmt;
+        PreparedStatement existsStmt;
+    }
+
+    /**
+     * Creates a new writer and prepares its statements.
+     * @param connection the database connection
+     * @param insertMode how flight and delay rows are sent to the database
+     * @param dimensions registry of airlines and airports already written in this import
+     * @param appendMode true to look up each row's natural key and skip rows already stored
+     * @param source key of the source file that checkpoints are recorded under
+     * @param features the schema features of the database, which decide the columns written
+     * @throws SQLException if a database access error occurs
+     */
+    FlightWriter(Connection connection, CsvImporter.InsertMode insertMode, DimensionRegistry dimensions,
+                 boolean appendMode, String source, Set<SchemaFeature> features) throws SQLException {
+        this.connection = connection;
+        this.source = source;
+        this.insertMode = insertMode;
+        this.dimensions = dimensions;
+        this.wideDelays = features.contains(SchemaFeature.WIDE_DELAYS);
+        this.surrogateKeys = features.contains(SchemaFeature.SURROGATE_KEYS);
+        this.partitioned = features.contains(SchemaFeature.YEAR_PARTITIONS);
+        this.assignIds = insertMode == CsvImporter.InsertMode.BATCH || partitioned;
+        this.appendMode = appendMode;
+
+        if (surrogateKeys) {
+            // The registry knows every stored code, so a new one is never a duplicate
+            airlineStmt = connection.prepareStatement(
+                    "INSERT INTO Airline (airline_id, iata_code, name) VALUES (?, ?, ?)"
+            );
+
+            airportStmt = connection.prepareStatement(
+                    "INSERT INTO Airport (airport_id, iata_code, name) VALUES (?, ?, ?)"
+            );
+        } else {
+            airlineStmt = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO Airline (iata_code, name) VALUES (?, ?)"
+            );
+
+            airportStmt = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO Airport (iata_code, name) VALUES (?, ?)"
+            );
+        }
+
+        String columns = flightColumns(features);
+        if (assignIds) {
+            columns += ", flight_id";
+        }
+        int parameters = columns.split(",").length;
+        flightSql = "INSERT INTO %s (" + columns + ") VALUES (?" + ", ?".repeat(parameters - 1) + ")";
+        if (assignIds) {
+            nextFlightId = (int) YearPartitions.maxFlightId(connection) + 1;
+        }
+        if (!partitioned) {
+            targets.put(0, prepareTarget("Flight", "Delay_Reason"));
+        }
+
+        checkpointStmt = ImportCheckpoint.prepareSave(connection);
+        rollups = new DelayRollups(connection);
+    }
+
+    /**
+     * Prepares the statements writing to a flight table and its delay reason table.
+     * @param flightTable the flight table
+     * @param delayTable the delay reason table
+     * @return the statements
+     * @throws SQLException if a database access error occurs
+     */
+    private Target prepareTarget(String flightTable, String delayTable) throws SQLException {
+        Target target = new Target();
+        String sql = String.format(flightSql, flightTable);
+        target.flightStmt = assignIds ? connection.prepareStatement(sql)
+                : connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+
+        target.delayStmt = connection.prepareStatement(
+                "INSERT INTO " + delayTable + " (flight_id, reason, delay_length) VALUES (?, ?, ?)"
+        );
+
+        // Uses the natural key index
+        target.existsStmt = appendMode ? connection.prepareStatement(surrogateKeys
+                ? "SELECT 1 FROM " + flightTable + " WHERE date = ? AND airline_id = ? AND flight_number = ? AND origin_id = ?"
+                : "SELECT 1 FROM " + flightTable + " WHERE date = ? AND airline_code = ? AND flight_number = ? AND flight_origin = ?"
+        ) : null;
+        return target;
+    }
+
+    /**
+     * Gets the statements for a record, creating the partition of its year if needed.
+     * @param record the record to write or look up
+     * @return the statements
+     * @throws SQLException if a database access error occurs
+     */
+    private Target target(FlightRecord record) throws SQLException {
+        int key = partitioned ? record.year : 0;
+        Target target = targets.get(key);
+        if (target == null) {
+            YearPartitions.create(connection, record.year);
+            target = prepareTarget(YearPartitions.flightTable(record.year), YearPartitions.delayTable(record.year));
+            targets.put(key, target);
+        }
+        return target;
+    }
+
+    /**
+     * Lists the Flight columns the importer writes, in the order {@link #write} binds them.
+     * The staging merge copies the same columns.
+     * @param features the schema features of the database
+     * @return comma-separated column names, without flight_id
+     */
+    static String flightColumns(Set<SchemaFeature> features) {
+        StringBuilder columns = new StringBuilder(features.contains(SchemaFeature.SURROGATE_KEYS)
+                ? "date, airline_id, flight_number, origin_id, destination_id, "
+                : "date, airline_code, flight_number, flight_origin, flight_destination, ");
+        columns.append("scheduled_departure, actual_departure, " +
+                "scheduled_arrival, actual_arrival, air_time, distance, diverted, " +
+                "epoch_day, year, month, departure_delay, arrival_delay");
+        if (features.contains(SchemaFeature.WIDE_DELAYS)) {
+            for (String reason : FlightRecord.DELAY_REASONS) {
+                columns.append(", ").append(DatabaseManager.delayColumn(reason));
+            }
+            columns.append(", ").append(DatabaseManager.DELAY_TOTAL_COLUMN);
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Binds an optional column, as NULL when the value is missing.
+     * @param stmt the statement
+     * @param index the parameter index
+     * @param value the value or {@link FlightRecord#MISSING}
+     * @throws SQLException if a database access error occurs
+     */
+    private static void setOptionalInt(PreparedStatement stmt, int index, int value) throws SQLException {
+        if (value == FlightRecord.MISSING) {
+            stmt.setNull(index, Types.INTEGER);
+        } else {
+            stmt.setInt(index, value);
+        }
+    }
+
+    /**
+     * Checks whether a flight with the same date, airline, flight number and origin
+     * was already stored, or is queued in the pending batch.
+     * @param record the record to look up
+     * @return true if the flight is already in the database
+     * @throws SQLException if a database access error occurs
+     */
+    boolean exists(FlightRecord record) throws SQLException {
+        if (!appendMode) {
+            return false;
+        }
+        if (batchedKeys.contains(naturalKey(record))) {
+            return true;
+        }
+        PreparedStatement existsStmt = target(record).existsStmt;
+        existsStmt.setString(1, record.date);
+        if (surrogateKeys) {
+            // A code the registry has never seen cannot be stored yet
+            if (!dimensions.isKnownAirline(record.airlineCode) || !dimensions.isKnownAirport(record.origin)) {
+                return false;
+            }
+            existsStmt.setInt(2, dimensions.getAirlineId(record.airlineCode));
+            existsStmt.setInt(4, dimensions.getAirportId(record.origin));
+        } else {
+            existsStmt.setString(2, record.airlineCode);
+            existsStmt.setString(4, record.origin);
+        }
+        existsStmt.setInt(3, record.flightNumber);
+        try (ResultSet rs = existsStmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Gets the natural key of a flight: its date, airline, flight number and origin.
+     * @param record the record
+     * @return the key
+     */
+    private static String naturalKey(FlightRecord record) {
+        return record.date + '|' + record.airlineCode + '|' + record.flightNumber + '|' + record.origin;
+    }
+
+    /**
+     * Writes a valid record along with its airline, airports and delay reasons.
+     * @param record the record to write
+     * @return true if the flight was inserted
+     * @throws SQLException if a database access error occurs
+     */
+    boolean write(FlightRecord record) throws SQLException {
+        // Insert airline if not already processed
+        if (dimensions.registerAirline(record.airlineCode, record.airlineName)) {
+            insertDimension(airlineStmt, record.airlineCode, record.airlineName,
+                    surrogateKeys ? dimensions.getAirlineId(record.airlineCode) : 0);
+        }
+
+        // Insert origin airport if not already processed
+        if (dimensions.registerAirport(record.origin, record.originCity)) {
+            insertDimension(airportStmt, record.origin, record.originCity,
+                    surrogateKeys ? dimensions.getAirportId(record.origin) : 0);
+        }
+
+        // Insert destination airport if not already processed
+        if (dimensions.registerAirport(record.dest, record.destCity)) {
+            insertDimension(airportStmt, record.dest, record.destCity,
+                    surrogateKeys ? dimensions.getAirportId(record.dest) : 0);
+        }
+
+        // Insert flight data
+        Target target = target(record);
+        PreparedStatement flightStmt = target.flightStmt;
+        flightStmt.setString(1, record.date);
+        if (surrogateKeys) {
+            flightStmt.setInt(2, dimensions.getAirlineId(record.airlineCode));
+            flightStmt.setInt(4, dimensions.getAirportId(record.origin));
+            flightStmt.setInt(5, dimensions.getAirportId(record.dest));
+        } else {
+            flightStmt.setString(2, record.airlineCode);
+            flightStmt.setString(4, record.origin);
+            flightStmt.setString(5, record.dest);
+        }
+        flightStmt.setInt(3, record.flightNumber);
+        flightStmt.setInt(6, record.scheduledDeparture);
+        flightStmt.setInt(7, record.actualDeparture);
+        flightStmt.setInt(8, record.scheduledArrival);
+        flightStmt.setInt(9, record.actualArrival);
+        setOptionalInt(flightStmt, 10, record.airTime);
+        setOptionalInt(flightStmt, 11, record.distance);
+        setOptionalInt(flightStmt, 12, record.diverted);
+        flightStmt.setInt(13, record.epochDay);
+        flightStmt.setInt(14, record.year);
+        flightStmt.setInt(15, record.month);
+        setOptionalInt(flightStmt, 16, record.departureDelay);
+        setOptionalInt(flightStmt, 17, record.arrivalDelay);
+        int index = 18;
+        if (wideDelays) {
+            int total = 0;
+            for (int delay : record.delays) {
+                int minutes = Math.max(delay, 0);
+                flightStmt.setInt(index++, minutes);
+                total += minutes;
+            }
+            flightStmt.setInt(index++, total);
+        }
+
+        int flightId;
+        if (assignIds) {
+            flightId = nextFlightId++;
+            flightStmt.setInt(index, flightId);
+            if (insertMode == CsvImporter.InsertMode.BATCH) {
+                flightStmt.addBatch();
+                if (appendMode) {
+                    batchedKeys.add(naturalKey(record));
+                }
+            } else {
+                flightStmt.executeUpdate();
+            }
+        } else {
+            flightStmt.executeUpdate();
+
+            // Get the generated flight_id
+            try (ResultSet rs = flightStmt.getGeneratedKeys()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                flightId = rs.getInt(1);
+            }
+        }
+        lastFlightId = flightId;
+
+        // Insert delay reasons if present
+        PreparedStatement delayStmt = target.delayStmt;
+        for (int i = 0; i < FlightRecord.DELAY_REASONS.length; i++) {
+            if (record.delays[i] > 0) {
+                delayStmt.setInt(1, flightId);
+                delayStmt.setString(2, FlightRecord.DELAY_REASONS[i]);
+                delayStmt.setInt(3, record.delays[i]);
+                if (insertMode == CsvImporter.InsertMode.BATCH) {
+                    delayStmt.addBatch();
+                } else {
+                    delayStmt.executeUpdate();
+                }
+            }
+        }
+        rollups.add(record);
+        return true;
+    }
+
+    /**
+     * Inserts an airline or airport.
+     * @param stmt the airline or airport statement
+     * @param code the IATA code
+     * @param name the name
+     * @param id the surrogate ID, ignored without surrogate keys
+     * @throws SQLException if a database access error occurs
+     */
+    private void insertDimension(PreparedStatement stmt, String code, String name, int id) throws SQLException {
+        int index = 1;
+        if (surrogateKeys) {
+            stmt.setInt(index++, id);
+        }
+        stmt.setString(index++, code);
+        stmt.setString(index, name);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Commits everything written since the last commit, flushing queued batches first.
+     * The checkpoint and the delay rollups are written in the same transaction, so a
+     * resumed import continues exactly after the last committed row.
+     * @param lastRecord the last record handled, written or rejected
+     * @throws SQLException if a database access error occurs
+     */
+    void commit(FlightRecord lastRecord) throws SQLException {
+        if (insertMode == CsvImporter.InsertMode.BATCH) {
+            // Flights first so delay rows never reference a missing flight
+            for (Target target : targets.values()) {
+                target.flightStmt.executeBatch();
+            }
+            for (Target target : targets.values()) {
+                target.delayStmt.executeBatch();
+            }
+            batchedKeys.clear();
+        }
+        rollups.flush();
+        checkpointStmt.setString(1, source);
+        checkpointStmt.setLong(2, lastRecord.endOffset);
+        checkpointStmt.setLong(3, lastRecord.lineNumber);
+        checkpointStmt.setLong(4, lastFlightId);
+        checkpointStmt.executeUpdate();
+        connection.commit();
+    }
+
+    /**
+     * Closes the prepared statements.
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public void close() throws SQLException {
+        airlineStmt.close();
+        airportStmt.close();
+        for (Target target : targets.values()) {
+            target.flightStmt.close();
+            target.delayStmt.close();
+            if (target.existsStmt != null) {
+                target.existsStmt.close();
+            }
+        }
+        checkpointStmt.close();
+        rollups.close();
+    }
+}
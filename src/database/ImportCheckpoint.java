@@ -0,0 +1,58 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Progress of an import as last committed: where in the source file to continue
+ * and the last flight ID written. Stored in the Import_Checkpoint table in the same
+ * transaction as the rows it covers, so it never runs ahead of the data.
+ */
+class ImportCheckpoint {
+
+    final long byteOffset;
+    final long lineNumber;
+    final long lastFlightId;
+
+    ImportCheckpoint(long byteOffset, long lineNumber, long lastFlightId) {
+        this.byteOffset = byteOffset;
+        this.lineNumber = lineNumber;
+        this.lastFlightId = lastFlightId;
+    }
+
+    /**
+     * Loads the checkpoint recorded for a source file.
+     * @param connection the database connection
+     * @param source the source file key
+     * @return the checkpoint, or null if the source has none
+     * @throws SQLException if a database access error occurs
+     */
+    static ImportCheckpoint load(Connection connection, String source) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT byte_offset, line_number, last_flight_id FROM Import_Checkpoint WHERE source = ?")) {
+            stmt.setString(1, source);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new ImportCheckpoint(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+            }
+        }
+    }
+
+    /**
+     * Prepares the statement used to record checkpoints; parameters are
+     * source, byte offset, line number and last flight ID.
+     * @param connection the database connection
+     * @return the prepared upsert statement
+     * @throws SQLException if a database access error occurs
+     */
+    static PreparedStatement prepareSave(Connection connection) throws SQLException {
+        return connection.prepareStatement(
+                "INSERT OR REPLACE INTO Import_Checkpoint (source, byte_offset, line_number, last_flight_id, updated_at) " +
+                        "VALUES (?, ?, ?, ?, datetime('now'))"
+        );
+    }
+}
@@ -0,0 +1,365 @@
+package database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one import run: throughput, parse and insert time per row, a commit
+ * latency histogram and rejected rows by reason. Counters are striped
+ * ({@link LongAdder}) so parser threads can record without contending.
+ * <p>
+ * While an import runs, a summary line can be printed periodically; at the end the
+ * whole set is available as a JSON report.
+ */
+public class ImportMetrics {
+
+    /** Commit latency buckets: bucket i counts commits under 2^i microseconds, the last one the rest. */
+    private static final int COMMIT_BUCKETS = 24;
+
+    private final LongAdder parsedRows = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder writtenRows = new LongAdder();
+    private final LongAdder insertNanos = new LongAdder();
+    private final LongAdder duplicateRows = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLongArray commitHistogram = new AtomicLongArray(COMMIT_BUCKETS);
+    private final Map<String, LongAdder> rejects = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> warnings = new ConcurrentHashMap<>();
+
+    private volatile long maxCommitNanos;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private volatile List<StageStats> stageStats = List.of();
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Restarts the clock for the run's elapsed time.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        endNanos = 0;
+    }
+
+    /**
+     * Stops the clock and any periodic reporting.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+        stopReporting();
+    }
+
+    /**
+     * Prints a summary line at a fixed interval until {@link #finish()} is called.
+     * @param intervalSeconds seconds between summary lines
+     */
+    public synchronized void startReporting(int intervalSeconds) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "import-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(summaryLine()),
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops periodic reporting if it was started.
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * Records the time taken to parse one row.
+     * @param nanos parse time
+     */
+    void recordParse(long nanos) {
+        parsedRows.increment();
+        parseNanos.add(nanos);
+    }
+
+    /**
+     * Records a row written to the database.
+     * @param nanos time spent in the insert statements
+     */
+    void recordInsert(long nanos) {
+        writtenRows.increment();
+        insertNanos.add(nanos);
+    }
+
+    /**
+     * Records a row skipped because it was already loaded.
+     */
+    void recordDuplicate() {
+        duplicateRows.increment();
+    }
+
+    /**
+     * Records a commit, including the batch flush that precedes it.
+     * @param nanos commit time
+     */
+    void recordCommit(long nanos) {
+        commits.increment();
+        commitNanos.add(nanos);
+        if (nanos > maxCommitNanos) {
+            maxCommitNanos = nanos;
+        }
+        long micros = nanos / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), COMMIT_BUCKETS - 1);
+        commitHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Records a rejected row.
+     * @param message the reject message; the part before the first colon is the reason
+     */
+    void recordReject(String message) {
+        rejects.computeIfAbsent(reasonOf(message), k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records a row imported with warnings.
+     * @param message the warning message; the part before the first colon is the reason
+     */
+    void recordWarning(String message) {
+        warnings.computeIfAbsent(reasonOf(message), k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Attaches the pipeline's per-stage counters to the report.
+     * @param stageStats the stage statistics
+     */
+    void setStageStats(List<StageStats> stageStats) {
+        this.stageStats = stageStats;
+    }
+
+    /**
+     * Groups messages such as "invalid flight number: 12x" by their fixed part.
+     * @param message the reject or warning message
+     * @return the reason
+     */
+    private static String reasonOf(String message) {
+        int colon = message.indexOf(':');
+        return colon < 0 ? message : message.substring(0, colon);
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.sum();
+    }
+
+    public long getDuplicateRows() {
+        return duplicateRows.sum();
+    }
+
+    /**
+     * Gets the number of rejected rows across all reasons.
+     * @return the rejected row count
+     */
+    public long getRejectedRows() {
+        return rejects.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * Gets rejected row counts by reason.
+     * @return counts keyed by reason, sorted by reason
+     */
+    public Map<String, Long> getRejectsByReason() {
+        return snapshot(rejects);
+    }
+
+    /**
+     * Gets the elapsed time of the run.
+     * @return seconds since {@link #start()}, up to {@link #finish()} if finished
+     */
+    public double getElapsedSeconds() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1e9;
+    }
+
+    /**
+     * Gets the overall write rate.
+     * @return rows written per second of elapsed time
+     */
+    public double getRowsPerSecond() {
+        double seconds = getElapsedSeconds();
+        return seconds == 0 ? 0 : writtenRows.sum() / seconds;
+    }
+
+    /**
+     * Gets the average parse time of a row, including tokenizing.
+     * @return nanoseconds per parsed row
+     */
+    public double getParseNanosPerRow() {
+        long rows = parsedRows.sum();
+        return rows == 0 ? 0 : (double) parseNanos.sum() / rows;
+    }
+
+    /**
+     * Gets the average time a written row spent in insert statements and commits.
+     * @return nanoseconds per written row
+     */
+    public double getInsertNanosPerRow() {
+        long rows = writtenRows.sum();
+        return rows == 0 ? 0 : (double) (insertNanos.sum() + commitNanos.sum()) / rows;
+    }
+
+    /**
+     * Formats the one-line progress summary.
+     * @return the summary line
+     */
+    public String summaryLine() {
+        return String.format("Import progress: %,d rows, %,.0f rows/s, parse %,.0f ns/row, insert %,.0f ns/row, " +
+                        "%,d commits, %,d rejected, %,d duplicates",
+                writtenRows.sum(), getRowsPerSecond(), getParseNanosPerRow(), getInsertNanosPerRow(),
+                commits.sum(), getRejectedRows(), duplicateRows.sum());
+    }
+
+    /**
+     * Prints the final summary: the progress line, rejects by reason and the commit histogram.
+     */
+    public void printSummary() {
+        System.out.println(summaryLine());
+        for (Map.Entry<String, Long> entry : getRejectsByReason().entrySet()) {
+            System.out.printf("  rejected %-28s %,d%n", entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry : snapshot(warnings).entrySet()) {
+            System.out.printf("  warning  %-28s %,d%n", entry.getKey(), entry.getValue());
+        }
+        long count = commits.sum();
+        if (count > 0) {
+            System.out.printf("  commits: %,d, mean %.2f ms, max %.2f ms%n",
+                    count, commitNanos.sum() / 1e6 / count, maxCommitNanos / 1e6);
+            for (int i = 0; i < COMMIT_BUCKETS; i++) {
+                long bucketCount = commitHistogram.get(i);
+                if (bucketCount > 0) {
+                    System.out.printf("    %-12s %,d%n", bucketLabel(i), bucketCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Describes a commit histogram bucket.
+     * @param bucket the bucket index
+     * @return a label such as "< 1.024 ms"
+     */
+    private static String bucketLabel(int bucket) {
+        if (bucket == COMMIT_BUCKETS - 1) {
+            return String.format(">= %.3f ms", (1L << (bucket - 1)) / 1000.0);
+        }
+        return String.format("< %.3f ms", (1L << bucket) / 1000.0);
+    }
+
+    /**
+     * Builds the machine-readable report.
+     * @return the metrics as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"elapsed_seconds\": ").append(number(getElapsedSeconds())).append(",\n");
+        json.append("  \"rows_written\": ").append(writtenRows.sum()).append(",\n");
+        json.append("  \"rows_parsed\": ").append(parsedRows.sum()).append(",\n");
+        json.append("  \"rows_rejected\": ").append(getRejectedRows()).append(",\n");
+        json.append("  \"rows_duplicate\": ").append(duplicateRows.sum()).append(",\n");
+        json.append("  \"rows_per_second\": ").append(number(getRowsPerSecond())).append(",\n");
+        json.append("  \"parse_ns_per_row\": ").append(number(getParseNanosPerRow())).append(",\n");
+        json.append("  \"insert_ns_per_row\": ").append(number(getInsertNanosPerRow())).append(",\n");
+
+        long count = commits.sum();
+        json.append("  \"commits\": {\"count\": ").append(count)
+                .append(", \"total_ms\": ").append(number(commitNanos.sum() / 1e6))
+                .append(", \"max_ms\": ").append(number(maxCommitNanos / 1e6))
+                .append(", \"histogram\": [");
+        boolean first = true;
+        for (int i = 0; i < COMMIT_BUCKETS; i++) {
+            long bucketCount = commitHistogram.get(i);
+            if (bucketCount == 0) {
+                continue;
+            }
+            json.append(first ? "" : ", ").append("{\"lt_ms\": ")
+                    .append(i == COMMIT_BUCKETS - 1 ? "null" : number((1L << i) / 1000.0))
+                    .append(", \"count\": ").append(bucketCount).append('}');
+            first = false;
+        }
+        json.append("]},\n");
+
+        json.append("  \"rejects\": ").append(jsonCounts(getRejectsByReason())).append(",\n");
+        json.append("  \"warnings\": ").append(jsonCounts(snapshot(warnings))).append(",\n");
+
+        json.append("  \"stages\": [");
+        first = true;
+        for (StageStats stats : stageStats) {
+            json.append(first ? "\n" : ",\n").append("    {\"name\": ").append(jsonString(stats.getName()))
+                    .append(", \"rows\": ").append(stats.getRows())
+                    .append(", \"rows_per_second\": ").append(number(stats.getRowsPerSecond()))
+                    .append(", \"busy_rows_per_second\": ").append(number(stats.getBusyRowsPerSecond()))
+                    .append('}');
+            first = false;
+        }
+        json.append(first ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Writes the JSON report to a file.
+     * @param path the report file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeJson(Path path) throws IOException {
+        Files.writeString(path, toJson(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((reason, counter) -> result.put(reason, counter.sum()));
+        return result;
+    }
+
+    private static String jsonCounts(Map<String, Long> counts) {
+        StringBuilder json = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            json.append(first ? "" : ", ").append(jsonString(entry.getKey())).append(": ").append(entry.getValue());
+            first = false;
+        }
+        return json.append('}').toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,330 @@
+package database;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Multi-stage import pipeline: one reader thread, N parser/validator workers and
+ * a single writer (the calling thread), joined by bounded queues.
+ * When the input is tokenized from a memory-mapped file, parsing is cheap enough
+ * to run on the reader thread and the pipeline has no parser workers; reading and
+ * parsing still overlap with writing.
+ * <p>
+ * Lines travel in numbered chunks. The writer re-orders chunks by sequence number,
+ * so records reach the database in file order no matter which worker parsed them.
+ * The number of chunks in flight is capped, which blocks the reader when the writer
+ * falls behind instead of buffering the whole file in memory.
+ */
+class ImportPipeline {
+
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Parses one CSV line into a record. Must be safe to call from several threads.
+     */
+    interface RowParser {
+        FlightRecord parse(String line, long lineNumber, long endOffset);
+    }
+
+    /**
+     * Produces parsed records directly, used when there is no separate parse stage.
+     */
+    interface RecordSource {
+        /**
+         * Reads and parses the next record.
+         * @return the record, or null at end of input
+         * @throws IOException if reading fails
+         */
+        FlightRecord next() throws IOException;
+    }
+
+    /**
+     * Receives parsed records in file order on the writer thread.
+     */
+    interface RecordSink {
+        void accept(FlightRecord record) throws SQLException;
+    }
+
+    /**
+     * A numbered block of consecutive lines and, once parsed, their records.
+     */
+    private static class Chunk {
+        final long sequence;
+        final long firstLineNumber;
+        final List<String> lines;
+        final long[] endOffsets;
+        FlightRecord[] records;
+
+        Chunk(long sequence, long firstLineNumber, List<String> lines, long[] endOffsets) {
+            this.sequence = sequence;
+            this.firstLineNumber = firstLineNumber;
+            this.lines = lines;
+            this.endOffsets = endOffsets;
+        }
+    }
+
+    /** Marks the end of input for a parser, or a finished parser for the writer. */
+    private static final Chunk END = new Chunk(-1, -1, null, null);
+
+    private final CsvLineReader reader;
+    private final long firstLineNumber;
+    private final RowParser parser;
+    private final RecordSource recordSource;
+    private final RecordSink sink;
+    private final int workers;
+
+    private final BlockingQueue<Chunk> parseQueue;
+    private final BlockingQueue<Chunk> writeQueue;
+    private final Semaphore chunksInFlight;
+
+    private final StageStats readStats = new StageStats("read", 1);
+    private final StageStats parseStats;
+    private final StageStats writeStats = new StageStats("write", 1);
+
+    private volatile IOException readFailure;
+    private volatile RuntimeException stageFailure;
+
+    /**
+     * Creates a pipeline over an open reader positioned after the header.
+     * @param reader the CSV reader
+     * @param firstLineNumber line number of the next line the reader will return
+     * @param parser the row parser run on the worker threads
+     * @param sink the consumer run on the writer thread
+     * @param workers number of parser threads
+     */
+    ImportPipeline(CsvLineReader reader, long firstLineNumber, RowParser parser, RecordSink sink, int workers) {
+        this.reader = reader;
+        this.firstLineNumber = firstLineNumber;
+        this.parser = parser;
+        this.recordSource = null;
+        this.sink = sink;
+        this.workers = workers;
+        this.parseQueue = new ArrayBlockingQueue<>(workers * 2);
+        this.writeQueue = new ArrayBlockingQueue<>(workers * 2);
+        this.chunksInFlight = new Semaphore(workers * 4);
+        this.parseStats = new StageStats("parse", workers);
+    }
+
+    /**
+     * Creates a two-stage pipeline whose reader thread also parses.
+     * @param recordSource produces parsed records on the reader thread
+     * @param sink the consumer run on the writer thread
+     */
+    ImportPipeline(RecordSource recordSource, RecordSink sink) {
+        this.reader = null;
+        this.firstLineNumber = 0;
+        this.parser = null;
+        this.recordSource = recordSource;
+        this.sink = sink;
+        this.workers = 0;
+        this.parseQueue = null;
+        this.writeQueue = new ArrayBlockingQueue<>(4);
+        this.chunksInFlight = new Semaphore(8);
+        this.parseStats = readStats;
+    }
+
+    /**
+     * Runs the pipeline to completion, writing on the calling thread.
+     * @throws IOException if reading the file fails, or the reader or a parser fails
+     *                     unexpectedly
+     * @throws SQLException if writing to the database fails
+     */
+    void run() throws IOException, SQLException {
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(recordSource != null ? this::readRecordsLoop : this::readLoop, "csv-reader"));
+        for (int i = 0; i < workers; i++) {
+            threads.add(new Thread(this::parseLoop, "csv-parser-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean completed = false;
+        try {
+            writeLoop();
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            if (!completed) {
+                // Unblock the other stages so their threads can exit
+                threads.forEach(Thread::interrupt);
+            }
+            writeStats.finish();
+        }
+
+        if (readFailure != null) {
+            throw readFailure;
+        }
+    }
+
+    /**
+     * Reader stage: splits the file into chunks and hands them to the parsers.
+     */
+    private void readLoop() {
+        try {
+            long sequence = 0;
+            long lineNumber = firstLineNumber;
+            while (true) {
+                chunksInFlight.acquire();
+                long start = System.nanoTime();
+                List<String> lines = new ArrayList<>(CHUNK_SIZE);
+                long[] endOffsets = new long[CHUNK_SIZE];
+                String line;
+                while (lines.size() < CHUNK_SIZE && (line = reader.readLine()) != null) {
+                    endOffsets[lines.size()] = reader.offset();
+                    lines.add(line);
+                }
+                readStats.record(lines.size(), System.nanoTime() - start);
+                if (lines.isEmpty()) {
+                    chunksInFlight.release();
+                    break;
+                }
+                parseQueue.put(new Chunk(sequence++, lineNumber, lines, endOffsets));
+                lineNumber += lines.size();
+            }
+        } catch (IOException e) {
+            readFailure = e;
+        } catch (RuntimeException e) {
+            stageFailure = e;
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            readStats.finish();
+        }
+
+        try {
+            for (int i = 0; i < workers; i++) {
+                parseQueue.put(END);
+            }
+        } catch (InterruptedException e) {
+            // Writer has given up, nothing is waiting for the markers
+        }
+    }
+
+    /**
+     * Combined reader and parser stage: hands chunks of parsed records straight to the writer.
+     */
+    private void readRecordsLoop() {
+        try {
+            long sequence = 0;
+            while (true) {
+                chunksInFlight.acquire();
+                long start = System.nanoTime();
+                List<FlightRecord> records = new ArrayList<>(CHUNK_SIZE);
+                FlightRecord record;
+                while (records.size() < CHUNK_SIZE && (record = recordSource.next()) != null) {
+                    records.add(record);
+                }
+                readStats.record(records.size(), System.nanoTime() - start);
+                if (records.isEmpty()) {
+                    chunksInFlight.release();
+                    break;
+                }
+                Chunk chunk = new Chunk(sequence++, records.get(0).lineNumber, null, null);
+                chunk.records = records.toArray(new FlightRecord[0]);
+                writeQueue.put(chunk);
+            }
+        } catch (IOException e) {
+            readFailure = e;
+        } catch (RuntimeException e) {
+            stageFailure = e;
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            readStats.finish();
+        }
+
+        try {
+            writeQueue.put(END);
+        } catch (InterruptedException e) {
+            // Writer has given up
+        }
+    }
+
+    /**
+     * Parser stage: turns each chunk of lines into validated records.
+     */
+    private void parseLoop() {
+        try {
+            Chunk chunk;
+            while ((chunk = parseQueue.take()) != END) {
+                long start = System.nanoTime();
+                FlightRecord[] records = new FlightRecord[chunk.lines.size()];
+                for (int i = 0; i < records.length; i++) {
+                    records[i] = parser.parse(chunk.lines.get(i), chunk.firstLineNumber + i, chunk.endOffsets[i]);
+                }
+                chunk.records = records;
+                parseStats.record(records.length, System.nanoTime() - start);
+                writeQueue.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            // Writer has given up
+            return;
+        } catch (RuntimeException e) {
+            stageFailure = e;
+        }
+
+        try {
+            writeQueue.put(END);
+        } catch (InterruptedException e) {
+            // Writer has given up
+        }
+    }
+
+    /**
+     * Writer stage: restores file order and passes records to the sink. Stops as soon
+     * as a stage that failed unexpectedly has signalled its end.
+     */
+    private void writeLoop() throws InterruptedException, IOException, SQLException {
+        Map<Long, Chunk> pending = new HashMap<>();
+        long nextSequence = 0;
+        int finishedWorkers = 0;
+        int producers = Math.max(workers, 1);
+
+        while (finishedWorkers < producers) {
+            Chunk chunk = writeQueue.take();
+            if (chunk == END) {
+                if (stageFailure != null) {
+                    // The failed stage's chunks never arrive, so the rest cannot be written in order
+                    throw new IOException("Import stage failed: " + stageFailure, stageFailure);
+                }
+                finishedWorkers++;
+                continue;
+            }
+            pending.put(chunk.sequence, chunk);
+
+            Chunk ready;
+            while ((ready = pending.remove(nextSequence)) != null) {
+                long start = System.nanoTime();
+                for (FlightRecord record : ready.records) {
+                    sink.accept(record);
+                }
+                writeStats.record(ready.records.length, System.nanoTime() - start);
+                chunksInFlight.release();
+                nextSequence++;
+            }
+        }
+        parseStats.finish();
+    }
+
+    /**
+     * Gets throughput counters for each stage, in pipeline order.
+     * @return the stage statistics
+     */
+    List<StageStats> getStageStats() {
+        if (recordSource != null) {
+            return List.of(readStats, writeStats);
+        }
+        return List.of(readStats, parseStats, writeStats);
+    }
+}
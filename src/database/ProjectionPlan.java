@@ -0,0 +1,80 @@
+package database;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The columns the importer reads, resolved once per file from the CSV header.
+ * Each column gets a fixed slot holding its field index, or -1 when the file lacks it,
+ * so parsing a row only indexes into the row's fields; no column name is looked up
+ * per row. Adding a column means adding a slot here and decoding it in
+ * {@link CsvImporter}; rows do not get slower as the header gets wider.
+ */
+class ProjectionPlan {
+
+    /** Field index used for columns missing from the file; every decoder treats it as empty. */
+    static final int ABSENT = -1;
+
+    /** Columns a row must reach for it to be parsed at all. */
+    private static final String[] REQUIRED_COLUMNS = {"FL_DATE", "AIRLINE_CODE", "FL_NUMBER", "ORIGIN", "DEST"};
+
+    final int date;
+    final int airline;
+    final int airlineCode;
+    final int flightNumber;
+    final int origin;
+    final int originCity;
+    final int dest;
+    final int destCity;
+    final int scheduledDeparture;
+    final int actualDeparture;
+    final int scheduledArrival;
+    final int actualArrival;
+    final int cancelled;
+    final int diverted;
+    final int airTime;
+    final int distance;
+
+    /** Delay columns in the order of {@link FlightRecord#DELAY_REASONS}. */
+    final int[] delays = new int[FlightRecord.DELAY_REASONS.length];
+
+    /** Rows with fewer fields are rejected before any field is decoded. */
+    final int minColumns;
+
+    /**
+     * Resolves the column slots from a header.
+     * @param headers the header fields
+     */
+    ProjectionPlan(String[] headers) {
+        Map<String, Integer> columnMap = new HashMap<>();
+        for (int i = 0; i < headers.length; i++) {
+            columnMap.put(headers[i].trim(), i);
+        }
+
+        date = columnMap.getOrDefault("FL_DATE", ABSENT);
+        airline = columnMap.getOrDefault("AIRLINE", ABSENT);
+        airlineCode = columnMap.getOrDefault("AIRLINE_CODE", ABSENT);
+        flightNumber = columnMap.getOrDefault("FL_NUMBER", ABSENT);
+        origin = columnMap.getOrDefault("ORIGIN", ABSENT);
+        originCity = columnMap.getOrDefault("ORIGIN_CITY", ABSENT);
+        dest = columnMap.getOrDefault("DEST", ABSENT);
+        destCity = columnMap.getOrDefault("DEST_CITY", ABSENT);
+        scheduledDeparture = columnMap.getOrDefault("CRS_DEP_TIME", ABSENT);
+        actualDeparture = columnMap.getOrDefault("DEP_TIME", ABSENT);
+        scheduledArrival = columnMap.getOrDefault("CRS_ARR_TIME", ABSENT);
+        actualArrival = columnMap.getOrDefault("ARR_TIME", ABSENT);
+        cancelled = columnMap.getOrDefault("CANCELLED", ABSENT);
+        diverted = columnMap.getOrDefault("DIVERTED", ABSENT);
+        airTime = columnMap.getOrDefault("AIR_TIME", ABSENT);
+        distance = columnMap.getOrDefault("DISTANCE", ABSENT);
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = columnMap.getOrDefault("DELAY_DUE_" + FlightRecord.DELAY_REASONS[i], ABSENT);
+        }
+
+        int maxIndex = 0;
+        for (String column : REQUIRED_COLUMNS) {
+            maxIndex = Math.max(maxIndex, columnMap.getOrDefault(column, ABSENT));
+        }
+        minColumns = maxIndex + 1;
+    }
+}
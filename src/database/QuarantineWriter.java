@@ -0,0 +1,176 @@
+package database;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes rejected CSV rows to a quarantine file on a background thread.
+ * <p>
+ * The file is a CSV with the source header prefixed by SOURCE_LINE and REJECT_REASON
+ * columns, followed by each rejected row as it appeared in the source. Since the importer
+ * finds columns by name, a quarantine file can be fixed up and imported again as is.
+ * The file is only created once the first row is rejected.
+ */
+class QuarantineWriter implements AutoCloseable {
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * A rejected row waiting to be written.
+     */
+    private static class Entry {
+        final long lineNumber;
+        final String reason;
+        final String text;
+
+        Entry(long lineNumber, String reason, String text) {
+            this.lineNumber = lineNumber;
+            this.reason = reason;
+            this.text = text;
+        }
+    }
+
+    /** Tells the background thread that no more rows follow. */
+    private static final Entry END = new Entry(-1, null, null);
+
+    private final Path path;
+    private final String header;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile IOException failure;
+    private long rows = 0;
+
+    /**
+     * Starts a writer for the given quarantine file.
+     * @param path the quarantine file, replaced if it exists
+     * @param sourceHeader the header line of the source CSV
+     * @throws IOException if an old quarantine file cannot be removed
+     */
+    QuarantineWriter(Path path, String sourceHeader) throws IOException {
+        // Rows from an earlier run must not be mistaken for this run's rejects
+        Files.deleteIfExists(path);
+        this.path = path;
+        this.header = "SOURCE_LINE,REJECT_REASON," + sourceHeader;
+        this.thread = new Thread(this::writeLoop, "csv-quarantine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a rejected row. Returns immediately unless the writer is a full queue behind.
+     * @param lineNumber the row's line number in the source
+     * @param reason why the row was rejected
+     * @param text the row as it appeared in the source
+     */
+    void add(long lineNumber, String reason, String text) {
+        try {
+            queue.put(new Entry(lineNumber, reason, text));
+            rows++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Background loop: drains the queue in batches and appends them to the file.
+     */
+    private void writeLoop() {
+        BufferedWriter writer = null;
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                for (Entry entry : batch) {
+                    if (entry == END) {
+                        return;
+                    }
+                    if (writer == null) {
+                        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                        writer.write(header);
+                        writer.newLine();
+                    }
+                    writer.write(Long.toString(entry.lineNumber));
+                    writer.write(',');
+                    writer.write(quote(entry.reason));
+                    writer.write(',');
+                    writer.write(entry.text);
+                    writer.newLine();
+                }
+                writer.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            failure = e;
+            // Keep draining so the importer never blocks on a dead writer
+            try {
+                while (queue.take() != END) {
+                    // Discard
+                }
+            } catch (InterruptedException ie) {
+                // Import aborted
+            }
+        } catch (InterruptedException e) {
+            // Import aborted
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Quotes a value for CSV.
+     * @param value the value
+     * @return the value in double quotes, with embedded quotes doubled
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Gets the number of rows queued for the quarantine file.
+     * @return the quarantined row count
+     */
+    long getRows() {
+        return rows;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Writes the remaining rows and waits for the background thread to finish.
+     * @throws IOException if writing the quarantine file failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing quarantine file", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
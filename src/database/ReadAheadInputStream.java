@@ -0,0 +1,134 @@
+package database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on a background thread, handing blocks to the consumer
+ * through a bounded queue. Wrapped around a decompressing stream, this moves
+ * decompression off the thread that parses, so the two overlap.
+ * A single consumer thread may read from it.
+ */
+class ReadAheadInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int QUEUED_BLOCKS = 8;
+
+    /** Marks the end of the source, or a failure stored in {@link #failure}. */
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+    private final Thread thread;
+    private volatile Throwable failure;
+
+    private byte[] block;
+    private int position;
+
+    /**
+     * Starts reading ahead from the given stream.
+     * @param source the stream to read, typically a decompressor
+     * @param name name of the background thread
+     */
+    ReadAheadInputStream(InputStream source, String name) {
+        this.source = source;
+        this.thread = new Thread(this::readLoop, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Background loop: fills blocks from the source until it ends or fails. Any
+     * failure, not only an IOException, is stored and followed by the end marker,
+     * so the consumer never waits for a thread that has died.
+     */
+    private void readLoop() {
+        try {
+            while (true) {
+                byte[] buffer = new byte[BLOCK_SIZE];
+                int read = source.readNBytes(buffer, 0, BLOCK_SIZE);
+                if (read == 0) {
+                    break;
+                }
+                blocks.put(read == BLOCK_SIZE ? buffer : Arrays.copyOf(buffer, read));
+            }
+        } catch (InterruptedException e) {
+            // Closed by the consumer, nothing waits for the marker
+            return;
+        } catch (Throwable e) {
+            // Includes unchecked exceptions and errors from a native decompressor
+            failure = e;
+        }
+
+        try {
+            blocks.put(END);
+        } catch (InterruptedException e) {
+            // Closed by the consumer
+        }
+    }
+
+    /**
+     * Makes sure a block with unread bytes is current.
+     * @return false at end of stream
+     * @throws IOException if the source failed, with the cause if it was not an IOException
+     */
+    private boolean ensureBlock() throws IOException {
+        if (block != null && position < block.length) {
+            return true;
+        }
+        if (block == END) {
+            return false;
+        }
+        try {
+            block = blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        }
+        position = 0;
+        if (block == END) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw new IOException("Reading ahead failed: " + failure, failure);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Stops the background thread and closes the source.
+     * @throws IOException if closing the source fails
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        source.close();
+    }
+}
@@ -0,0 +1,92 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Optional schema features. A database records the features it was built with in
+ * the Schema_Info table, so the importer and the query service can tell which
+ * columns and tables are there without inspecting the schema.
+ */
+public enum SchemaFeature {
+
+    /**
+     * Delay minutes per reason, and their total, stored as integer columns on Flight
+     * (see {@link DatabaseManager#delayColumn(String)}), so delay filters and
+     * analyses need no join with Delay_Reason. Delay_Reason is still written.
+     */
+    WIDE_DELAYS("wide_delays"),
+
+    /**
+     * Airline and Airport get dense integer IDs (airline_id, airport_id), and Flight
+     * refers to them through airline_id, origin_id and destination_id instead of the
+     * IATA codes, which keeps Flight rows and their indices small. The IDs are assigned
+     * by the importer. Can only be enabled while Flight is empty.
+     */
+    SURROGATE_KEYS("surrogate_keys"),
+
+    /**
+     * Flights and delay reasons are stored in one table per year, behind Flight and
+     * Delay_Reason views (see {@link YearPartitions}), so a year can be dropped or
+     * reloaded without touching the others and searches only read the years they
+     * cover. Can only be enabled while Flight is empty.
+     */
+    YEAR_PARTITIONS("year_partitions");
+
+    private final String key;
+
+    SchemaFeature(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Gets the key the feature is stored under in Schema_Info.
+     * @return the key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Reads all features a database was built with.
+     * @param connection the database connection
+     * @return the enabled features, empty for a database without Schema_Info
+     * @throws SQLException if a database access error occurs
+     */
+    public static Set<SchemaFeature> enabledFeatures(Connection connection) throws SQLException {
+        Set<SchemaFeature> features = EnumSet.noneOf(SchemaFeature.class);
+        for (SchemaFeature feature : values()) {
+            if (feature.isEnabled(connection)) {
+                features.add(feature);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Checks whether a database was built with this feature.
+     * @param connection the database connection
+     * @return true if the feature is recorded as enabled
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean isEnabled(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'Schema_Info'")) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT value FROM Schema_Info WHERE key = ?")) {
+            stmt.setString(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && "1".equals(rs.getString(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a directory of CSV files in parallel. Each worker owns a staging SQLite
+ * file and imports whole CSV files into it, taking the next file from a shared queue
+ * when it finishes one, so the work spreads over the workers however many files
+ * there are. The staging files are then merged into the target database with
+ * ATTACH and INSERT...SELECT. Staging imports always use batched inserts and, for
+ * uncompressed files, the memory-mapped tokenizer, the fastest single-threaded path.
+ * <p>
+ * Staging flight IDs start at 1 in every shard; the merge shifts each shard's IDs
+ * past the highest ID already in the target, and moves delay rows along with them.
+ * Flight IDs therefore follow shard order rather than file order.
+ * <p>
+ * Staging databases are never partitioned; with {@link SchemaFeature#YEAR_PARTITIONS}
+ * the merge copies each year of a shard into the target's partition for that year.
+ */
+public class ShardedImporter {
+
+    private static final String QUARANTINE_SUFFIX = ".rejects.csv";
+
+    /** Joins from a shard's Flight rows to the target's airline and airport IDs. */
+    private static final String SURROGATE_KEY_JOINS =
+            "JOIN shard.Airline sa ON sa.airline_id = f.airline_id " +
+                    "JOIN main.Airline ma ON ma.iata_code = sa.iata_code " +
+                    "JOIN shard.Airport so ON so.airport_id = f.origin_id " +
+                    "JOIN main.Airport mo ON mo.iata_code = so.iata_code " +
+                    "JOIN shard.Airport sd ON sd.airport_id = f.destination_id " +
+                    "JOIN main.Airport md ON md.iata_code = sd.iata_code ";
+
+    private final Connection target;
+    private final File stagingDirectory;
+    private final int shards;
+
+    private final ImportMetrics metrics = new ImportMetrics();
+    private long processedRows = 0;
+    private File quarantineDirectory;
+    private Set<SchemaFeature> features;
+
+    /**
+     * Creates an importer that merges into the given database.
+     * @param target connection to the target database, whose schema must exist
+     * @param stagingDirectory directory for the temporary staging databases
+     * @param shards number of worker threads and staging databases
+     */
+    public ShardedImporter(Connection target, File stagingDirectory, int shards) {
+        this.target = target;
+        this.stagingDirectory = stagingDirectory;
+        this.shards = Math.max(shards, 1);
+    }
+
+    /**
+     * Sets a directory for quarantine files. Rejected rows of each input file go to
+     * a file named after it with a .rejects.csv suffix.
+     * @param quarantineDirectory the directory, or null to print rejected rows
+     */
+    public void setQuarantineDirectory(File quarantineDirectory) {
+        this.quarantineDirectory = quarantineDirectory;
+    }
+
+    /**
+     * Imports every .csv file in a directory, including gzip or zstd compressed ones.
+     * @param directory the directory holding the CSV files
+     * @throws IOException if the directory cannot be listed or a file cannot be read
+     * @throws SQLException if a database access error occurs
+     */
+    public void importDirectory(File directory) throws IOException, SQLException {
+        File[] files = directory.listFiles((dir, name) -> {
+            String lower = name.toLowerCase();
+            if (lower.endsWith(QUARANTINE_SUFFIX)) {
+                return false;
+            }
+            return lower.endsWith(".csv") || lower.endsWith(".csv.gz") || lower.endsWith(".csv.zst");
+        });
+        if (files == null) {
+            throw new IOException("Cannot list directory: " + directory);
+        }
+        if (files.length == 0) {
+            throw new IOException("No CSV files found in " + directory);
+        }
+
+        // Largest files first, so a big file picked up last does not leave one worker running alone
+        Arrays.sort(files, Comparator.comparingLong(File::length).reversed());
+        Queue<File> pending = new ConcurrentLinkedQueue<>(Arrays.asList(files));
+
+        int workers = Math.min(shards, files.length);
+        System.out.println("Importing " + files.length + " files with " + workers + " workers...");
+
+        // Staging databases are built with the target's features so the merge can copy every column
+        features = SchemaFeature.enabledFeatures(target);
+
+        List<File> stagingFiles = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            File stagingFile = new File(stagingDirectory, "flights.db.shard-" + i);
+            deleteDatabaseFiles(stagingFile);
+            stagingFiles.add(stagingFile);
+        }
+
+        metrics.start();
+        metrics.startReporting(5);
+        try {
+            long start = System.nanoTime();
+            runShards(stagingFiles, pending);
+            long merged = System.nanoTime();
+            System.out.printf("Staging imports finished in %.1fs%n", (merged - start) / 1e9);
+
+            for (File stagingFile : stagingFiles) {
+                mergeShard(stagingFile);
+            }
+            System.out.printf("Merged %d shards in %.1fs%n", stagingFiles.size(), (System.nanoTime() - merged) / 1e9);
+        } finally {
+            metrics.finish();
+            for (File stagingFile : stagingFiles) {
+                deleteDatabaseFiles(stagingFile);
+            }
+        }
+
+        System.out.println("Import completed. Processed " + processedRows + " rows.");
+        metrics.printSummary();
+    }
+
+    /**
+     * Runs one worker per staging database until the file queue is empty.
+     * @param stagingFiles the staging database of each worker
+     * @param pending the files still to import
+     * @throws IOException if a worker failed to read a file
+     * @throws SQLException if a worker failed to write
+     */
+    private void runShards(List<File> stagingFiles, Queue<File> pending) throws IOException, SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(stagingFiles.size());
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (File stagingFile : stagingFiles) {
+                results.add(executor.submit(() -> importShard(stagingFile, pending)));
+            }
+            for (Future<Long> result : results) {
+                processedRows += result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new IllegalStateException("Shard import failed", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Worker body: imports files from the queue into one staging database.
+     * @param stagingFile the staging database file
+     * @param pending the files still to import
+     * @return number of rows processed by this worker
+     * @throws IOException if a file cannot be read
+     * @throws SQLException if a database access error occurs
+     */
+    private long importShard(File stagingFile, Queue<File> pending) throws IOException, SQLException {
+        DatabaseManager staging = new DatabaseManager(stagingFile.getPath());
+        long rows = 0;
+        try {
+            staging.connect();
+            // A lost staging file is simply re-imported, so durability is not needed here
+            staging.applyProfile(DatabaseManager.Profile.BULK_LOAD);
+            staging.createSchema();
+            for (SchemaFeature feature : features) {
+                if (feature != SchemaFeature.YEAR_PARTITIONS) {
+                    staging.enableFeature(feature);
+                }
+            }
+
+            File file;
+            while ((file = pending.poll()) != null) {
+                System.out.println("Importing " + file.getName() + " into " + stagingFile.getName());
+                CsvImporter importer = new CsvImporter(staging.getConnection());
+                importer.setInsertMode(CsvImporter.InsertMode.BATCH);
+                importer.setMappedInput(true);
+                importer.setMetrics(metrics);
+                if (quarantineDirectory != null) {
+                    importer.setQuarantineFile(new File(quarantineDirectory, file.getName() + QUARANTINE_SUFFIX).getPath());
+                }
+                importer.importCsv(file.getPath());
+                rows += importer.getProcessedRows();
+            }
+        } finally {
+            staging.disconnect();
+        }
+        return rows;
+    }
+
+    /**
+     * Copies one staging database into the target, shifting its flight IDs and adding
+     * its delay rollups to the target's.
+     * @param stagingFile the staging database file
+     * @throws SQLException if a database access error occurs
+     */
+    private void mergeShard(File stagingFile) throws SQLException {
+        // ATTACH and DETACH are not allowed inside a transaction
+        target.setAutoCommit(true);
+        try (PreparedStatement attach = target.prepareStatement("ATTACH DATABASE ? AS shard")) {
+            attach.setString(1, stagingFile.getPath());
+            attach.execute();
+        } finally {
+            target.setAutoCommit(false);
+        }
+
+        try (Statement stmt = target.createStatement()) {
+            long offset = YearPartitions.maxFlightId(target);
+
+            // The first name seen for a code wins, as within a single import. New codes
+            // get the next surrogate IDs in the order the shard first saw them
+            stmt.executeUpdate("INSERT OR IGNORE INTO main.Airline (iata_code, name) " +
+                    "SELECT iata_code, name FROM shard.Airline ORDER BY rowid");
+            stmt.executeUpdate("INSERT OR IGNORE INTO main.Airport (iata_code, name) " +
+                    "SELECT iata_code, name FROM shard.Airport ORDER BY rowid");
+
+            int flightRows = 0;
+            if (features.contains(SchemaFeature.YEAR_PARTITIONS)) {
+                List<Integer> years = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT year FROM shard.Flight ORDER BY year")) {
+                    while (rs.next()) {
+                        years.add(rs.getInt(1));
+                    }
+                }
+                for (int year : years) {
+                    YearPartitions.create(target, year);
+                    flightRows += mergeFlights(YearPartitions.flightTable(year), YearPartitions.delayTable(year),
+                            "WHERE f.year = " + year + " ", offset);
+                }
+            } else {
+                flightRows = mergeFlights("Flight", "Delay_Reason", "", offset);
+            }
+            DelayRollups.merge(stmt, "shard");
+            System.out.println("Merged " + flightRows + " flights from " + stagingFile.getName() +
+                    " (IDs shifted by " + offset + ")");
+            target.commit();
+        } catch (SQLException e) {
+            target.rollback();
+            throw e;
+        } finally {
+            target.setAutoCommit(true);
+            try (Statement stmt = target.createStatement()) {
+                stmt.execute("DETACH DATABASE shard");
+            } finally {
+                target.setAutoCommit(false);
+            }
+        }
+    }
+
+    /**
+     * Copies flights of the attached shard, with their delay reasons, into target tables.
+     * @param flightTable the target flight table
+     * @param delayTable the target delay reason table
+     * @param condition WHERE clause on the shard's flights f, or empty for all of them
+     * @param offset the amount the flight IDs are shifted by
+     * @return the number of flights copied
+     * @throws SQLException if a database access error occurs
+     */
+    private int mergeFlights(String flightTable, String delayTable, String condition, long offset) throws SQLException {
+        String columns = FlightWriter.flightColumns(features);
+        try (PreparedStatement flights = target.prepareStatement(
+                "INSERT INTO main." + flightTable + " (flight_id, " + columns + ") " +
+                        "SELECT f.flight_id + ?, " + flightSelectList(columns) + " FROM shard.Flight f " +
+                        (features.contains(SchemaFeature.SURROGATE_KEYS) ? SURROGATE_KEY_JOINS : "") +
+                        condition +
+                        "ORDER BY f.flight_id");
+             PreparedStatement delays = target.prepareStatement(
+                     "INSERT INTO main." + delayTable + " (flight_id, reason, delay_length) " +
+                             "SELECT dr.flight_id + ?, dr.reason, dr.delay_length FROM shard.Delay_Reason dr " +
+                             (condition.isEmpty() ? "" : "JOIN shard.Flight f ON f.flight_id = dr.flight_id " + condition) +
+                             "ORDER BY dr.delay_id")) {
+            flights.setLong(1, offset);
+            int flightRows = flights.executeUpdate();
+            delays.setLong(1, offset);
+            delays.executeUpdate();
+            return flightRows;
+        }
+    }
+
+    /**
+     * Builds the select list copying the given Flight columns from a shard.
+     * Surrogate keys are translated from the shard's IDs to the target's through the codes.
+     * @param columns comma-separated Flight columns
+     * @return the select list
+     */
+    private static String flightSelectList(String columns) {
+        StringBuilder select = new StringBuilder();
+        for (String column : columns.split(", ")) {
+            if (select.length() > 0) {
+                select.append(", ");
+            }
+            switch (column) {
+                case "airline_id":
+                    select.append("ma.airline_id");
+                    break;
+                case "origin_id":
+                    select.append("mo.airport_id");
+                    break;
+                case "destination_id":
+                    select.append("md.airport_id");
+                    break;
+                default:
+                    select.append("f.").append(column);
+            }
+        }
+        return select.toString();
+    }
+
+    /**
+     * Deletes a staging database and its journal files.
+     * @param databaseFile the database file
+     */
+    private static void deleteDatabaseFiles(File databaseFile) {
+        for (String suffix : new String[]{"", "-journal", "-wal", "-shm"}) {
+            new File(databaseFile.getPath() + suffix).delete();
+        }
+    }
+
+    /**
+     * Gets the counters of the staging imports, summed over all shards.
+     * Elapsed time and rows per second include the merge.
+     * @return the import metrics
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of data rows processed across all files.
+     * @return the number of processed rows
+     */
+    public long getProcessedRows() {
+        return processedRows;
+    }
+}
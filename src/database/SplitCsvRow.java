@@ -0,0 +1,115 @@
+package database;
+
+/**
+ * A CSV line already split into string fields, used by the line-by-line importer.
+ * The decoders accept the same formats as {@link CsvTokenizer}'s byte decoders,
+ * so both import paths produce the same records.
+ */
+class SplitCsvRow implements CsvRow {
+
+    private final String[] fields;
+
+    /**
+     * Wraps the fields of one line.
+     * @param fields the fields, quotes already removed
+     */
+    SplitCsvRow(String[] fields) {
+        this.fields = fields;
+    }
+
+    @Override
+    public int fieldCount() {
+        return fields.length;
+    }
+
+    @Override
+    public boolean isEmpty(int field) {
+        return text(field).isEmpty();
+    }
+
+    @Override
+    public String text(int field) {
+        if (field < 0 || field >= fields.length) {
+            return "";
+        }
+        return fields[field].trim();
+    }
+
+    @Override
+    public String date(int field) {
+        return text(field).replace("-", "");
+    }
+
+    @Override
+    public int integer(int field) {
+        String value = text(field);
+        int p = 0;
+        int end = value.length();
+        boolean negative = p < end && value.charAt(p) == '-';
+        if (negative || (p < end && value.charAt(p) == '+')) {
+            p++;
+        }
+        if (p == end) {
+            return INVALID;
+        }
+        long result = 0;
+        for (; p < end; p++) {
+            int digit = value.charAt(p) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            result = result * 10 + digit;
+            // Out of int range, as Integer.parseInt would reject it; -2147483648 still fits
+            if (result > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) {
+                return INVALID;
+            }
+        }
+        return (int) (negative ? -result : result);
+    }
+
+    @Override
+    public int time(int field) {
+        String value = text(field);
+        if (value.isEmpty()) {
+            return 0;
+        }
+        int result = 0;
+        int hours = -1;
+        int digits = 0;
+        for (int p = 0; p < value.length(); p++) {
+            char c = value.charAt(p);
+            if (c >= '0' && c <= '9') {
+                result = result * 10 + (c - '0');
+                if (++digits > 6) {
+                    return INVALID;
+                }
+            } else if (c == '.') {
+                // Ignore the decimal part
+                break;
+            } else if (c == ':' && hours < 0 && digits > 0) {
+                hours = result;
+                result = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0) {
+            return INVALID;
+        }
+        return hours < 0 ? result : hours * 100 + result;
+    }
+
+    @Override
+    public int rounded(int field) {
+        String value = text(field);
+        if (value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.round(Float.parseFloat(value));
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package database;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters for one stage of the import pipeline.
+ * Busy time only counts time spent working, not time blocked on a queue,
+ * so the stage with the lowest busy rate is the bottleneck.
+ */
+public class StageStats {
+
+    private final String name;
+    private final int threads;
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    /**
+     * Creates counters for a named stage.
+     * @param name the stage name
+     * @param threads number of threads working in this stage
+     */
+    public StageStats(String name, int threads) {
+        this.name = name;
+        this.threads = threads;
+    }
+
+    /**
+     * Records a unit of work done by this stage.
+     * @param rowCount number of rows handled
+     * @param nanos time spent handling them
+     */
+    void record(int rowCount, long nanos) {
+        rows.addAndGet(rowCount);
+        busyNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Marks the stage as finished so wall-clock rates stop advancing.
+     */
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    /**
+     * Gets the rate this stage could sustain if it never waited on its neighbours.
+     * @return rows per second of busy time across all of the stage's threads
+     */
+    public double getBusyRowsPerSecond() {
+        long nanos = busyNanos.get();
+        return nanos == 0 ? 0 : rows.get() * 1_000_000_000.0 * threads / nanos;
+    }
+
+    /**
+     * Gets the rate this stage achieved over its lifetime.
+     * @return rows per second of wall-clock time
+     */
+    public double getRowsPerSecond() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long nanos = end - startNanos;
+        return nanos == 0 ? 0 : rows.get() * 1_000_000_000.0 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-8s x%d %,d rows, %,.0f rows/s wall, %,.0f rows/s busy",
+                name, threads, getRows(), getRowsPerSecond(), getBusyRowsPerSecond());
+    }
+}
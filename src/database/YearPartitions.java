@@ -0,0 +1,213 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage layout of {@link SchemaFeature#YEAR_PARTITIONS}: every year's flights live
+ * in their own Flight_YYYY and Delay_Reason_YYYY tables, and Flight and Delay_Reason
+ * are views over the union of all partitions.
+ * <p>
+ * Two empty template tables, Flight_Template and Delay_Reason_Template, carry the
+ * columns and indices; a new partition is created by cloning their definitions, so
+ * it matches whatever features and indices the database has. The templates are part
+ * of the views as well, which keeps the views valid before the first partition
+ * exists. Flight IDs stay unique across partitions because the importer assigns them.
+ */
+public class YearPartitions {
+
+    static final String FLIGHT_TEMPLATE = "Flight_Template";
+    static final String DELAY_TEMPLATE = "Delay_Reason_Template";
+
+    private YearPartitions() {
+    }
+
+    /**
+     * Gets the flight table of a year.
+     * @param year the year
+     * @return the table name, e.g. Flight_2021
+     */
+    public static String flightTable(int year) {
+        return "Flight_" + year;
+    }
+
+    /**
+     * Gets the delay reason table of a year.
+     * @param year the year
+     * @return the table name, e.g. Delay_Reason_2021
+     */
+    public static String delayTable(int year) {
+        return "Delay_Reason_" + year;
+    }
+
+    /**
+     * Lists the years that have a partition.
+     * @param connection the database connection
+     * @return the years in ascending order, empty for a database without partitions
+     * @throws SQLException if a database access error occurs
+     */
+    public static List<Integer> years(Connection connection) throws SQLException {
+        List<Integer> years = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT name FROM sqlite_master WHERE type = 'table' " +
+                             "AND name GLOB 'Flight_[0-9][0-9][0-9][0-9]' ORDER BY name")) {
+            while (rs.next()) {
+                years.add(Integer.parseInt(rs.getString(1).substring("Flight_".length())));
+            }
+        }
+        return years;
+    }
+
+    /**
+     * Checks whether Flight is the partition view rather than a table.
+     * @param connection the database connection
+     * @return true if the database is partitioned by year
+     * @throws SQLException if a database access error occurs
+     */
+    static boolean isPartitioned(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT 1 FROM sqlite_master WHERE type = 'view' AND name = 'Flight'")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Lists the flight and delay reason table of the templates and every partition.
+     * @param connection the database connection
+     * @return pairs of flight table and delay reason table, templates first
+     * @throws SQLException if a database access error occurs
+     */
+    static List<String[]> tables(Connection connection) throws SQLException {
+        List<String[]> tables = new ArrayList<>();
+        tables.add(new String[]{FLIGHT_TEMPLATE, DELAY_TEMPLATE});
+        for (int year : years(connection)) {
+            tables.add(new String[]{flightTable(year), delayTable(year)});
+        }
+        return tables;
+    }
+
+    /**
+     * Creates the partition of a year, with the templates' columns and indices,
+     * and adds it to the views. Does nothing if the partition exists.
+     * @param connection the database connection
+     * @param year the year
+     * @throws SQLException if a database access error occurs
+     */
+    static void create(Connection connection, int year) throws SQLException {
+        List<String> definitions = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE name = '" + flightTable(year) + "'")) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+            // Tables before indices; automatic indices have no SQL
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT sql FROM sqlite_master WHERE tbl_name IN ('" + FLIGHT_TEMPLATE + "', '" + DELAY_TEMPLATE + "') " +
+                            "AND sql IS NOT NULL ORDER BY type = 'index', tbl_name <> '" + FLIGHT_TEMPLATE + "'")) {
+                while (rs.next()) {
+                    definitions.add(rs.getString(1));
+                }
+            }
+            for (String definition : definitions) {
+                stmt.executeUpdate(definition
+                        .replace(FLIGHT_TEMPLATE, flightTable(year))
+                        .replace(FLIGHT_TEMPLATE.toLowerCase(), flightTable(year).toLowerCase())
+                        .replace(DELAY_TEMPLATE, delayTable(year))
+                        .replace(DELAY_TEMPLATE.toLowerCase(), delayTable(year).toLowerCase()));
+            }
+            createViews(stmt, years(connection));
+        }
+        System.out.println("Created partition for " + year + ".");
+    }
+
+    /**
+     * Drops the partition of a year and removes it from the views. Does nothing if
+     * the year has no partition.
+     * @param connection the database connection
+     * @param year the year
+     * @throws SQLException if a database access error occurs
+     */
+    static void drop(Connection connection, int year) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DROP TABLE IF EXISTS " + delayTable(year));
+            stmt.executeUpdate("DROP TABLE IF EXISTS " + flightTable(year));
+            createViews(stmt, years(connection));
+        }
+    }
+
+    /**
+     * Drops the views, the templates and every partition.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    static void dropAll(Connection connection) throws SQLException {
+        if (!isPartitioned(connection)) {
+            return;
+        }
+        List<String[]> tables = tables(connection);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DROP VIEW Flight");
+            stmt.executeUpdate("DROP VIEW Delay_Reason");
+            for (String[] pair : tables) {
+                stmt.executeUpdate("DROP TABLE " + pair[1]);
+                stmt.executeUpdate("DROP TABLE " + pair[0]);
+            }
+        }
+    }
+
+    /**
+     * (Re)creates the Flight and Delay_Reason views over the templates and the given partitions.
+     * @param stmt the statement to execute with
+     * @param years the years that have a partition
+     * @throws SQLException if a database access error occurs
+     */
+    static void createViews(Statement stmt, List<Integer> years) throws SQLException {
+        // Qualified, as a staging database with plain Flight tables may be attached
+        StringBuilder flights = new StringBuilder("CREATE VIEW main.Flight AS SELECT * FROM " + FLIGHT_TEMPLATE);
+        StringBuilder delays = new StringBuilder("CREATE VIEW main.Delay_Reason AS SELECT * FROM " + DELAY_TEMPLATE);
+        for (int year : years) {
+            flights.append(" UNION ALL SELECT * FROM ").append(flightTable(year));
+            delays.append(" UNION ALL SELECT * FROM ").append(delayTable(year));
+        }
+        stmt.executeUpdate("DROP VIEW IF EXISTS main.Flight");
+        stmt.executeUpdate("DROP VIEW IF EXISTS main.Delay_Reason");
+        stmt.executeUpdate(flights.toString());
+        stmt.executeUpdate(delays.toString());
+    }
+
+    /**
+     * Finds the highest flight ID stored, reading each partition's maximum from its
+     * primary key instead of scanning the Flight view.
+     * @param connection the database connection
+     * @return the maximum flight_id, or 0 if there are no flights
+     * @throws SQLException if a database access error occurs
+     */
+    static long maxFlightId(Connection connection) throws SQLException {
+        List<String> flightTables = new ArrayList<>();
+        if (isPartitioned(connection)) {
+            for (String[] pair : tables(connection)) {
+                flightTables.add(pair[0]);
+            }
+        } else {
+            flightTables.add("Flight");
+        }
+        long max = 0;
+        try (Statement stmt = connection.createStatement()) {
+            for (String table : flightTables) {
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(flight_id), 0) FROM main." + table)) {
+                    if (rs.next()) {
+                        max = Math.max(max, rs.getLong(1));
+                    }
+                }
+            }
+        }
+        return max;
+    }
+}
@@ -1,5 +1,7 @@
 package flightapp;
 
+import service.FlightDataService;
+import service.ReadConnectionPool;
 import ui.FlightPunctualityApp;
 
 import javax.swing.*;
@@ -12,9 +14,23 @@ public class FlightAppMain {
 
     /**
      * Main entry point for the application.
-     * @param args command line arguments (not used)
+     * @param args command line arguments: {@code --engine=columnar} to load the flights
+     *             into memory at startup and answer from there (default: {@code --engine=sqlite}),
+     *             {@code --read-connections=N} for the size of the sqlite engine's connection pool
      */
     public static void main(String[] args) {
+        String engine = "sqlite";
+        int readConnections = ReadConnectionPool.DEFAULT_SIZE;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+            } else if (arg.startsWith("--read-connections=")) {
+                readConnections = Integer.parseInt(arg.substring("--read-connections=".length()));
+            }
+        }
+        String storageEngine = engine;
+        int poolSize = readConnections;
+
         // Set look and feel to system default
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -25,7 +41,7 @@ public class FlightAppMain {
         // Launch application on the event dispatch thread
         SwingUtilities.invokeLater(() -> {
             try {
-                FlightPunctualityApp app = new FlightPunctualityApp();
+                FlightPunctualityApp app = new FlightPunctualityApp(FlightDataService.open(storageEngine, poolSize));
                 app.setVisible(true);
             } catch (SQLException e) {
                 JOptionPane.showMessageDialog(
@@ -49,19 +49,29 @@ public class Flight {
             return 0;
         }
 
+        return Math.max(0, delayMinutes(scheduledArrival, actualArrival)); // Negative means early arrival, count as 0 delay
+    }
+
+    /**
+     * Calculates how many minutes an actual time is later than the scheduled time.
+     * Differences of more than 12 hours are taken to cross midnight.
+     * @param scheduled the scheduled time in HHMM format
+     * @param actual the actual time in HHMM format
+     * @return delay in minutes, negative if early
+     */
+    public static int delayMinutes(int scheduled, int actual) {
         // Convert times to minutes since midnight for easier comparison
-        int scheduledArrivalMinutes = timeToMinutes(scheduledArrival);
-        int actualArrivalMinutes = timeToMinutes(actualArrival);
+        int scheduledMinutes = timeToMinutes(scheduled);
+        int actualMinutes = timeToMinutes(actual);
 
         // Calculate difference, considering midnight crossings
-        int diffMinutes = actualArrivalMinutes - scheduledArrivalMinutes;
+        int diffMinutes = actualMinutes - scheduledMinutes;
         if (diffMinutes < -720) { // More than 12 hours negative -> must have crossed midnight
             diffMinutes += 1440; // Add 24 hours in minutes
         } else if (diffMinutes > 720) { // More than 12 hours positive -> scheduled must have crossed midnight
             diffMinutes -= 1440; // Subtract 24 hours in minutes
         }
-
-        return Math.max(0, diffMinutes); // Negative means early arrival, count as 0 delay
+        return diffMinutes;
     }
 
     /**
@@ -69,7 +79,7 @@ public class Flight {
      * @param time the time in HHMM format
      * @return minutes since midnight
      */
-    private int timeToMinutes(int time) {
+    private static int timeToMinutes(int time) {
         int hours = time / 100;
         int minutes = time % 100;
         return hours * 60 + minutes;
@@ -0,0 +1,237 @@
+package service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of the delay analyses, keyed by analysis and parameters and stamped with
+ * the {@link FlightRepository#getImportGeneration() import generation} they were
+ * computed at. The results stay valid until the next import, so they are kept
+ * without a size or time limit; there are only as many as distinct chart requests.
+ * <p>
+ * With a sidecar file the results survive a restart: the file is rewritten after
+ * every new result and read back when the cache is created, and its entries are
+ * used only if the database still has the generation they were stamped with.
+ * Databases without a generation are cached in memory only, as nothing tells their
+ * data apart.
+ * <p>
+ * The generation is re-read whenever the repository's data version changes, so a
+ * running application picks up an import as soon as it commits. An import that
+ * fails before recording a new generation does not invalidate the cache.
+ */
+public class AnalysisResultCache {
+
+    /** First item of a sidecar file, identifying its format. */
+    private static final String FILE_FORMAT = "flight-analysis-cache/1";
+
+    /**
+     * An analysis run on a miss.
+     */
+    public interface Analysis {
+        Map<String, Double> run() throws SQLException;
+    }
+
+    private final Path file;
+
+    // Guarded by this
+    private final Map<String, Map<String, Double>> results = new HashMap<>();
+    private long generation;
+    private Long checkedDataVersion;
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private int loaded;
+
+    /**
+     * Creates a cache, reading the results of an earlier run from the sidecar file.
+     * An unreadable file is ignored.
+     * @param file the sidecar file, or null to keep the results in memory only
+     */
+    public AnalysisResultCache(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try {
+                load();
+                System.out.println("Loaded " + loaded + " cached analyses of import generation "
+                        + generation + " from " + file);
+            } catch (IOException e) {
+                System.err.println("Ignoring analysis cache " + file + ": " + e.getMessage());
+                results.clear();
+                generation = 0;
+                loaded = 0;
+            }
+        }
+    }
+
+    /**
+     * Gets the result of an analysis, running it only if no result for the same
+     * analysis and parameters was computed at the current import generation.
+     * @param repository the repository the analysis reads
+     * @param analysis the analysis to run on a miss
+     * @param name the analysis name, e.g. "averageDelayByAirline"
+     * @param parameters the analysis parameters
+     * @return the result, unmodifiable
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<String, Double> get(FlightRepository repository, Analysis analysis, String name,
+                                   Object... parameters) throws SQLException {
+        StringBuilder key = new StringBuilder(name);
+        for (Object parameter : parameters) {
+            key.append('|').append(parameter);
+        }
+        long current = currentGeneration(repository);
+        Map<String, Double> cached = lookup(key.toString(), current);
+        if (cached != null) {
+            System.out.println("Analysis served from cache: " + key);
+            return cached;
+        }
+        Map<String, Double> result = Collections.unmodifiableMap(new LinkedHashMap<>(analysis.run()));
+        store(key.toString(), current, result);
+        return result;
+    }
+
+    /**
+     * Gets the repository's import generation, reading it again only if the data
+     * changed since the last check, and drops the results of any other generation.
+     * @param repository the repository
+     * @return the current generation
+     * @throws SQLException if a database access error occurs
+     */
+    private synchronized long currentGeneration(FlightRepository repository) throws SQLException {
+        long dataVersion = repository.getDataVersion();
+        if (checkedDataVersion == null || checkedDataVersion != dataVersion) {
+            long current = repository.getImportGeneration();
+            if (current != generation) {
+                if (!results.isEmpty()) {
+                    invalidations++;
+                }
+                results.clear();
+                generation = current;
+            }
+            checkedDataVersion = dataVersion;
+        }
+        return generation;
+    }
+
+    private synchronized Map<String, Double> lookup(String key, long current) {
+        Map<String, Double> cached = current == generation ? results.get(key) : null;
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached;
+    }
+
+    /**
+     * Stores a result and rewrites the sidecar file. Results computed at a generation
+     * that has since been replaced are not stored.
+     * @param key the analysis and parameters
+     * @param current the generation the result was computed at
+     * @param result the result
+     */
+    private synchronized void store(String key, long current, Map<String, Double> result) {
+        if (current != generation) {
+            return;
+        }
+        results.put(key, result);
+        if (file != null && generation != 0) {
+            try {
+                save();
+            } catch (IOException e) {
+                System.err.println("Error writing analysis cache " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the sidecar file: the format, the generation, then every result as its
+     * key and entries.
+     * @throws IOException if the file cannot be read or is not a cache file
+     */
+    private void load() throws IOException {
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(in)) {
+            if (!FILE_FORMAT.equals(data.readUTF())) {
+                throw new IOException("Unknown format");
+            }
+            generation = data.readLong();
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = data.readUTF();
+                int size = data.readInt();
+                Map<String, Double> result = new LinkedHashMap<>();
+                for (int j = 0; j < size; j++) {
+                    result.put(data.readUTF(), data.readDouble());
+                }
+                results.put(key, Collections.unmodifiableMap(result));
+            }
+            loaded = count;
+        }
+    }
+
+    /**
+     * Writes all results to the sidecar file, through a temporary file so that a
+     * reader never sees a partial one.
+     * @throws IOException if the file cannot be written
+     */
+    private void save() throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary);
+             DataOutputStream data = new DataOutputStream(out)) {
+            data.writeUTF(FILE_FORMAT);
+            data.writeLong(generation);
+            data.writeInt(results.size());
+            for (Map.Entry<String, Map<String, Double>> result : results.entrySet()) {
+                data.writeUTF(result.getKey());
+                data.writeInt(result.getValue().size());
+                for (Map.Entry<String, Double> entry : result.getValue().entrySet()) {
+                    data.writeUTF(entry.getKey());
+                    data.writeDouble(entry.getValue());
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized int getEntries() {
+        return results.size();
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Formats the cache metrics on one line.
+     * @return the summary line
+     */
+    public synchronized String summaryLine() {
+        return String.format("Analysis cache: %d results of import generation %d (%d loaded from file), "
+                        + "%d hits, %d misses, %d invalidations",
+                results.size(), generation, loaded, hits, misses, invalidations);
+    }
+}
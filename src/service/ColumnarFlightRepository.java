@@ -0,0 +1,583 @@
+package service;
+
+import database.DatabaseManager;
+import model.Flight;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * {@link FlightRepository} answering from {@link FlightColumns}, read from the SQLite
+ * database once when the repository is created. Searches with an airline, airport or
+ * delay filter visit only the rows of their {@link FlightBitmapIndex} sets; other
+ * searches scan the rows in parallel. Both go in result order and stop at the limit.
+ * The analyses aggregate the rows of a year with fork/join tasks that each total
+ * their own range and are merged at the end. Later imports are not seen until a new
+ * repository is created.
+ */
+public class ColumnarFlightRepository implements FlightRepository {
+
+    /** Rows a task scans or aggregates without splitting further. */
+    private static final int CHUNK_ROWS = 1 << 16;
+
+    /** Number of totals kept per group by {@link Aggregation}. */
+    private static final int TOTALS = 4;
+
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private FlightColumns columns;
+    private FlightBitmapIndex index;
+    private final long importGeneration;
+
+    /**
+     * Creates a repository holding all flights of a database.
+     * @param dbUrl JDBC URL of the database, e.g. jdbc:sqlite:flights.db
+     * @throws SQLException if a database access error occurs
+     */
+    public ColumnarFlightRepository(String dbUrl) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection(dbUrl)) {
+            columns = new FlightColumns(connection);
+            importGeneration = DatabaseManager.readImportGeneration(connection);
+        }
+        index = new FlightBitmapIndex(columns);
+        System.out.printf("Loaded %,d flights from %s into columns (%,d KB) and bitmap indexes (%,d KB) in %.1fs%n",
+                columns.size, dbUrl, columns.estimatedBytes() / 1024, index.estimatedBytes() / 1024,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Gets the data version, which never changes, as the columns are a snapshot
+     * taken when the repository was created.
+     * @return 0
+     */
+    @Override
+    public long getDataVersion() {
+        return 0;
+    }
+
+    /**
+     * Gets the import generation the columns were loaded at.
+     * @return the generation, 0 if no import recorded one
+     */
+    @Override
+    public long getImportGeneration() {
+        return importGeneration;
+    }
+
+    /**
+     * Drops the columns and indexes.
+     */
+    @Override
+    public void close() {
+        columns = null;
+        index = null;
+    }
+
+    /**
+     * Search filters resolved against the columns.
+     */
+    private static final class RowFilter {
+        boolean[] airlines;
+        int flightAirline = -1;
+        int flightNumber = -1;
+        boolean[] origins;
+        boolean[] destinations;
+        boolean delayFilter;
+        int[] delayReasons;
+        int minDelay = Integer.MIN_VALUE;
+        int maxDelay = Integer.MAX_VALUE;
+
+        /**
+         * Checks whether a row passes the filters other than the date range.
+         * @param columns the columns
+         * @param row the row
+         * @return true if the row matches
+         */
+        boolean matches(FlightColumns columns, int row) {
+            if (airlines != null && !airlines[columns.airline[row]]) {
+                return false;
+            }
+            if (flightNumber >= 0 && (columns.flightNumber[row] != flightNumber
+                    || (flightAirline >= 0 && columns.airline[row] != flightAirline))) {
+                return false;
+            }
+            if (origins != null && !origins[columns.origin[row]]) {
+                return false;
+            }
+            if (destinations != null && !destinations[columns.destination[row]]) {
+                return false;
+            }
+            if (delayFilter) {
+                for (int reason : delayReasons) {
+                    int delay = columns.delays[reason][row];
+                    if (delay > 0 && delay >= minDelay && delay <= maxDelay) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Resolves the search filters against the dimension arrays.
+     * @param columns the columns
+     * @param criteria the search filters
+     * @return the filter, or null if no flight can match
+     */
+    private static RowFilter compile(FlightColumns columns, SearchCriteria criteria) {
+        RowFilter filter = new RowFilter();
+        String airline = criteria.getAirline();
+        if (airline != null && !airline.trim().isEmpty()) {
+            filter.airlines = findDimension(columns.airlineCodes, columns.airlineNames, null, airline.trim(), true);
+        }
+        SearchCriteria.FlightNumber flightNumber = criteria.parseFlightNumber();
+        if (flightNumber == SearchCriteria.FlightNumber.NONE) {
+            return null;
+        } else if (flightNumber != null) {
+            filter.flightNumber = flightNumber.getNumber();
+            if (flightNumber.getAirlineCode() != null) {
+                filter.flightAirline = Arrays.asList(columns.airlineCodes).indexOf(flightNumber.getAirlineCode());
+                if (filter.flightAirline < 0) {
+                    return null;
+                }
+            }
+        }
+        String origin = criteria.getOrigin();
+        if (origin != null && !origin.trim().isEmpty()) {
+            filter.origins = findDimension(columns.airportCodes, columns.airportNames,
+                    origin.trim().toUpperCase(), origin.trim(), false);
+        }
+        String destination = criteria.getDestination();
+        if (destination != null && !destination.trim().isEmpty()) {
+            filter.destinations = findDimension(columns.airportCodes, columns.airportNames,
+                    destination.trim().toUpperCase(), destination.trim(), false);
+        }
+        String delayReason = criteria.getDelayReason();
+        filter.delayFilter = criteria.getMinDelay() != null || criteria.getMaxDelay() != null || delayReason != null;
+        if (delayReason != null && !delayReason.trim().isEmpty()) {
+            int reason = DatabaseManager.DELAY_REASONS.indexOf(delayReason.trim().toUpperCase());
+            if (reason < 0) {
+                return null;
+            }
+            filter.delayReasons = new int[]{reason};
+        } else {
+            filter.delayReasons = new int[DatabaseManager.DELAY_REASONS.size()];
+            Arrays.setAll(filter.delayReasons, i -> i);
+        }
+        if (criteria.getMinDelay() != null) {
+            filter.minDelay = criteria.getMinDelay();
+        }
+        if (criteria.getMaxDelay() != null) {
+            filter.maxDelay = criteria.getMaxDelay();
+        }
+        return filter;
+    }
+
+    /**
+     * Marks the airlines or airports matching a search term the way the SQL filters
+     * do: the code equals {@code exactCode}, or the code (if {@code partialCode}) or
+     * name contains the term, ignoring case as SQLite's LIKE does.
+     * @param codes the dimension codes
+     * @param names the dimension names
+     * @param exactCode code to match exactly, or null
+     * @param term the search term
+     * @param partialCode true to also match codes containing the term
+     * @return one flag per dimension index
+     */
+    private static boolean[] findDimension(String[] codes, String[] names, String exactCode, String term, boolean partialCode) {
+        String lowerTerm = term.toLowerCase(Locale.ROOT);
+        boolean[] matches = new boolean[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            matches[i] = codes[i].equals(exactCode)
+                    || (partialCode && codes[i].toLowerCase(Locale.ROOT).contains(lowerTerm))
+                    || (names[i] != null && names[i].toLowerCase(Locale.ROOT).contains(lowerTerm));
+        }
+        return matches;
+    }
+
+    /**
+     * Intersects the bitmaps of the filters that have one, leaving out unions too
+     * broad to be worth building.
+     * @param index the bitmap indexes
+     * @param filter the search filters
+     * @return the rows passing those filters, or null if no bitmap was used
+     */
+    private static RowBitmap candidates(FlightBitmapIndex index, RowFilter filter) {
+        RowBitmap candidates = null;
+        if (filter.airlines != null) {
+            candidates = intersect(candidates, index.union(index.airlines, filter.airlines));
+        }
+        if (filter.flightAirline >= 0) {
+            candidates = intersect(candidates, index.airlines[filter.flightAirline]);
+        }
+        if (filter.origins != null) {
+            candidates = intersect(candidates, index.union(index.origins, filter.origins));
+        }
+        if (filter.destinations != null) {
+            candidates = intersect(candidates, index.union(index.destinations, filter.destinations));
+        }
+        if (filter.delayFilter) {
+            candidates = intersect(candidates, filter.delayReasons.length == 1
+                    ? index.reasons[filter.delayReasons[0]] : index.delayed);
+        }
+        return candidates;
+    }
+
+    private static RowBitmap intersect(RowBitmap candidates, RowBitmap rows) {
+        return candidates == null ? rows : rows == null ? candidates : candidates.and(rows);
+    }
+
+    @Override
+    public List<Flight> searchFlights(SearchCriteria criteria) throws SQLException {
+        FlightColumns columns = this.columns;
+        FlightBitmapIndex index = this.index;
+        List<Flight> results = new ArrayList<>();
+        RowFilter filter = compile(columns, criteria);
+        if (filter == null) {
+            return results;
+        }
+
+        // Rows are sorted newest first, so the date range is a range of rows
+        int from = criteria.getEndDate() != null ? columns.firstRowOnOrBefore(criteria.getEndDate().toEpochDay()) : 0;
+        int to = criteria.getStartDate() != null ? columns.firstRowOnOrBefore(criteria.getStartDate().toEpochDay() - 1) : columns.size;
+
+        RowBitmap candidates = candidates(index, filter);
+        if (candidates != null) {
+            // The flight number and delay range are checked per row; matches() checks
+            // the indexed filters again, which costs little next to creating the Flight
+            candidates.forEach(from, to, row -> {
+                if (filter.matches(columns, row)) {
+                    results.add(toFlight(columns, row));
+                }
+                return results.size() < SEARCH_LIMIT;
+            });
+            System.out.println("Search found " + results.size() + " results");
+            return results;
+        }
+
+        // Scan a wave of chunks in parallel, keeping the chunks' matches in row order,
+        // until the limit is reached
+        int wave = pool.getParallelism();
+        for (int start = from; start < to && results.size() < SEARCH_LIMIT; start += wave * CHUNK_ROWS) {
+            List<Callable<int[]>> chunks = new ArrayList<>();
+            for (int chunkStart = start; chunkStart < Math.min(to, start + (long) wave * CHUNK_ROWS); chunkStart += CHUNK_ROWS) {
+                int first = chunkStart;
+                int last = Math.min(to, chunkStart + CHUNK_ROWS);
+                chunks.add(() -> scan(columns, filter, first, last));
+            }
+            for (Future<int[]> chunk : pool.invokeAll(chunks)) {
+                for (int row : join(chunk)) {
+                    if (results.size() < SEARCH_LIMIT) {
+                        results.add(toFlight(columns, row));
+                    }
+                }
+            }
+        }
+
+        System.out.println("Search found " + results.size() + " results");
+        return results;
+    }
+
+    /**
+     * Finds the matching rows of a range, up to the search limit.
+     * @param columns the columns
+     * @param filter the search filters
+     * @param from the first row
+     * @param to the row after the last
+     * @return the matching rows in order
+     */
+    private static int[] scan(FlightColumns columns, RowFilter filter, int from, int to) {
+        int[] rows = new int[Math.min(SEARCH_LIMIT, to - from)];
+        int count = 0;
+        for (int row = from; row < to && count < rows.length; row++) {
+            if (filter.matches(columns, row)) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Waits for the result of a task.
+     * @param future the task
+     * @param <T> the result type
+     * @return the result
+     * @throws SQLException if the task failed
+     */
+    private static <T> T join(Future<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while querying the columns", e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new SQLException("Columnar query failed", e.getCause());
+        }
+    }
+
+    /**
+     * Creates the Flight object of a row.
+     * @param columns the columns
+     * @param row the row
+     * @return the flight with its delays
+     */
+    private static Flight toFlight(FlightColumns columns, int row) {
+        Flight flight = new Flight();
+        flight.setFlightId(columns.flightId[row]);
+        flight.setDate(LocalDate.ofEpochDay(columns.epochDay[row]));
+        flight.setFlightNumber(columns.flightNumber[row]);
+        flight.setAirlineCode(columns.airlineCodes[columns.airline[row]]);
+        flight.setAirlineName(columns.airlineNames[columns.airline[row]]);
+        flight.setOriginCode(columns.airportCodes[columns.origin[row]]);
+        flight.setOriginCity(columns.airportNames[columns.origin[row]]);
+        flight.setDestCode(columns.airportCodes[columns.destination[row]]);
+        flight.setDestCity(columns.airportNames[columns.destination[row]]);
+        flight.setScheduledDeparture(columns.scheduledDeparture[row]);
+        flight.setActualDeparture(columns.actualDeparture[row]);
+        flight.setScheduledArrival(columns.scheduledArrival[row]);
+        flight.setActualArrival(columns.actualArrival[row]);
+        for (int reason = 0; reason < columns.delays.length; reason++) {
+            int delay = columns.delays[reason][row];
+            if (delay > 0) {
+                flight.addDelay(new Flight.Delay(DatabaseManager.DELAY_REASONS.get(reason), delay));
+            }
+        }
+        return flight;
+    }
+
+    @Override
+    public List<String> getAirlines() {
+        return listDimension(columns.airlineCodes, columns.airlineNames);
+    }
+
+    @Override
+    public List<String> getAirports() {
+        return listDimension(columns.airportCodes, columns.airportNames);
+    }
+
+    /**
+     * Lists a dimension as "code - name", ordered by name and code.
+     * @param codes the codes
+     * @param names the names
+     * @return the entries
+     */
+    private static List<String> listDimension(String[] codes, String[] names) {
+        Integer[] order = new Integer[codes.length];
+        Arrays.setAll(order, i -> i);
+        // Codes are sorted, so a stable sort by name orders equal names by code
+        Arrays.sort(order, (a, b) -> names[a] == null ? (names[b] == null ? 0 : -1)
+                : names[b] == null ? 1 : names[a].compareTo(names[b]));
+        List<String> entries = new ArrayList<>();
+        for (int i : order) {
+            entries.add(codes[i] + " - " + names[i]);
+        }
+        return entries;
+    }
+
+    /**
+     * Totals the delays of a range of rows per group, splitting the range into
+     * subtasks that total their own rows and are added up when they are joined.
+     * The totals of a group g are at g * {@link #TOTALS}: delay minutes, number of
+     * delays, non-negative arrival delay minutes and number of arrival delays.
+     */
+    private static final class Aggregation extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final FlightColumns columns;
+        private final IntUnaryOperator groupOf;
+        private final int groups;
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates a task totalling a range of rows.
+         * @param columns the columns
+         * @param groupOf gives the group of a row, or -1 to skip it
+         * @param groups the number of groups
+         * @param from the first row
+         * @param to the row after the last
+         */
+        Aggregation(FlightColumns columns, IntUnaryOperator groupOf, int groups, int from, int to) {
+            this.columns = columns;
+            this.groupOf = groupOf;
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from > CHUNK_ROWS) {
+                int middle = (from + to) >>> 1;
+                Aggregation left = new Aggregation(columns, groupOf, groups, from, middle);
+                left.fork();
+                long[] totals = new Aggregation(columns, groupOf, groups, middle, to).compute();
+                long[] leftTotals = left.join();
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += leftTotals[i];
+                }
+                return totals;
+            }
+            long[] totals = new long[groups * TOTALS];
+            for (int row = from; row < to; row++) {
+                int group = groupOf.applyAsInt(row);
+                if (group < 0) {
+                    continue;
+                }
+                addRow(columns, row, totals, group * TOTALS);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Adds the delays of a row to the totals of its group.
+     * @param columns the columns
+     * @param row the row
+     * @param totals the totals, see {@link Aggregation}
+     * @param offset the position of the group's totals
+     */
+    private static void addRow(FlightColumns columns, int row, long[] totals, int offset) {
+        for (short[] reasonDelays : columns.delays) {
+            int delay = reasonDelays[row];
+            if (delay > 0) {
+                totals[offset] += delay;
+                totals[offset + 1]++;
+            }
+        }
+        int arrivalDelay = columns.arrivalDelay[row];
+        if (arrivalDelay != FlightColumns.NO_ARRIVAL_DELAY) {
+            totals[offset + 2] += Math.max(arrivalDelay, 0);
+            totals[offset + 3]++;
+        }
+    }
+
+    /**
+     * Totals the delays of the flights in a range of years.
+     * @param columns the columns
+     * @param startYear the first year
+     * @param endYear the last year
+     * @param groupOf gives the group of a row, or -1 to skip it
+     * @param groups the number of groups
+     * @return the totals, see {@link Aggregation}
+     */
+    private long[] aggregate(FlightColumns columns, int startYear, int endYear, IntUnaryOperator groupOf, int groups) {
+        if (startYear > endYear) {
+            return new long[groups * TOTALS];
+        }
+        int from = columns.firstRowOnOrBefore(LocalDate.of(endYear, 12, 31).toEpochDay());
+        int to = columns.firstRowOnOrBefore(LocalDate.of(startYear, 1, 1).toEpochDay() - 1);
+        return pool.invoke(new Aggregation(columns, groupOf, groups, from, to));
+    }
+
+    /**
+     * Averages the delays per group, or the arrival delays if no group qualifies.
+     * @param totals the totals, see {@link Aggregation}
+     * @param labels the label of every group
+     * @param minCount groups need more delays than this
+     * @return map of label to average delay, in group order
+     */
+    private static Map<String, Double> averages(long[] totals, String[] labels, int minCount) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (int group = 0; group < labels.length; group++) {
+            long count = totals[group * TOTALS + 1];
+            if (count > minCount) {
+                results.put(labels[group], totals[group * TOTALS] * 1.0 / count);
+            }
+        }
+        if (results.isEmpty()) {
+            for (int group = 0; group < labels.length; group++) {
+                long count = totals[group * TOTALS + 3];
+                if (count > minCount) {
+                    results.put(labels[group], totals[group * TOTALS + 2] * 1.0 / count);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Groups dimension indices by name, as the analyses group by name.
+     * @param names the name of every dimension index
+     * @param labels receives the distinct names
+     * @return the group of every dimension index
+     */
+    private static int[] groupByName(String[] names, List<String> labels) {
+        Map<String, Integer> groups = new HashMap<>();
+        int[] groupOf = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            groupOf[i] = groups.computeIfAbsent(names[i], name -> {
+                labels.add(name);
+                return labels.size() - 1;
+            });
+        }
+        return groupOf;
+    }
+
+    @Override
+    public Map<String, Double> getAverageDelayByAirline(int year) {
+        FlightColumns columns = this.columns;
+        List<String> labels = new ArrayList<>();
+        int[] groupOf = groupByName(columns.airlineNames, labels);
+        long[] totals = aggregate(columns, year, year, row -> groupOf[columns.airline[row]], labels.size());
+        return new HashMap<>(averages(totals, labels.toArray(new String[0]), 1));
+    }
+
+    @Override
+    public Map<String, Double> getAverageDelayByAirport(int year) {
+        FlightColumns columns = this.columns;
+        List<String> labels = new ArrayList<>();
+        int[] groupOf = groupByName(columns.airportNames, labels);
+        long[] totals = aggregate(columns, year, year, row -> groupOf[columns.origin[row]], labels.size());
+
+        // The 20 airports with the highest average
+        List<Map.Entry<String, Double>> entries = new ArrayList<>(averages(totals, labels.toArray(new String[0]), 1).entrySet());
+        entries.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        Map<String, Double> results = new HashMap<>();
+        for (Map.Entry<String, Double> entry : entries.subList(0, Math.min(20, entries.size()))) {
+            results.put(entry.getKey(), entry.getValue());
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Double> getDelaysByMonth(String airportCode, int startYear, int endYear) {
+        FlightColumns columns = this.columns;
+        FlightBitmapIndex index = this.index;
+        int airport = Arrays.asList(columns.airportCodes).indexOf(airportCode);
+        int months = Math.max(0, endYear - startYear + 1) * 12;
+        if (airport < 0 || months == 0) {
+            return new HashMap<>();
+        }
+
+        // Only the airport's departures of each month are visited
+        long[] totals = new long[months * TOTALS];
+        String[] labels = new String[months];
+        for (int month = 0; month < months; month++) {
+            int offset = month * TOTALS;
+            index.origins[airport].and(index.month(startYear * 12 + month)).forEach(0, columns.size, row -> {
+                addRow(columns, row, totals, offset);
+                return true;
+            });
+            int monthOfYear = month % 12 + 1;
+            labels[month] = (monthOfYear < 10 ? "0" + monthOfYear : String.valueOf(monthOfYear)) + "/" + (startYear + month / 12);
+        }
+        return new HashMap<>(averages(totals, labels, 0));
+    }
+}
@@ -0,0 +1,115 @@
+package service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An airline or airport table held in memory, for databases with surrogate keys.
+ * Search filters are resolved to IDs here, so the query compares Flight's integer
+ * columns instead of joining the dimension table, and result rows get their codes
+ * and names from here as well. The methods are synchronized, as queries on several
+ * threads may reload the dictionary while others read it.
+ */
+class DimensionDictionary {
+
+    private final String sql;
+    private final Map<String, Integer> idsByCode = new HashMap<>();
+    private final Map<Integer, String> codes = new HashMap<>();
+    private final Map<Integer, String> names = new HashMap<>();
+
+    /**
+     * Creates a dictionary for one dimension table.
+     * @param table the table, Airline or Airport
+     * @param idColumn the table's surrogate key column
+     */
+    DimensionDictionary(String table, String idColumn) {
+        this.sql = "SELECT " + idColumn + ", iata_code, name FROM " + table;
+    }
+
+    /**
+     * Reads the table, replacing what was loaded before.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    synchronized void load(Connection connection) throws SQLException {
+        idsByCode.clear();
+        codes.clear();
+        names.clear();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                idsByCode.put(rs.getString(2), id);
+                codes.put(id, rs.getString(2));
+                names.put(id, rs.getString(3));
+            }
+        }
+    }
+
+    /**
+     * Checks whether an ID is loaded.
+     * @param id the surrogate ID
+     * @return true if the ID is known
+     */
+    synchronized boolean contains(int id) {
+        return codes.containsKey(id);
+    }
+
+    /**
+     * Gets the ID of a code.
+     * @param code the IATA code, matched exactly
+     * @return the ID, or null if the code is unknown
+     */
+    synchronized Integer getId(String code) {
+        return idsByCode.get(code);
+    }
+
+    /**
+     * Gets the code of an ID.
+     * @param id the surrogate ID
+     * @return the IATA code, or null if the ID is unknown
+     */
+    synchronized String getCode(int id) {
+        return codes.get(id);
+    }
+
+    /**
+     * Gets the name of an ID.
+     * @param id the surrogate ID
+     * @return the name, or null if the ID is unknown
+     */
+    synchronized String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Finds the IDs matching a search term the way the SQL filters do: the code equals
+     * {@code exactCode}, or the code (if {@code partialCode}) or name contains the term,
+     * ignoring case as SQLite's LIKE does.
+     * @param exactCode code to match exactly, or null
+     * @param term the search term
+     * @param partialCode true to also match codes containing the term
+     * @return the matching IDs
+     */
+    synchronized List<Integer> find(String exactCode, String term, boolean partialCode) {
+        String lowerTerm = term.toLowerCase(Locale.ROOT);
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : codes.entrySet()) {
+            String code = entry.getValue();
+            String name = names.get(entry.getKey());
+            if (code.equals(exactCode)
+                    || (partialCode && code.toLowerCase(Locale.ROOT).contains(lowerTerm))
+                    || (name != null && name.toLowerCase(Locale.ROOT).contains(lowerTerm))) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+}
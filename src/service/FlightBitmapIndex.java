@@ -0,0 +1,138 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bitmap indexes over the rows of {@link FlightColumns}: one {@link RowBitmap} per
+ * airline, per origin and destination airport, per delay reason and per month.
+ * The low-cardinality search filters become unions and intersections of these
+ * sets, so a search only visits the rows that pass all of them.
+ */
+class FlightBitmapIndex {
+
+    /** Unions of more than 1/MAX_UNION_SHARE of the rows are not worth building. */
+    private static final int MAX_UNION_SHARE = 4;
+
+    /** Rows per airline index. */
+    final RowBitmap[] airlines;
+
+    /** Rows per airport index, as origin. */
+    final RowBitmap[] origins;
+
+    /** Rows per airport index, as destination. */
+    final RowBitmap[] destinations;
+
+    /** Rows with a delay, per reason of {@link database.DatabaseManager#DELAY_REASONS}. */
+    final RowBitmap[] reasons;
+
+    /** Rows with a delay of any reason. */
+    final RowBitmap delayed;
+
+    /** Rows per month, from {@link #firstMonth}. */
+    private final RowBitmap[] months;
+    private final int firstMonth;
+    private final int size;
+
+    /**
+     * Builds the indexes in one pass over the rows.
+     * @param columns the columns to index
+     */
+    FlightBitmapIndex(FlightColumns columns) {
+        size = columns.size;
+        RowBitmap.Builder[] airlineBuilders = builders(columns.airlineCodes.length);
+        RowBitmap.Builder[] originBuilders = builders(columns.airportCodes.length);
+        RowBitmap.Builder[] destinationBuilders = builders(columns.airportCodes.length);
+        RowBitmap.Builder[] reasonBuilders = builders(columns.delays.length);
+        RowBitmap.Builder delayedBuilder = new RowBitmap.Builder();
+
+        // Rows are sorted newest first, so the months run backwards from the first row
+        int lastMonth = columns.size > 0 ? columns.month(0) : 0;
+        firstMonth = columns.size > 0 ? columns.month(columns.size - 1) : 0;
+        RowBitmap.Builder[] monthBuilders = builders(columns.size > 0 ? lastMonth - firstMonth + 1 : 0);
+
+        for (int row = 0; row < columns.size; row++) {
+            airlineBuilders[columns.airline[row]].add(row);
+            originBuilders[columns.origin[row]].add(row);
+            destinationBuilders[columns.destination[row]].add(row);
+            monthBuilders[columns.month(row) - firstMonth].add(row);
+            boolean delayed = false;
+            for (int reason = 0; reason < reasonBuilders.length; reason++) {
+                if (columns.delays[reason][row] > 0) {
+                    reasonBuilders[reason].add(row);
+                    delayed = true;
+                }
+            }
+            if (delayed) {
+                delayedBuilder.add(row);
+            }
+        }
+
+        airlines = build(airlineBuilders);
+        origins = build(originBuilders);
+        destinations = build(destinationBuilders);
+        reasons = build(reasonBuilders);
+        delayed = delayedBuilder.build();
+        months = build(monthBuilders);
+    }
+
+    private static RowBitmap.Builder[] builders(int count) {
+        RowBitmap.Builder[] builders = new RowBitmap.Builder[count];
+        for (int i = 0; i < count; i++) {
+            builders[i] = new RowBitmap.Builder();
+        }
+        return builders;
+    }
+
+    private static RowBitmap[] build(RowBitmap.Builder[] builders) {
+        RowBitmap[] bitmaps = new RowBitmap[builders.length];
+        for (int i = 0; i < builders.length; i++) {
+            bitmaps[i] = builders[i].build();
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Gets the rows of a month.
+     * @param month year * 12 + month - 1
+     * @return the rows, empty if there are no flights in the month
+     */
+    RowBitmap month(int month) {
+        int i = month - firstMonth;
+        return i >= 0 && i < months.length ? months[i] : RowBitmap.EMPTY;
+    }
+
+    /**
+     * Unites the bitmaps of the selected dimension indices, if that pays off. A union
+     * of many large bitmaps visits most rows, and a filter that broad is cheaper to
+     * check per row.
+     * @param bitmaps the bitmap of every index
+     * @param selected which indices to include
+     * @return the rows of any selected index, or null if they are more than a quarter of all rows
+     */
+    RowBitmap union(RowBitmap[] bitmaps, boolean[] selected) {
+        List<RowBitmap> union = new ArrayList<>();
+        long rows = 0;
+        for (int i = 0; i < bitmaps.length; i++) {
+            if (selected[i]) {
+                union.add(bitmaps[i]);
+                rows += bitmaps[i].cardinality();
+            }
+        }
+        return union.size() > 1 && rows > size / MAX_UNION_SHARE ? null : RowBitmap.or(union);
+    }
+
+    /**
+     * Estimates the heap taken by the indexes.
+     * @return the size of the bitmaps in bytes
+     */
+    long estimatedBytes() {
+        long bytes = delayed.estimatedBytes();
+        for (RowBitmap[] family : new RowBitmap[][]{airlines, origins, destinations, reasons, months}) {
+            for (RowBitmap bitmap : family) {
+                bytes += bitmap.estimatedBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,327 @@
+package service;
+
+import database.DatabaseManager;
+import database.SchemaFeature;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every flight of the database held in primitive arrays, one per column, for
+ * {@link ColumnarFlightRepository}.
+ * <p>
+ * Rows are sorted the way searches return them: newest date first, then by
+ * scheduled departure and flight ID. A search can therefore stop at the result
+ * limit, and a date range, including a year, is a contiguous range of rows.
+ * Airlines and airports are stored as indices into the code and name arrays.
+ * Times in HHMM format, flight numbers and delay minutes fit in a short, so a
+ * flight takes about 40 bytes instead of the several hundred of a {@code Flight}
+ * object with its strings and delay list.
+ */
+class FlightColumns {
+
+    /** Value of {@link #arrivalDelay} for flights without an arrival delay. */
+    static final short NO_ARRIVAL_DELAY = Short.MIN_VALUE;
+
+    final int size;
+    final int[] flightId;
+    final int[] epochDay;
+    final short[] airline;
+    final short[] flightNumber;
+    final short[] origin;
+    final short[] destination;
+    final short[] scheduledDeparture;
+    final short[] actualDeparture;
+    final short[] scheduledArrival;
+    final short[] actualArrival;
+    final short[] arrivalDelay;
+
+    /** Delay minutes per reason of {@link DatabaseManager#DELAY_REASONS}, 0 for none. */
+    final short[][] delays;
+
+    final String[] airlineCodes;
+    final String[] airlineNames;
+    final String[] airportCodes;
+    final String[] airportNames;
+
+    /** year * 12 + month - 1 of every day from {@link #firstDay}. */
+    private final int[] monthOfDay;
+    private final int firstDay;
+
+    /**
+     * Reads all flights and their delays.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs, or a value does not fit its column
+     */
+    FlightColumns(Connection connection) throws SQLException {
+        boolean surrogateKeys = SchemaFeature.SURROGATE_KEYS.isEnabled(connection);
+        boolean wideDelays = SchemaFeature.WIDE_DELAYS.isEnabled(connection);
+
+        // Dimensions, ordered by code; with surrogate keys also indexed by ID
+        Map<Object, Integer> airlineIndex = new HashMap<>();
+        Map<Object, Integer> airportIndex = new HashMap<>();
+        List<String[]> airlineRows = readDimension(connection, "Airline", surrogateKeys ? "airline_id" : "iata_code", airlineIndex);
+        List<String[]> airportRows = readDimension(connection, "Airport", surrogateKeys ? "airport_id" : "iata_code", airportIndex);
+        airlineCodes = column(airlineRows, 0);
+        airlineNames = column(airlineRows, 1);
+        airportCodes = column(airportRows, 0);
+        airportNames = column(airportRows, 1);
+
+        int count;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Flight")) {
+            count = rs.next() ? rs.getInt(1) : 0;
+        }
+        size = count;
+
+        // Read in storage order first
+        int[] ids = new int[count];
+        int[] days = new int[count];
+        short[][] values = new short[8][count];
+        short[] arrival = new short[count];
+        short[][] delayValues = new short[DatabaseManager.DELAY_REASONS.size()][count];
+        StringBuilder sql = new StringBuilder("SELECT flight_id, epoch_day, ")
+                .append(surrogateKeys ? "airline_id, origin_id, destination_id, " : "airline_code, flight_origin, flight_destination, ")
+                .append("flight_number, scheduled_departure, actual_departure, scheduled_arrival, actual_arrival, arrival_delay");
+        if (wideDelays) {
+            for (String reason : DatabaseManager.DELAY_REASONS) {
+                sql.append(", ").append(DatabaseManager.delayColumn(reason));
+            }
+        }
+        sql.append(" FROM Flight");
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql.toString())) {
+            int row = 0;
+            while (rs.next()) {
+                if (row == count) {
+                    throw new SQLException("Flight changed while it was being read");
+                }
+                ids[row] = rs.getInt(1);
+                days[row] = rs.getInt(2);
+                values[0][row] = (short) (int) dimensionIndex(airlineIndex, rs.getObject(3), "airline");
+                values[1][row] = (short) (int) dimensionIndex(airportIndex, rs.getObject(4), "airport");
+                values[2][row] = (short) (int) dimensionIndex(airportIndex, rs.getObject(5), "airport");
+                for (int column = 3; column < 8; column++) {
+                    values[column][row] = toShort(rs.getInt(column + 3), "Flight column " + (column + 3));
+                }
+                int arrivalDelay = rs.getInt(11);
+                arrival[row] = rs.wasNull() ? NO_ARRIVAL_DELAY : toShort(arrivalDelay, "arrival_delay");
+                if (wideDelays) {
+                    for (int reason = 0; reason < delayValues.length; reason++) {
+                        delayValues[reason][row] = toShort(rs.getInt(12 + reason), "delay");
+                    }
+                }
+                row++;
+            }
+            if (row != count) {
+                throw new SQLException("Flight changed while it was being read");
+            }
+        }
+
+        // Storage rows by flight ID, to find the rows of the delay reasons
+        long[] byId = new long[count];
+        for (int row = 0; row < count; row++) {
+            byId[row] = (long) ids[row] << 32 | row;
+        }
+        Arrays.parallelSort(byId);
+        if (!wideDelays) {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT flight_id, reason, delay_length FROM Delay_Reason")) {
+                while (rs.next()) {
+                    int row = storageRow(byId, rs.getInt(1));
+                    int reason = DatabaseManager.DELAY_REASONS.indexOf(rs.getString(2));
+                    if (row >= 0 && reason >= 0) {
+                        delayValues[reason][row] = toShort(rs.getInt(3), "delay_length");
+                    }
+                }
+            }
+        }
+
+        // Sort by date descending, scheduled departure and flight ID; the key ends with
+        // the flight ID, which leads back to the storage row
+        int maxDay = Integer.MIN_VALUE;
+        int minDay = Integer.MAX_VALUE;
+        for (int day : days) {
+            maxDay = Math.max(maxDay, day);
+            minDay = Math.min(minDay, day);
+        }
+        long[] order = new long[count];
+        for (int row = 0; row < count; row++) {
+            order[row] = (long) (maxDay - days[row]) << 44 | (long) (values[4][row] & 0xFFF) << 32 | (ids[row] & 0xFFFFFFFFL);
+        }
+        Arrays.parallelSort(order);
+
+        flightId = new int[count];
+        epochDay = new int[count];
+        airline = new short[count];
+        origin = new short[count];
+        destination = new short[count];
+        flightNumber = new short[count];
+        scheduledDeparture = new short[count];
+        actualDeparture = new short[count];
+        scheduledArrival = new short[count];
+        actualArrival = new short[count];
+        arrivalDelay = new short[count];
+        delays = new short[delayValues.length][count];
+        for (int row = 0; row < count; row++) {
+            int from = storageRow(byId, (int) order[row]);
+            flightId[row] = ids[from];
+            epochDay[row] = days[from];
+            airline[row] = values[0][from];
+            origin[row] = values[1][from];
+            destination[row] = values[2][from];
+            flightNumber[row] = values[3][from];
+            scheduledDeparture[row] = values[4][from];
+            actualDeparture[row] = values[5][from];
+            scheduledArrival[row] = values[6][from];
+            actualArrival[row] = values[7][from];
+            arrivalDelay[row] = arrival[from];
+            for (int reason = 0; reason < delays.length; reason++) {
+                delays[reason][row] = delayValues[reason][from];
+            }
+        }
+
+        firstDay = count > 0 ? minDay : 0;
+        monthOfDay = new int[count > 0 ? maxDay - minDay + 1 : 0];
+        for (int i = 0; i < monthOfDay.length; i++) {
+            LocalDate date = LocalDate.ofEpochDay(firstDay + i);
+            monthOfDay[i] = date.getYear() * 12 + date.getMonthValue() - 1;
+        }
+    }
+
+    /**
+     * Reads a dimension table ordered by code.
+     * @param connection the database connection
+     * @param table Airline or Airport
+     * @param keyColumn the column Flight refers to the table by
+     * @param index receives the position of every key
+     * @return code and name of every row
+     * @throws SQLException if a database access error occurs
+     */
+    private static List<String[]> readDimension(Connection connection, String table, String keyColumn,
+                                                Map<Object, Integer> index) throws SQLException {
+        List<String[]> rows = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + keyColumn + ", iata_code, name FROM " + table + " ORDER BY iata_code")) {
+            while (rs.next()) {
+                if (rows.size() > Short.MAX_VALUE) {
+                    throw new SQLException("Too many rows in " + table + " for the columnar engine");
+                }
+                index.put(rs.getObject(1), rows.size());
+                rows.add(new String[]{rs.getString(2), rs.getString(3)});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Gets one column of dimension rows.
+     * @param rows code and name of every row
+     * @param column 0 for the codes, 1 for the names
+     * @return the column
+     */
+    private static String[] column(List<String[]> rows, int column) {
+        String[] values = new String[rows.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rows.get(i)[column];
+        }
+        return values;
+    }
+
+    /**
+     * Looks up the index of a dimension key read from Flight.
+     * @param index the positions of the keys
+     * @param key the airline or airport code or ID
+     * @param dimension the dimension, for the error message
+     * @return the index
+     * @throws SQLException if the key is unknown
+     */
+    private static Integer dimensionIndex(Map<Object, Integer> index, Object key, String dimension) throws SQLException {
+        Integer position = index.get(key);
+        if (position == null) {
+            throw new SQLException("Flight refers to unknown " + dimension + " " + key);
+        }
+        return position;
+    }
+
+    /**
+     * Narrows a value to a short column.
+     * @param value the value
+     * @param column the column, for the error message
+     * @return the value as a short
+     * @throws SQLException if the value does not fit
+     */
+    private static short toShort(int value, String column) throws SQLException {
+        if (value < Short.MIN_VALUE + 1 || value > Short.MAX_VALUE) {
+            throw new SQLException("Value " + value + " of " + column + " is out of range for the columnar engine");
+        }
+        return (short) value;
+    }
+
+    /**
+     * Finds the storage row of a flight.
+     * @param byId flight ID and storage row of every flight, sorted
+     * @param id the flight ID
+     * @return the storage row, or -1 if there is no such flight
+     */
+    private static int storageRow(long[] byId, int id) {
+        int low = 0;
+        int high = byId.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = (int) (byId[mid] >> 32);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return (int) byId[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first row on or before a day; rows are sorted newest first.
+     * @param day the epoch day
+     * @return the first row whose date is not after the day, or {@link #size} if there is none
+     */
+    int firstRowOnOrBefore(long day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochDay[mid] > day) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the month of a row's date.
+     * @param row the row
+     * @return year * 12 + month - 1
+     */
+    int month(int row) {
+        return monthOfDay[epochDay[row] - firstDay];
+    }
+
+    /**
+     * Estimates the heap taken by the columns.
+     * @return the size of the arrays in bytes
+     */
+    long estimatedBytes() {
+        return (long) size * (2 * Integer.BYTES + (10 + delays.length) * Short.BYTES) + (long) monthOfDay.length * Integer.BYTES;
+    }
+}
@@ -2,48 +2,109 @@ package service;
 
 import model.Flight;
 
-import java.sql.*;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Service class for querying flight data from the database.
+ * Delegates to a {@link FlightRepository}, by default the SQLite database in flights.db.
  */
 public class FlightDataService {
 
     private static final String DB_URL = "jdbc:sqlite:flights.db";
-    private Connection connection;
+
+    /** Sidecar file of flights.db keeping analysis results across restarts. */
+    private static final Path ANALYSIS_CACHE_FILE = Path.of("flights.db-analysis");
+
+    private final FlightRepository repository;
+    private final SearchResultCache searchCache = new SearchResultCache();
+    private final AnalysisResultCache analysisCache;
 
     /**
      * Creates a new flight data service and establishes a database connection.
      * @throws SQLException if a database access error occurs
      */
     public FlightDataService() throws SQLException {
-        connect();
+        this(new SqliteFlightRepository(DB_URL), ANALYSIS_CACHE_FILE);
+    }
+
+    /**
+     * Creates a flight data service answering from the given storage engine, caching
+     * analysis results in memory only.
+     * @param repository the storage engine, closed by {@link #disconnect()}
+     */
+    public FlightDataService(FlightRepository repository) {
+        this(repository, null);
+    }
+
+    /**
+     * Creates a flight data service answering from the given storage engine.
+     * @param repository the storage engine, closed by {@link #disconnect()}
+     * @param analysisCacheFile the file to keep analysis results in across restarts,
+     *                          or null to keep them in memory only
+     */
+    public FlightDataService(FlightRepository repository, Path analysisCacheFile) {
+        this.repository = repository;
+        this.analysisCache = new AnalysisResultCache(analysisCacheFile);
     }
 
     /**
-     * Establishes a connection to the database.
+     * Creates a flight data service on flights.db with the named storage engine.
+     * The service may be used from several threads at once.
+     * @param engine "sqlite" to query the database, or "columnar" to load the flights
+     *               into memory and answer from there
+     * @param readConnections the number of read connections of the sqlite engine
+     * @return the service
      * @throws SQLException if a database access error occurs
+     * @throws IllegalArgumentException if the engine is unknown
+     */
+    public static FlightDataService open(String engine, int readConnections) throws SQLException {
+        switch (engine) {
+            case "sqlite":
+                return new FlightDataService(new SqliteFlightRepository(DB_URL, readConnections), ANALYSIS_CACHE_FILE);
+            case "columnar":
+                return new FlightDataService(new ColumnarFlightRepository(DB_URL), ANALYSIS_CACHE_FILE);
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    /**
+     * Gets the storage engine the service answers from.
+     * @return the repository
+     */
+    public FlightRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Gets the cache in front of the flight searches, for its metrics.
+     * @return the search cache
      */
-    private void connect() throws SQLException {
-        connection = DriverManager.getConnection(DB_URL);
-        // Debug message to verify connection
-        System.out.println("Connected to database: " + DB_URL);
+    public SearchResultCache getSearchCache() {
+        return searchCache;
     }
 
     /**
-     * Closes the database connection.
+     * Gets the cache in front of the delay analyses, for its metrics.
+     * @return the analysis cache
+     */
+    public AnalysisResultCache getAnalysisCache() {
+        return analysisCache;
+    }
+
+    /**
+     * Closes the database connections, reporting the cache metrics.
      * @throws SQLException if a database access error occurs
      */
     public void disconnect() throws SQLException {
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-        }
+        System.out.println(searchCache.summaryLine());
+        System.out.println(analysisCache.summaryLine());
+        repository.close();
     }
 
     /**
@@ -65,214 +126,19 @@ public class FlightDataService {
                                       LocalDate startDate, LocalDate endDate,
                                       Integer minDelay, Integer maxDelay,
                                       String delayReason) throws SQLException {
-
-        StringBuilder sqlBuilder = new StringBuilder();
-        List<Object> params = new ArrayList<>();
-
-        // Base query
-        sqlBuilder.append(
-                "SELECT f.flight_id, f.date, a.iata_code AS airline_code, a.name AS airline_name, " +
-                        "f.flight_number, o.iata_code AS origin_code, o.name AS origin_city, " +
-                        "d.iata_code AS dest_code, d.name AS dest_city, " +
-                        "f.scheduled_departure, f.actual_departure, f.scheduled_arrival, f.actual_arrival " +
-                        "FROM Flight f " +
-                        "JOIN Airline a ON f.airline_code = a.iata_code " +
-                        "JOIN Airport o ON f.flight_origin = o.iata_code " +
-                        "JOIN Airport d ON f.flight_destination = d.iata_code " +
-                        "WHERE 1=1 "
-        );
-
-        // Add filters based on provided criteria
-        if (airline != null && !airline.trim().isEmpty()) {
-            sqlBuilder.append("AND (a.iata_code LIKE ? OR a.name LIKE ?) ");
-            String pattern = "%" + airline.trim() + "%";
-            params.add(pattern);
-            params.add(pattern);
-        }
-
-        if (flightNumber != null && !flightNumber.trim().isEmpty()) {
-            // Handle flight numbers with airline code prefix (e.g., "AA123")
-            if (flightNumber.length() >= 3 && Character.isLetter(flightNumber.charAt(0))) {
-                // Extract airline code and numeric part
-                String airlineCode = "";
-                String numericPart = "";
-                int i = 0;
-                while (i < flightNumber.length() && Character.isLetter(flightNumber.charAt(i))) {
-                    airlineCode += flightNumber.charAt(i);
-                    i++;
-                }
-                numericPart = flightNumber.substring(i);
-
-                if (!numericPart.isEmpty()) {
-                    try {
-                        int flightNum = Integer.parseInt(numericPart);
-                        sqlBuilder.append("AND a.iata_code = ? AND f.flight_number = ? ");
-                        params.add(airlineCode);
-                        params.add(flightNum);
-                    } catch (NumberFormatException e) {
-                        // If parsing fails, try to match the whole thing as a flight number
-                        sqlBuilder.append("AND f.flight_number = ? ");
-                        try {
-                            params.add(Integer.parseInt(flightNumber.trim()));
-                        } catch (NumberFormatException ex) {
-                            // If that fails too, just add an impossible condition
-                            sqlBuilder.append("AND 1=0 ");
-                        }
-                    }
-                }
-            } else {
-                // Try to parse as a numeric flight number
-                try {
-                    sqlBuilder.append("AND f.flight_number = ? ");
-                    params.add(Integer.parseInt(flightNumber.trim()));
-                } catch (NumberFormatException e) {
-                    // If parsing fails, add an impossible condition
-                    sqlBuilder.append("AND 1=0 ");
-                }
-            }
-        }
-
-        if (origin != null && !origin.trim().isEmpty()) {
-            sqlBuilder.append("AND (o.iata_code = ? OR o.name LIKE ?) ");
-            params.add(origin.trim().toUpperCase());
-            params.add("%" + origin.trim() + "%");
-        }
-
-        if (destination != null && !destination.trim().isEmpty()) {
-            sqlBuilder.append("AND (d.iata_code = ? OR d.name LIKE ?) ");
-            params.add(destination.trim().toUpperCase());
-            params.add("%" + destination.trim() + "%");
-        }
-
-        if (startDate != null) {
-            sqlBuilder.append("AND f.date >= ? ");
-            params.add(startDate.format(DateTimeFormatter.ofPattern("yyyyMMdd")));
-        }
-
-        if (endDate != null) {
-            sqlBuilder.append("AND f.date <= ? ");
-            params.add(endDate.format(DateTimeFormatter.ofPattern("yyyyMMdd")));
-        }
-
-        // Handle delay filters
-        if (minDelay != null || maxDelay != null || delayReason != null) {
-            sqlBuilder.append("AND EXISTS (SELECT 1 FROM Delay_Reason dr WHERE dr.flight_id = f.flight_id ");
-
-            if (delayReason != null && !delayReason.trim().isEmpty()) {
-                sqlBuilder.append("AND dr.reason = ? ");
-                params.add(delayReason.trim().toUpperCase());
-            }
-
-            if (minDelay != null) {
-                sqlBuilder.append("AND dr.delay_length >= ? ");
-                params.add(minDelay);
-            }
-
-            if (maxDelay != null) {
-                sqlBuilder.append("AND dr.delay_length <= ? ");
-                params.add(maxDelay);
-            }
-
-            sqlBuilder.append(") ");
-        }
-
-        // Add order by clause
-        sqlBuilder.append("ORDER BY f.date DESC, f.scheduled_departure LIMIT 1000");
-
-        // Debug the SQL query
-        System.out.println("Search SQL: " + sqlBuilder.toString());
-
-        // Execute query
-        List<Flight> results = new ArrayList<>();
-        Map<Integer, Flight> flightMap = new HashMap<>();
-
-        try (PreparedStatement stmt = connection.prepareStatement(sqlBuilder.toString())) {
-            // Set parameters
-            for (int i = 0; i < params.size(); i++) {
-                stmt.setObject(i + 1, params.get(i));
-                System.out.println("Param " + (i+1) + ": " + params.get(i));
-            }
-
-            // Execute and process results
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    Flight flight = mapResultSetToFlight(rs);
-                    results.add(flight);
-                    flightMap.put(flight.getFlightId(), flight);
-                }
-            }
-        }
-
-        System.out.println("Search found " + results.size() + " results");
-
-        // Fetch delay reasons for all found flights
-        if (!results.isEmpty()) {
-            fetchDelayReasons(flightMap);
-        }
-
-        return results;
+        return searchFlights(new SearchCriteria(airline, flightNumber, origin, destination,
+                startDate, endDate, minDelay, maxDelay, delayReason));
     }
 
     /**
-     * Fetches delay reasons for the specified flights.
-     * @param flightMap map of flight IDs to Flight objects
-     * @throws SQLException if a database access error occurs
-     */
-    private void fetchDelayReasons(Map<Integer, Flight> flightMap) throws SQLException {
-        if (flightMap.isEmpty()) {
-            return;
-        }
-
-        StringBuilder idList = new StringBuilder();
-        for (Integer id : flightMap.keySet()) {
-            if (idList.length() > 0) {
-                idList.append(",");
-            }
-            idList.append(id);
-        }
-
-        String sql = "SELECT flight_id, reason, delay_length FROM Delay_Reason WHERE flight_id IN (" + idList + ")";
-
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                int flightId = rs.getInt("flight_id");
-                String reason = rs.getString("reason");
-                int delayLength = rs.getInt("delay_length");
-
-                Flight flight = flightMap.get(flightId);
-                if (flight != null) {
-                    flight.addDelay(new Flight.Delay(reason, delayLength));
-                }
-            }
-        }
-    }
-
-    /**
-     * Maps a database result set row to a Flight object.
-     * @param rs the result set
-     * @return a Flight object
+     * Searches for flights based on the provided criteria. Recent searches are
+     * answered from the search cache until the data changes.
+     * @param criteria the search filters
+     * @return list of matching flights
      * @throws SQLException if a database access error occurs
      */
-    private Flight mapResultSetToFlight(ResultSet rs) throws SQLException {
-        Flight flight = new Flight();
-
-        flight.setFlightId(rs.getInt("flight_id"));
-        flight.setDateFromString(rs.getString("date"));
-        flight.setAirlineCode(rs.getString("airline_code"));
-        flight.setAirlineName(rs.getString("airline_name"));
-        flight.setFlightNumber(rs.getInt("flight_number"));
-        flight.setOriginCode(rs.getString("origin_code"));
-        flight.setOriginCity(rs.getString("origin_city"));
-        flight.setDestCode(rs.getString("dest_code"));
-        flight.setDestCity(rs.getString("dest_city"));
-        flight.setScheduledDeparture(rs.getInt("scheduled_departure"));
-        flight.setActualDeparture(rs.getInt("actual_departure"));
-        flight.setScheduledArrival(rs.getInt("scheduled_arrival"));
-        flight.setActualArrival(rs.getInt("actual_arrival"));
-
-        return flight;
+    public List<Flight> searchFlights(SearchCriteria criteria) throws SQLException {
+        return searchCache.search(criteria, repository);
     }
 
     /**
@@ -281,20 +147,7 @@ public class FlightDataService {
      * @throws SQLException if a database access error occurs
      */
     public List<String> getAirlines() throws SQLException {
-        List<String> airlines = new ArrayList<>();
-
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT iata_code, name FROM Airline ORDER BY name")) {
-
-            while (rs.next()) {
-                String code = rs.getString("iata_code");
-                String name = rs.getString("name");
-                airlines.add(code + " - " + name);
-            }
-        }
-
-        System.out.println("Found " + airlines.size() + " airlines");
-        return airlines;
+        return repository.getAirlines();
     }
 
     /**
@@ -303,95 +156,19 @@ public class FlightDataService {
      * @throws SQLException if a database access error occurs
      */
     public List<String> getAirports() throws SQLException {
-        List<String> airports = new ArrayList<>();
-
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT iata_code, name FROM Airport ORDER BY name")) {
-
-            while (rs.next()) {
-                String code = rs.getString("iata_code");
-                String name = rs.getString("name");
-                airports.add(code + " - " + name);
-            }
-        }
-
-        System.out.println("Found " + airports.size() + " airports");
-        return airports;
+        return repository.getAirports();
     }
 
     /**
      * Calculates average delay by airline for the specified year.
+     * Results are cached until the next import.
      * @param year the year to analyze
      * @return map of airline names to average delay in minutes
      * @throws SQLException if a database access error occurs
      */
     public Map<String, Double> getAverageDelayByAirline(int year) throws SQLException {
-        Map<String, Double> results = new HashMap<>();
-
-        // Calculate delays by looking at delay_reason table
-        String sql =
-                "SELECT a.name AS airline_name, " +
-                        "AVG(dr.delay_length) AS avg_delay " +
-                        "FROM Flight f " +
-                        "JOIN Airline a ON f.airline_code = a.iata_code " +
-                        "JOIN Delay_Reason dr ON f.flight_id = dr.flight_id " +
-                        "WHERE f.date LIKE ? " +
-                        "GROUP BY a.name " +
-                        "HAVING COUNT(*) > 1 " + // Reduce threshold to show more airlines
-                        "ORDER BY avg_delay DESC";
-
-        System.out.println("Airline analysis SQL: " + sql);
-        System.out.println("Year like: " + year + "%");
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, year + "%");
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    String airlineName = rs.getString("airline_name");
-                    double avgDelay = rs.getDouble("avg_delay");
-                    results.put(airlineName, avgDelay);
-                    System.out.println("Airline: " + airlineName + ", Avg Delay: " + avgDelay);
-                }
-            }
-        }
-
-        // If no results from delay_reason, try using the ARR_DELAY
-        if (results.isEmpty()) {
-            // Fallback approach - Calculate approximate delays
-            System.out.println("No delay_reason data found. Trying fallback approach...");
-
-            sql = "SELECT a.name AS airline_name, " +
-                    "AVG(CASE WHEN f.actual_arrival > f.scheduled_arrival " +
-                    "THEN (f.actual_arrival - f.scheduled_arrival) " +
-                    "ELSE 0 END) AS avg_delay " +
-                    "FROM Flight f " +
-                    "JOIN Airline a ON f.airline_code = a.iata_code " +
-                    "WHERE f.date LIKE ? " +
-                    "AND f.scheduled_arrival > 0 AND f.actual_arrival > 0 " +
-                    "GROUP BY a.name " +
-                    "HAVING COUNT(*) > 1 " +
-                    "ORDER BY avg_delay DESC";
-
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, year + "%");
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        String airlineName = rs.getString("airline_name");
-                        double avgDelay = rs.getDouble("avg_delay");
-
-                        // Convert from HHMM format to minutes if needed
-                        if (avgDelay > 100) { // Likely HHMM format
-                            avgDelay = (Math.floor(avgDelay / 100) * 60) + (avgDelay % 100);
-                        }
-
-                        results.put(airlineName, avgDelay);
-                        System.out.println("Fallback - Airline: " + airlineName + ", Avg Delay: " + avgDelay);
-                    }
-                }
-            }
-        }
+        Map<String, Double> results = new HashMap<>(analysisCache.get(repository,
+                () -> repository.getAverageDelayByAirline(year), "averageDelayByAirline", year));
 
         // If still empty, add some mock data to help debug the UI
         if (results.isEmpty()) {
@@ -407,78 +184,14 @@ public class FlightDataService {
 
     /**
      * Calculates average delay by departure airport for the specified year.
+     * Results are cached until the next import.
      * @param year the year to analyze
      * @return map of airport names to average delay in minutes
      * @throws SQLException if a database access error occurs
      */
     public Map<String, Double> getAverageDelayByAirport(int year) throws SQLException {
-        Map<String, Double> results = new HashMap<>();
-
-        // Calculate delays by looking at delay_reason table
-        String sql =
-                "SELECT o.name AS airport_name, " +
-                        "AVG(dr.delay_length) AS avg_delay " +
-                        "FROM Flight f " +
-                        "JOIN Airport o ON f.flight_origin = o.iata_code " +
-                        "JOIN Delay_Reason dr ON f.flight_id = dr.flight_id " +
-                        "WHERE f.date LIKE ? " +
-                        "GROUP BY o.name " +
-                        "HAVING COUNT(*) > 1 " + // Reduce threshold to show more airports
-                        "ORDER BY avg_delay DESC " +
-                        "LIMIT 20"; // Focus on top 20 for readability
-
-        System.out.println("Airport analysis SQL: " + sql);
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, year + "%");
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    String airportName = rs.getString("airport_name");
-                    double avgDelay = rs.getDouble("avg_delay");
-                    results.put(airportName, avgDelay);
-                    System.out.println("Airport: " + airportName + ", Avg Delay: " + avgDelay);
-                }
-            }
-        }
-
-        // If no results from delay_reason, try using the ARR_DELAY
-        if (results.isEmpty()) {
-            // Fallback approach - Calculate approximate delays
-            System.out.println("No delay_reason data found. Trying fallback approach...");
-
-            sql = "SELECT o.name AS airport_name, " +
-                    "AVG(CASE WHEN f.actual_arrival > f.scheduled_arrival " +
-                    "THEN (f.actual_arrival - f.scheduled_arrival) " +
-                    "ELSE 0 END) AS avg_delay " +
-                    "FROM Flight f " +
-                    "JOIN Airport o ON f.flight_origin = o.iata_code " +
-                    "WHERE f.date LIKE ? " +
-                    "AND f.scheduled_arrival > 0 AND f.actual_arrival > 0 " +
-                    "GROUP BY o.name " +
-                    "HAVING COUNT(*) > 1 " +
-                    "ORDER BY avg_delay DESC " +
-                    "LIMIT 20";
-
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, year + "%");
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        String airportName = rs.getString("airport_name");
-                        double avgDelay = rs.getDouble("avg_delay");
-
-                        // Convert from HHMM format to minutes if needed
-                        if (avgDelay > 100) { // Likely HHMM format
-                            avgDelay = (Math.floor(avgDelay / 100) * 60) + (avgDelay % 100);
-                        }
-
-                        results.put(airportName, avgDelay);
-                        System.out.println("Fallback - Airport: " + airportName + ", Avg Delay: " + avgDelay);
-                    }
-                }
-            }
-        }
+        Map<String, Double> results = new HashMap<>(analysisCache.get(repository,
+                () -> repository.getAverageDelayByAirport(year), "averageDelayByAirport", year));
 
         // If still empty, add some mock data to help debug the UI
         if (results.isEmpty()) {
@@ -495,6 +208,7 @@ public class FlightDataService {
 
     /**
      * Gets average delays by month for flights departing from a specific airport.
+     * Results are cached until the next import.
      * @param airportCode the airport code
      * @param startYear the start year for analysis
      * @param endYear the end year for analysis
@@ -502,85 +216,9 @@ public class FlightDataService {
      * @throws SQLException if a database access error occurs
      */
     public Map<String, Double> getDelaysByMonth(String airportCode, int startYear, int endYear) throws SQLException {
-        Map<String, Double> results = new HashMap<>();
-
-        // Calculate delays by looking at delay_reason table
-        String sql =
-                "SELECT substr(f.date, 1, 4) || '-' || substr(f.date, 5, 2) AS month_year, " +
-                        "AVG(dr.delay_length) AS avg_delay " +
-                        "FROM Flight f " +
-                        "JOIN Delay_Reason dr ON f.flight_id = dr.flight_id " +
-                        "WHERE f.flight_origin = ? " +
-                        "AND substr(f.date, 1, 4) BETWEEN ? AND ? " +
-                        "GROUP BY month_year " +
-                        "ORDER BY month_year";
-
-        System.out.println("Time series SQL: " + sql);
-        System.out.println("Airport: " + airportCode + ", Years: " + startYear + "-" + endYear);
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, airportCode);
-            stmt.setString(2, String.valueOf(startYear));
-            stmt.setString(3, String.valueOf(endYear));
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    String monthYear = rs.getString("month_year");
-                    double avgDelay = rs.getDouble("avg_delay");
-
-                    // Format month-year for display
-                    String[] parts = monthYear.split("-");
-                    if (parts.length == 2) {
-                        String formattedMonthYear = parts[1] + "/" + parts[0]; // MM/YYYY
-                        results.put(formattedMonthYear, avgDelay);
-                        System.out.println("Month-Year: " + formattedMonthYear + ", Avg Delay: " + avgDelay);
-                    }
-                }
-            }
-        }
-
-        // If no results from delay_reason, try using the flight times
-        if (results.isEmpty()) {
-            // Fallback approach - Calculate approximate delays
-            System.out.println("No delay_reason data found. Trying fallback approach...");
-
-            sql = "SELECT substr(f.date, 1, 4) || '-' || substr(f.date, 5, 2) AS month_year, " +
-                    "AVG(CASE WHEN f.actual_arrival > f.scheduled_arrival " +
-                    "THEN (f.actual_arrival - f.scheduled_arrival) " +
-                    "ELSE 0 END) AS avg_delay " +
-                    "FROM Flight f " +
-                    "WHERE f.flight_origin = ? " +
-                    "AND substr(f.date, 1, 4) BETWEEN ? AND ? " +
-                    "AND f.scheduled_arrival > 0 AND f.actual_arrival > 0 " +
-                    "GROUP BY month_year " +
-                    "ORDER BY month_year";
-
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, airportCode);
-                stmt.setString(2, String.valueOf(startYear));
-                stmt.setString(3, String.valueOf(endYear));
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        String monthYear = rs.getString("month_year");
-                        double avgDelay = rs.getDouble("avg_delay");
-
-                        // Convert from HHMM format to minutes if needed
-                        if (avgDelay > 100) { // Likely HHMM format
-                            avgDelay = (Math.floor(avgDelay / 100) * 60) + (avgDelay % 100);
-                        }
-
-                        // Format month-year for display
-                        String[] parts = monthYear.split("-");
-                        if (parts.length == 2) {
-                            String formattedMonthYear = parts[1] + "/" + parts[0]; // MM/YYYY
-                            results.put(formattedMonthYear, avgDelay);
-                            System.out.println("Fallback - Month-Year: " + formattedMonthYear + ", Avg Delay: " + avgDelay);
-                        }
-                    }
-                }
-            }
-        }
+        Map<String, Double> results = new HashMap<>(analysisCache.get(repository,
+                () -> repository.getDelaysByMonth(airportCode, startYear, endYear),
+                "delaysByMonth", airportCode, startYear, endYear));
 
         // If still empty, add some mock data to help debug the UI
         if (results.isEmpty()) {
@@ -598,4 +236,4 @@ public class FlightDataService {
 
         return results;
     }
-}
\ No newline at end of file
+}
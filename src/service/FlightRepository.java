@@ -0,0 +1,101 @@
+package service;
+
+import model.Flight;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine behind {@link FlightDataService}: answers the flight searches,
+ * the airline and airport lists and the three delay analyses.
+ * <p>
+ * Every engine has to return the same answers for the same data, which the
+ * conformance suite in {@code test.FlightRepositoryConformance} checks:
+ * <ul>
+ *   <li>A search returns at most {@link #SEARCH_LIMIT} flights, newest date first, then
+ *   by scheduled departure and flight ID, each with all its delays.</li>
+ *   <li>The analyses average the delay reason minutes of a group, counting every
+ *   reason of a flight. If no group has delay reasons, they average the
+ *   non-negative arrival delays instead. An empty map means there is no data.</li>
+ * </ul>
+ */
+public interface FlightRepository extends AutoCloseable {
+
+    /** Maximum number of flights a search returns. */
+    int SEARCH_LIMIT = 1000;
+
+    /**
+     * Searches for flights based on the provided criteria.
+     * @param criteria the search filters
+     * @return list of matching flights
+     * @throws SQLException if a database access error occurs
+     */
+    List<Flight> searchFlights(SearchCriteria criteria) throws SQLException;
+
+    /**
+     * Gets a list of all airlines.
+     * @return "code - name" entries, ordered by name and code
+     * @throws SQLException if a database access error occurs
+     */
+    List<String> getAirlines() throws SQLException;
+
+    /**
+     * Gets a list of all airports.
+     * @return "code - name" entries, ordered by name and code
+     * @throws SQLException if a database access error occurs
+     */
+    List<String> getAirports() throws SQLException;
+
+    /**
+     * Calculates average delay by airline for the specified year, for airlines
+     * with more than one delay.
+     * @param year the year to analyze
+     * @return map of airline names to average delay in minutes
+     * @throws SQLException if a database access error occurs
+     */
+    Map<String, Double> getAverageDelayByAirline(int year) throws SQLException;
+
+    /**
+     * Calculates average delay by departure airport for the specified year, for
+     * the 20 airports with the highest average among those with more than one delay.
+     * @param year the year to analyze
+     * @return map of airport names to average delay in minutes
+     * @throws SQLException if a database access error occurs
+     */
+    Map<String, Double> getAverageDelayByAirport(int year) throws SQLException;
+
+    /**
+     * Gets average delays by month for flights departing from a specific airport.
+     * @param airportCode the airport code
+     * @param startYear the start year for analysis
+     * @param endYear the end year for analysis
+     * @return map of month-year (MM/YYYY) to average delay in minutes
+     * @throws SQLException if a database access error occurs
+     */
+    Map<String, Double> getDelaysByMonth(String airportCode, int startYear, int endYear) throws SQLException;
+
+    /**
+     * Gets a version of the data the engine answers from. It changes whenever the
+     * data changes, so results read at one version can be reused while it holds.
+     * @return the data version; a higher version means newer data
+     * @throws SQLException if a database access error occurs
+     */
+    long getDataVersion() throws SQLException;
+
+    /**
+     * Gets the import generation of the data the engine answers from, which the
+     * importer advances after every import. Unlike the data version it is stored in
+     * the database, so it identifies the data across restarts.
+     * @return the generation, 0 if no import recorded one
+     * @throws SQLException if a database access error occurs
+     */
+    long getImportGeneration() throws SQLException;
+
+    /**
+     * Releases the engine's connections and memory.
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    void close() throws SQLException;
+}
@@ -0,0 +1,450 @@
+package service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size pool of read-only connections to the flight database, so queries
+ * from several threads run side by side instead of queueing on one connection.
+ * <p>
+ * A thread holds one connection from {@link #acquire()} until the matching
+ * {@link #release(Connection)}; nested acquisitions on the same thread get the
+ * same connection back. Connections are opened as they are first needed, all of
+ * them read-only, so the pool never creates or changes the database file. Reads
+ * are only not blocked while an import writes if the database is in WAL mode,
+ * which the importer leaves it in.
+ * <p>
+ * Each connection keeps its most recently used prepared statements, keyed by SQL
+ * text, so a query shape is parsed and planned once per connection rather than on
+ * every call; see {@link #prepare(Connection, String)}.
+ * <p>
+ * The pool counts acquisitions, the time threads waited for a connection, the time
+ * connections were in use and statement cache hits, for {@link #summaryLine()}.
+ */
+public class ReadConnectionPool implements AutoCloseable {
+
+    /** Connections in a pool unless configured otherwise. */
+    public static final int DEFAULT_SIZE = 4;
+
+    /** SQLITE_OPEN_READONLY, the open flags of a pool connection. */
+    private static final String READ_ONLY_OPEN_MODE = "1";
+
+    /** Page cache of a pool connection, in KiB as a negative cache_size. */
+    private static final String CACHE_SIZE = "-16384";
+
+    /** Bytes of the file read through memory mapping, shared by all connections. */
+    private static final String MMAP_SIZE = "268435456";
+
+    /** How long {@link #acquire()} waits for a connection before giving up. */
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 30;
+
+    /** Prepared statements kept per connection. */
+    private static final int STATEMENTS_PER_CONNECTION = 32;
+
+    /**
+     * Work done on a pooled connection.
+     * @param <T> the result type
+     */
+    public interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /** The connection a thread holds and how many times it acquired it. */
+    private static final class Lease {
+        final Connection connection;
+        final long acquiredNanos;
+        int depth = 1;
+
+        Lease(Connection connection, long acquiredNanos) {
+            this.connection = connection;
+            this.acquiredNanos = acquiredNanos;
+        }
+    }
+
+    /**
+     * The prepared statements of one connection, least recently used first. Only the
+     * thread holding the connection uses its cache.
+     */
+    private static final class StatementCache {
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        private final LongAdder evictions;
+
+        /**
+         * Creates an empty cache.
+         * @param evictions counts the statements closed to make room
+         */
+        StatementCache(LongAdder evictions) {
+            this.evictions = evictions;
+        }
+
+        PreparedStatement get(String sql) {
+            return statements.get(sql);
+        }
+
+        /**
+         * Adds a statement, closing the least recently used one if the cache is full.
+         * @param sql the statement's SQL
+         * @param stmt the statement
+         */
+        void put(String sql, PreparedStatement stmt) {
+            statements.put(sql, stmt);
+            if (statements.size() <= STATEMENTS_PER_CONNECTION) {
+                return;
+            }
+            Iterator<PreparedStatement> eldest = statements.values().iterator();
+            PreparedStatement evicted = eldest.next();
+            eldest.remove();
+            evictions.increment();
+            try {
+                evicted.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing cached statement: " + e.getMessage());
+            }
+        }
+    }
+
+    private final String dbUrl;
+    private final int size;
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> opened = new ArrayList<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final ThreadLocal<Lease> lease = new ThreadLocal<>();
+    private final String journalMode;
+    private volatile boolean closed;
+
+    // Guarded by this; outside the pool so a check never waits for a connection
+    private Connection versionConnection;
+    private PreparedStatement versionStatement;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+    private final long createdNanos = System.nanoTime();
+
+    /**
+     * Creates a pool and opens its first connection.
+     * @param dbUrl JDBC URL of the database, e.g. jdbc:sqlite:flights.db
+     * @param size the maximum number of connections
+     * @throws SQLException if the database does not exist or cannot be opened
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public ReadConnectionPool(String dbUrl, int size) throws SQLException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+        }
+        this.dbUrl = dbUrl;
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size);
+        Connection first = open();
+        try (Statement stmt = first.createStatement()) {
+            journalMode = journalMode(stmt);
+        } catch (SQLException e) {
+            closeQuietly(first);
+            throw e;
+        }
+        idle.add(first);
+        System.out.println("Read connection pool for " + dbUrl + ": up to " + size
+                + " connections, journal mode " + journalMode);
+    }
+
+    private static String journalMode(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * Opens a read-only connection with the page cache and memory-mapped reads set,
+     * as these settings are not stored in the database file.
+     * @return the connection
+     * @throws SQLException if the database does not exist or cannot be opened
+     */
+    private Connection openReadOnly() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("open_mode", READ_ONLY_OPEN_MODE);
+        properties.setProperty("cache_size", CACHE_SIZE);
+        properties.setProperty("mmap_size", MMAP_SIZE);
+        return DriverManager.getConnection(dbUrl, properties);
+    }
+
+    /**
+     * Opens a read-only connection of the pool.
+     * @return the connection
+     * @throws SQLException if the database cannot be opened
+     */
+    private Connection open() throws SQLException {
+        Connection connection = openReadOnly();
+        statementCaches.put(connection, new StatementCache(statementEvictions));
+        synchronized (opened) {
+            opened.add(connection);
+        }
+        return connection;
+    }
+
+    /**
+     * Takes a connection for the current thread, waiting if all are in use. A thread
+     * that already holds one gets it again; every call needs a matching
+     * {@link #release(Connection)}.
+     * @return the connection
+     * @throws SQLException if the pool is closed, no connection became free in time,
+     *                      or a new connection cannot be opened
+     */
+    public Connection acquire() throws SQLException {
+        Lease current = lease.get();
+        if (current != null) {
+            current.depth++;
+            return current.connection;
+        }
+        if (closed) {
+            throw new SQLException("Read connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = openIfBelowSize();
+        }
+        if (connection == null) {
+            waits.increment();
+            try {
+                connection = idle.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a read connection", e);
+            }
+            if (connection == null) {
+                throw new SQLException("No read connection became free within " + ACQUIRE_TIMEOUT_SECONDS + " seconds");
+            }
+        }
+        long acquired = System.nanoTime();
+        long waited = acquired - start;
+        acquisitions.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        lease.set(new Lease(connection, acquired));
+        return connection;
+    }
+
+    /**
+     * Opens another connection if the pool has not reached its size.
+     * @return the new connection, or null if the pool is full
+     * @throws SQLException if the database cannot be opened
+     */
+    private Connection openIfBelowSize() throws SQLException {
+        synchronized (opened) {
+            return opened.size() < size ? open() : null;
+        }
+    }
+
+    /**
+     * Gives back a connection taken with {@link #acquire()}.
+     * @param connection the connection
+     * @throws IllegalStateException if the current thread does not hold the connection
+     */
+    public void release(Connection connection) {
+        Lease current = lease.get();
+        if (current == null || current.connection != connection) {
+            throw new IllegalStateException("Connection released by a thread that does not hold it");
+        }
+        if (--current.depth > 0) {
+            return;
+        }
+        lease.remove();
+        busyNanos.add(System.nanoTime() - current.acquiredNanos);
+        inUse.decrementAndGet();
+        idle.add(connection);
+        if (closed && idle.remove(connection)) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Runs work on a connection of the pool.
+     * @param work the work
+     * @param <T> the result type
+     * @return the result of the work
+     * @throws SQLException if no connection can be acquired or the work fails
+     */
+    public <T> T withConnection(Work<T> work) throws SQLException {
+        Connection connection = acquire();
+        try {
+            return work.run(connection);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * Gets a prepared statement for SQL on a connection held by the current thread,
+     * preparing it only if the connection has not prepared the same SQL recently.
+     * The statement belongs to the cache: set all its parameters before executing,
+     * close its result set when done and do not close the statement itself.
+     * @param connection a connection taken with {@link #acquire()}
+     * @param sql the SQL, with every value bound as a parameter so that the text
+     *            identifies the query's shape
+     * @return the prepared statement
+     * @throws SQLException if the SQL cannot be prepared
+     */
+    public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        StatementCache cache = statementCaches.get(connection);
+        PreparedStatement stmt = cache.get(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            statementHits.increment();
+            return stmt;
+        }
+        statementMisses.increment();
+        stmt = connection.prepareStatement(sql);
+        cache.put(sql, stmt);
+        return stmt;
+    }
+
+    /**
+     * Reads the database's data version, which changes whenever another connection
+     * commits a change to the file, such as an import. Versions are only comparable
+     * with each other, so all checks go through one dedicated connection.
+     * @return the data version
+     * @throws SQLException if the pool is closed or the version cannot be read
+     */
+    public synchronized long dataVersion() throws SQLException {
+        if (closed) {
+            throw new SQLException("Read connection pool is closed");
+        }
+        if (versionConnection == null) {
+            versionConnection = openReadOnly();
+            versionStatement = versionConnection.prepareStatement("PRAGMA data_version");
+        }
+        try (ResultSet rs = versionStatement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public int getOpenConnections() {
+        synchronized (opened) {
+            return opened.size();
+        }
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * Gets the number of acquisitions that found every connection in use.
+     * @return the number of acquisitions that had to wait
+     */
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public long getStatementHits() {
+        return statementHits.sum();
+    }
+
+    public long getStatementMisses() {
+        return statementMisses.sum();
+    }
+
+    public long getStatementEvictions() {
+        return statementEvictions.sum();
+    }
+
+    /**
+     * Gets the share of the pool's capacity that was in use since it was created.
+     * @return time connections were held, divided by size times the pool's age
+     */
+    public double getUtilisation() {
+        long elapsed = System.nanoTime() - createdNanos;
+        return elapsed > 0 ? busyNanos.sum() / ((double) elapsed * size) : 0;
+    }
+
+    /**
+     * Formats the pool metrics on one line.
+     * @return the summary line
+     */
+    public String summaryLine() {
+        long count = getAcquisitions();
+        return String.format("Read connections: %d/%d open, %d in use (peak %d), %d acquisitions, "
+                        + "%d waited (avg %.2f ms, max %.2f ms), utilisation %.1f%%; "
+                        + "statements %d hits, %d misses, %d evicted",
+                getOpenConnections(), size, getInUse(), getPeakInUse(), count, getWaits(),
+                count > 0 ? getTotalWaitNanos() / 1e6 / count : 0.0, getMaxWaitNanos() / 1e6,
+                getUtilisation() * 100, getStatementHits(), getStatementMisses(), getStatementEvictions());
+    }
+
+    /**
+     * Closes the idle connections, and the others as they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+        synchronized (this) {
+            if (versionConnection != null) {
+                closeQuietly(versionConnection);
+                versionConnection = null;
+            }
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        // Closing the connection closes its cached statements
+        statementCaches.remove(connection);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing read connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,675 @@
+package service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable, compressed set of row numbers, for {@link FlightBitmapIndex}.
+ * <p>
+ * Rows are split into blocks of 65536 by their high 16 bits, and each non-empty
+ * block is stored in whichever form is smallest: a sorted array of the low 16 bits
+ * of its rows (at most 4096 of them), a 1024-word bitset, or a list of runs of
+ * consecutive rows. Sets of rows spread thinly over the table stay small, dense
+ * ones are combined a word at a time, and sets of consecutive rows, like the rows
+ * of a month, take a few bytes per block.
+ * <p>
+ * The class is public so that {@code test.RowBitmapTest} can check it against
+ * {@link java.util.BitSet}; the application only uses it within this package.
+ */
+public final class RowBitmap {
+
+    /** The empty set. */
+    public static final RowBitmap EMPTY = new RowBitmap(new char[0], new Container[0], 0);
+
+    private static final int BLOCK_WORDS = 1024;
+    private static final int MAX_ARRAY_SIZE = 4096;
+
+    private final char[] keys;
+    private final Container[] containers;
+    private final int blocks;
+
+    private RowBitmap(char[] keys, Container[] containers, int blocks) {
+        this.keys = keys;
+        this.containers = containers;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Builds a bitmap from rows added in ascending order.
+     */
+    public static final class Builder {
+        private char[] keys = new char[4];
+        private Container[] containers = new Container[4];
+        private int blocks;
+        private long[] words;
+        private int currentKey = -1;
+        private int lastRow = -1;
+
+        /**
+         * Adds a row.
+         * @param row the row, greater than the rows added before
+         * @throws IllegalArgumentException if the row is negative or not ascending
+         */
+        public void add(int row) {
+            if (row <= lastRow) {
+                throw new IllegalArgumentException("Rows must be added in ascending order: " + row + " after " + lastRow);
+            }
+            lastRow = row;
+            int key = row >>> 16;
+            if (key != currentKey) {
+                flush();
+                currentKey = key;
+                if (words == null) {
+                    words = new long[BLOCK_WORDS];
+                }
+            }
+            words[(row & 0xFFFF) >>> 6] |= 1L << row;
+        }
+
+        /**
+         * Stores the block being built, if any.
+         */
+        private void flush() {
+            if (currentKey < 0) {
+                return;
+            }
+            if (blocks == keys.length) {
+                keys = Arrays.copyOf(keys, blocks * 2);
+                containers = Arrays.copyOf(containers, blocks * 2);
+            }
+            keys[blocks] = (char) currentKey;
+            containers[blocks++] = Container.of(words);
+            Arrays.fill(words, 0);
+            currentKey = -1;
+        }
+
+        /**
+         * Creates the bitmap of the rows added.
+         * @return the bitmap
+         */
+        public RowBitmap build() {
+            flush();
+            words = null;
+            return new RowBitmap(Arrays.copyOf(keys, blocks), Arrays.copyOf(containers, blocks), blocks);
+        }
+    }
+
+    /**
+     * Gets the number of rows in the set.
+     * @return the cardinality
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < blocks; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Checks whether the set is empty.
+     * @return true if it holds no rows
+     */
+    public boolean isEmpty() {
+        return blocks == 0;
+    }
+
+    /**
+     * Checks whether a row is in the set.
+     * @param row the row
+     * @return true if the set holds the row
+     */
+    public boolean contains(int row) {
+        int i = Arrays.binarySearch(keys, 0, blocks, (char) (row >>> 16));
+        return row >= 0 && i >= 0 && containers[i].contains(row & 0xFFFF);
+    }
+
+    /**
+     * Intersects two sets.
+     * @param other the other set
+     * @return the rows in both sets
+     */
+    public RowBitmap and(RowBitmap other) {
+        char[] resultKeys = new char[Math.min(blocks, other.blocks)];
+        Container[] resultContainers = new Container[resultKeys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < blocks && j < other.blocks) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container != null) {
+                    resultKeys[count] = keys[i];
+                    resultContainers[count++] = container;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new RowBitmap(resultKeys, resultContainers, count);
+    }
+
+    /**
+     * Unites two sets.
+     * @param other the other set
+     * @return the rows in either set
+     */
+    public RowBitmap or(RowBitmap other) {
+        char[] resultKeys = new char[blocks + other.blocks];
+        Container[] resultContainers = new Container[resultKeys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < blocks || j < other.blocks) {
+            if (j == other.blocks || (i < blocks && keys[i] < other.keys[j])) {
+                resultKeys[count] = keys[i];
+                resultContainers[count++] = containers[i++];
+            } else if (i == blocks || keys[i] > other.keys[j]) {
+                resultKeys[count] = other.keys[j];
+                resultContainers[count++] = other.containers[j++];
+            } else {
+                resultKeys[count] = keys[i];
+                resultContainers[count++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        return new RowBitmap(resultKeys, resultContainers, count);
+    }
+
+    /**
+     * Unites any number of sets, combining the blocks of all sets at once rather
+     * than one pair at a time.
+     * @param bitmaps the sets
+     * @return the rows in any of the sets
+     */
+    public static RowBitmap or(List<RowBitmap> bitmaps) {
+        if (bitmaps.isEmpty()) {
+            return EMPTY;
+        } else if (bitmaps.size() == 1) {
+            return bitmaps.get(0);
+        }
+        int[] positions = new int[bitmaps.size()];
+        int capacity = 0;
+        for (RowBitmap bitmap : bitmaps) {
+            capacity += bitmap.blocks;
+        }
+        char[] resultKeys = new char[capacity];
+        Container[] resultContainers = new Container[capacity];
+        int count = 0;
+        while (true) {
+            // The lowest key not yet united, and the sets that have it
+            int key = Integer.MAX_VALUE;
+            for (int i = 0; i < positions.length; i++) {
+                RowBitmap bitmap = bitmaps.get(i);
+                if (positions[i] < bitmap.blocks) {
+                    key = Math.min(key, bitmap.keys[positions[i]]);
+                }
+            }
+            if (key == Integer.MAX_VALUE) {
+                break;
+            }
+            Container united = null;
+            long[] words = null;
+            for (int i = 0; i < positions.length; i++) {
+                RowBitmap bitmap = bitmaps.get(i);
+                if (positions[i] < bitmap.blocks && bitmap.keys[positions[i]] == key) {
+                    Container container = bitmap.containers[positions[i]++];
+                    if (words != null) {
+                        container.addTo(words);
+                    } else if (united == null) {
+                        united = container;
+                    } else if (united instanceof ArrayContainer && container instanceof ArrayContainer
+                            && united.cardinality() + container.cardinality() <= MAX_ARRAY_SIZE) {
+                        united = ((ArrayContainer) united).merge((ArrayContainer) container);
+                    } else {
+                        words = united.toWords();
+                        container.addTo(words);
+                    }
+                }
+            }
+            resultKeys[count] = (char) key;
+            resultContainers[count++] = words != null ? Container.of(words) : united;
+        }
+        return new RowBitmap(resultKeys, resultContainers, count);
+    }
+
+    /**
+     * Subtracts a set from this one.
+     * @param other the rows to remove
+     * @return the rows in this set but not in the other
+     */
+    public RowBitmap andNot(RowBitmap other) {
+        char[] resultKeys = new char[blocks];
+        Container[] resultContainers = new Container[blocks];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < blocks; i++) {
+            while (j < other.blocks && other.keys[j] < keys[i]) {
+                j++;
+            }
+            Container container = j < other.blocks && other.keys[j] == keys[i]
+                    ? containers[i].andNot(other.containers[j]) : containers[i];
+            if (container != null) {
+                resultKeys[count] = keys[i];
+                resultContainers[count++] = container;
+            }
+        }
+        return new RowBitmap(resultKeys, resultContainers, count);
+    }
+
+    /**
+     * Passes the rows of a range that are in the set to an action in ascending
+     * order, until the action returns false.
+     * @param from the first row of the range
+     * @param to the row after the last
+     * @param action receives each row, and returns false to stop
+     */
+    public void forEach(int from, int to, IntPredicate action) {
+        for (int i = 0; i < blocks; i++) {
+            int base = keys[i] << 16;
+            if (base + 0xFFFF < from) {
+                continue;
+            }
+            if (base >= to) {
+                return;
+            }
+            if (!containers[i].forEach(base, from - base, to - base, action)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap taken by the set.
+     * @return the size of its arrays in bytes
+     */
+    public long estimatedBytes() {
+        long bytes = (long) keys.length * Character.BYTES + (long) containers.length * 8;
+        for (int i = 0; i < blocks; i++) {
+            bytes += containers[i].estimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * The rows of one block, as offsets 0 to 65535 from the start of the block.
+     */
+    private abstract static class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(int offset);
+
+        /**
+         * Sets the bits of the rows in a bitset of the block.
+         * @param words the bitset
+         */
+        abstract void addTo(long[] words);
+
+        /**
+         * Passes the rows of a range of offsets to an action.
+         * @param base the row of offset 0
+         * @param from the first offset, may be negative
+         * @param to the offset after the last, may be past the block
+         * @param action receives each row, and returns false to stop
+         * @return false if the action stopped
+         */
+        abstract boolean forEach(int base, int from, int to, IntPredicate action);
+
+        abstract long estimatedBytes();
+
+        /**
+         * Creates the smallest container of a bitset.
+         * @param words the bitset of the block
+         * @return the container, or null if the bitset is empty
+         */
+        static Container of(long[] words) {
+            int cardinality = 0;
+            int runs = 0;
+            long previous = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+                // A run starts at every set bit whose lower neighbour is clear
+                runs += Long.bitCount(word & ~(word << 1 | previous >>> 63));
+                previous = word;
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            int runBytes = runs * 2 * Character.BYTES;
+            int bitsetBytes = BLOCK_WORDS * Long.BYTES;
+            int otherBytes = cardinality <= MAX_ARRAY_SIZE ? cardinality * Character.BYTES : bitsetBytes;
+            if (runBytes < otherBytes) {
+                return RunContainer.of(words, runs);
+            }
+            if (cardinality <= MAX_ARRAY_SIZE) {
+                return ArrayContainer.of(words, cardinality);
+            }
+            return new BitsetContainer(words.clone(), cardinality);
+        }
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return ((ArrayContainer) other).filter(this, true);
+            }
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer) this).filter(other, true);
+            }
+            long[] words = toWords();
+            long[] otherWords = other.toWords();
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                words[i] &= otherWords[i];
+            }
+            return of(words);
+        }
+
+        Container or(Container other) {
+            if (this instanceof ArrayContainer && other instanceof ArrayContainer
+                    && cardinality() + other.cardinality() <= MAX_ARRAY_SIZE) {
+                return ((ArrayContainer) this).merge((ArrayContainer) other);
+            }
+            long[] words = toWords();
+            other.addTo(words);
+            return of(words);
+        }
+
+        Container andNot(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer) this).filter(other, false);
+            }
+            long[] words = toWords();
+            long[] otherWords = other.toWords();
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                words[i] &= ~otherWords[i];
+            }
+            return of(words);
+        }
+
+        /**
+         * Gets the container as a bitset.
+         * @return a new bitset of the block
+         */
+        long[] toWords() {
+            long[] words = new long[BLOCK_WORDS];
+            addTo(words);
+            return words;
+        }
+    }
+
+    /**
+     * A block of at most {@link #MAX_ARRAY_SIZE} rows as their sorted offsets.
+     */
+    private static final class ArrayContainer extends Container {
+        private final char[] offsets;
+
+        ArrayContainer(char[] offsets) {
+            this.offsets = offsets;
+        }
+
+        static ArrayContainer of(long[] words, int cardinality) {
+            char[] offsets = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    offsets[count++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new ArrayContainer(offsets);
+        }
+
+        /**
+         * Unites two small arrays without going through a bitset.
+         * @param other the other container
+         * @return the container of the offsets in either
+         */
+        Container merge(ArrayContainer other) {
+            char[] merged = new char[offsets.length + other.offsets.length];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < offsets.length && j < other.offsets.length) {
+                char a = offsets[i];
+                char b = other.offsets[j];
+                merged[count++] = a <= b ? a : b;
+                i += a <= b ? 1 : 0;
+                j += b <= a ? 1 : 0;
+            }
+            System.arraycopy(offsets, i, merged, count, offsets.length - i);
+            count += offsets.length - i;
+            System.arraycopy(other.offsets, j, merged, count, other.offsets.length - j);
+            count += other.offsets.length - j;
+            return new ArrayContainer(count == merged.length ? merged : Arrays.copyOf(merged, count));
+        }
+
+        /**
+         * Keeps the offsets that are, or are not, in another container.
+         * @param other the other container
+         * @param keep true to keep the offsets in it, false to keep those not in it
+         * @return the container of the offsets kept, or null if there are none
+         */
+        Container filter(Container other, boolean keep) {
+            char[] kept = new char[offsets.length];
+            int count = 0;
+            if (other instanceof BitsetContainer) {
+                long[] words = ((BitsetContainer) other).words;
+                for (char offset : offsets) {
+                    kept[count] = offset;
+                    count += ((words[offset >>> 6] & 1L << offset) != 0) == keep ? 1 : 0;
+                }
+            } else {
+                for (char offset : offsets) {
+                    if (other.contains(offset) == keep) {
+                        kept[count++] = offset;
+                    }
+                }
+            }
+            return count == 0 ? null : new ArrayContainer(count == kept.length ? kept : Arrays.copyOf(kept, count));
+        }
+
+        @Override
+        int cardinality() {
+            return offsets.length;
+        }
+
+        @Override
+        boolean contains(int offset) {
+            return Arrays.binarySearch(offsets, (char) offset) >= 0;
+        }
+
+        @Override
+        void addTo(long[] words) {
+            for (char offset : offsets) {
+                words[offset >>> 6] |= 1L << offset;
+            }
+        }
+
+        @Override
+        boolean forEach(int base, int from, int to, IntPredicate action) {
+            int i = from <= 0 ? 0 : Arrays.binarySearch(offsets, (char) from);
+            for (i = i < 0 ? -i - 1 : i; i < offsets.length && offsets[i] < to; i++) {
+                if (!action.test(base + offsets[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        long estimatedBytes() {
+            return 16 + (long) offsets.length * Character.BYTES;
+        }
+    }
+
+    /**
+     * A block of more than {@link #MAX_ARRAY_SIZE} rows as a bitset.
+     */
+    private static final class BitsetContainer extends Container {
+        private final long[] words;
+        private final int cardinality;
+
+        BitsetContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int offset) {
+            return (words[offset >>> 6] & 1L << offset) != 0;
+        }
+
+        @Override
+        void addTo(long[] target) {
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                target[i] |= words[i];
+            }
+        }
+
+        @Override
+        long[] toWords() {
+            return words.clone();
+        }
+
+        @Override
+        boolean forEach(int base, int from, int to, IntPredicate action) {
+            int first = Math.max(from, 0);
+            int last = Math.min(to, 1 << 16);
+            for (int i = first >>> 6; i < BLOCK_WORDS && i << 6 < last; i++) {
+                long word = words[i];
+                if (i == first >>> 6) {
+                    word &= -1L << first;
+                }
+                for (; word != 0; word &= word - 1) {
+                    int offset = i << 6 | Long.numberOfTrailingZeros(word);
+                    if (offset >= last) {
+                        return true;
+                    }
+                    if (!action.test(base + offset)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        long estimatedBytes() {
+            return 16 + (long) BLOCK_WORDS * Long.BYTES;
+        }
+    }
+
+    /**
+     * A block as runs of consecutive rows: first offset and length - 1 of each run.
+     */
+    private static final class RunContainer extends Container {
+        private final char[] runs;
+        private final int cardinality;
+
+        RunContainer(char[] runs, int cardinality) {
+            this.runs = runs;
+            this.cardinality = cardinality;
+        }
+
+        static RunContainer of(long[] words, int runCount) {
+            char[] runs = new char[runCount * 2];
+            int count = 0;
+            int cardinality = 0;
+            int offset = 0;
+            int end = BLOCK_WORDS << 6;
+            while (offset < end) {
+                int start = nextSetBit(words, offset);
+                if (start < 0) {
+                    break;
+                }
+                int stop = nextClearBit(words, start);
+                runs[count++] = (char) start;
+                runs[count++] = (char) (stop - start - 1);
+                cardinality += stop - start;
+                offset = stop;
+            }
+            return new RunContainer(runs, cardinality);
+        }
+
+        private static int nextSetBit(long[] words, int offset) {
+            for (int i = offset >>> 6; i < BLOCK_WORDS; i++) {
+                long word = i == offset >>> 6 ? words[i] & -1L << offset : words[i];
+                if (word != 0) {
+                    return i << 6 | Long.numberOfTrailingZeros(word);
+                }
+            }
+            return -1;
+        }
+
+        private static int nextClearBit(long[] words, int offset) {
+            for (int i = offset >>> 6; i < BLOCK_WORDS; i++) {
+                long word = i == offset >>> 6 ? ~words[i] & -1L << offset : ~words[i];
+                if (word != 0) {
+                    return i << 6 | Long.numberOfTrailingZeros(word);
+                }
+            }
+            return BLOCK_WORDS << 6;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int offset) {
+            // Last run starting at or before the offset
+            int low = 0;
+            int high = runs.length / 2 - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (runs[mid * 2] <= offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high >= 0 && offset <= runs[high * 2] + runs[high * 2 + 1];
+        }
+
+        @Override
+        void addTo(long[] words) {
+            for (int i = 0; i < runs.length; i += 2) {
+                int start = runs[i];
+                int stop = start + runs[i + 1] + 1;
+                while (start < stop) {
+                    int word = start >>> 6;
+                    int bits = Math.min(stop, (word + 1) << 6) - start;
+                    words[word] |= (bits == 64 ? -1L : (1L << bits) - 1) << start;
+                    start += bits;
+                }
+            }
+        }
+
+        @Override
+        boolean forEach(int base, int from, int to, IntPredicate action) {
+            for (int i = 0; i < runs.length && runs[i] < to; i += 2) {
+                int start = Math.max(runs[i], from);
+                int stop = Math.min(runs[i] + runs[i + 1] + 1, to);
+                for (int offset = start; offset < stop; offset++) {
+                    if (!action.test(base + offset)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        long estimatedBytes() {
+            return 16 + (long) runs.length * Character.BYTES;
+        }
+    }
+}
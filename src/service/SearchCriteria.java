@@ -0,0 +1,208 @@
+package service;
+
+import java.time.LocalDate;
+
+/**
+ * The filters of a flight search. Every filter is optional; unset filters are null,
+ * and blank strings are treated as unset.
+ */
+public class SearchCriteria {
+
+    /**
+     * A flight number filter split into the airline code it may start with and the number.
+     */
+    public static final class FlightNumber {
+
+        /** Matches no flight, for input that is not a flight number. */
+        public static final FlightNumber NONE = new FlightNumber(null, -1);
+
+        private final String airlineCode;
+        private final int number;
+
+        private FlightNumber(String airlineCode, int number) {
+            this.airlineCode = airlineCode;
+            this.number = number;
+        }
+
+        /**
+         * Gets the airline code the flight number started with.
+         * @return the IATA code, matched exactly, or null if the input was only a number
+         */
+        public String getAirlineCode() {
+            return airlineCode;
+        }
+
+        /**
+         * Gets the flight number without airline code.
+         * @return the number
+         */
+        public int getNumber() {
+            return number;
+        }
+    }
+
+    private String airline;
+    private String flightNumber;
+    private String origin;
+    private String destination;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private Integer minDelay;
+    private Integer maxDelay;
+    private String delayReason;
+
+    /**
+     * Creates criteria without any filters, matching every flight.
+     */
+    public SearchCriteria() {
+    }
+
+    /**
+     * Creates criteria with all filters given, in the order of
+     * {@link FlightDataService#searchFlights(String, String, String, String, LocalDate, LocalDate, Integer, Integer, String)}.
+     * @param airline airline code or name (partial match)
+     * @param flightNumber flight number, optionally prefixed with the airline code
+     * @param origin origin airport code, or part of its name
+     * @param destination destination airport code, or part of its name
+     * @param startDate start of date range
+     * @param endDate end of date range
+     * @param minDelay minimum delay in minutes
+     * @param maxDelay maximum delay in minutes
+     * @param delayReason specific delay reason
+     */
+    public SearchCriteria(String airline, String flightNumber,
+                          String origin, String destination,
+                          LocalDate startDate, LocalDate endDate,
+                          Integer minDelay, Integer maxDelay,
+                          String delayReason) {
+        this.airline = airline;
+        this.flightNumber = flightNumber;
+        this.origin = origin;
+        this.destination = destination;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.delayReason = delayReason;
+    }
+
+    public String getAirline() {
+        return airline;
+    }
+
+    public void setAirline(String airline) {
+        this.airline = airline;
+    }
+
+    public String getFlightNumber() {
+        return flightNumber;
+    }
+
+    public void setFlightNumber(String flightNumber) {
+        this.flightNumber = flightNumber;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(LocalDate startDate) {
+        this.startDate = startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(LocalDate endDate) {
+        this.endDate = endDate;
+    }
+
+    public Integer getMinDelay() {
+        return minDelay;
+    }
+
+    public void setMinDelay(Integer minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    public Integer getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(Integer maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public String getDelayReason() {
+        return delayReason;
+    }
+
+    public void setDelayReason(String delayReason) {
+        this.delayReason = delayReason;
+    }
+
+    /**
+     * Parses the flight number filter. A number with an airline code prefix (e.g. "AA123")
+     * must be at least three characters long; the code is the leading letters.
+     * @return the parsed filter, {@link FlightNumber#NONE} if the input is not a flight
+     *         number, or null if there is no flight number filter
+     */
+    public FlightNumber parseFlightNumber() {
+        if (flightNumber == null || flightNumber.trim().isEmpty()) {
+            return null;
+        }
+        if (flightNumber.length() >= 3 && Character.isLetter(flightNumber.charAt(0))) {
+            int i = 0;
+            while (i < flightNumber.length() && Character.isLetter(flightNumber.charAt(i))) {
+                i++;
+            }
+            String numericPart = flightNumber.substring(i);
+            if (numericPart.isEmpty()) {
+                // Letters only: no flight number to filter on
+                return null;
+            }
+            try {
+                return new FlightNumber(flightNumber.substring(0, i), Integer.parseInt(numericPart));
+            } catch (NumberFormatException e) {
+                return FlightNumber.NONE;
+            }
+        }
+        try {
+            return new FlightNumber(null, Integer.parseInt(flightNumber.trim()));
+        } catch (NumberFormatException e) {
+            return FlightNumber.NONE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SearchCriteria{" +
+                "airline=" + airline +
+                ", flightNumber=" + flightNumber +
+                ", origin=" + origin +
+                ", destination=" + destination +
+                ", startDate=" + startDate +
+                ", endDate=" + endDate +
+                ", minDelay=" + minDelay +
+                ", maxDelay=" + maxDelay +
+                ", delayReason=" + delayReason +
+                '}';
+    }
+}
@@ -0,0 +1,280 @@
+package service;
+
+import model.Flight;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Results of recent flight searches, so repeating a search does not query the
+ * repository again.
+ * <p>
+ * Searches are keyed by their normalized criteria, so " dl " and "DL" share an
+ * entry. The cache holds at most a given number of estimated bytes, evicting the
+ * least recently used searches first, and entries expire after a time to live.
+ * All entries are dropped as soon as the repository's
+ * {@link FlightRepository#getDataVersion() data version} changes, for example
+ * when an import commits.
+ */
+public class SearchResultCache {
+
+    /** Bytes of results held unless configured otherwise. */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /** Time to live of an entry unless configured otherwise. */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    /** A cached search result. */
+    private static final class Entry {
+        final List<Flight> flights;
+        final long bytes;
+        final long storedNanos;
+
+        Entry(List<Flight> flights, long bytes, long storedNanos) {
+            this.flights = flights;
+            this.bytes = bytes;
+            this.storedNanos = storedNanos;
+        }
+    }
+
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long dataVersion = Long.MIN_VALUE;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    /**
+     * Creates a cache with {@link #DEFAULT_MAX_BYTES} and {@link #DEFAULT_TTL}.
+     */
+    public SearchResultCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates a cache.
+     * @param maxBytes the estimated size of the results to hold at most
+     * @param ttl how long a result may be served
+     */
+    public SearchResultCache(long maxBytes, Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Searches for flights, answering from the cache if the same search ran
+     * recently and the data has not changed since.
+     * @param criteria the search filters
+     * @param repository the repository to search on a miss
+     * @return the matching flights; the list is the caller's, the flights are shared
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Flight> search(SearchCriteria criteria, FlightRepository repository) throws SQLException {
+        long version = repository.getDataVersion();
+        String key = key(criteria);
+        List<Flight> cached = lookup(key, version);
+        if (cached != null) {
+            System.out.println("Search served from cache: " + cached.size() + " results");
+            return new ArrayList<>(cached);
+        }
+        List<Flight> results = repository.searchFlights(criteria);
+        store(key, version, new ArrayList<>(results));
+        return results;
+    }
+
+    /**
+     * Finds a live entry, first dropping every entry if the data changed.
+     * @param key the normalized criteria
+     * @param version the data version the search sees
+     * @return the cached flights, or null on a miss
+     */
+    private synchronized List<Flight> lookup(String key, long version) {
+        if (version > dataVersion) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+            }
+            entries.clear();
+            bytes = 0;
+            dataVersion = version;
+        }
+        Entry entry = version == dataVersion ? entries.get(key) : null;
+        if (entry != null && System.nanoTime() - entry.storedNanos > ttlNanos) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.flights;
+    }
+
+    /**
+     * Stores a result, evicting the least recently used entries to stay within the
+     * size. Results read before a newer data version was seen are not stored.
+     * @param key the normalized criteria
+     * @param version the data version the search saw
+     * @param flights the result
+     */
+    private synchronized void store(String key, long version, List<Flight> flights) {
+        long size = estimateBytes(key, flights);
+        if (version != dataVersion || size > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(flights, size, System.nanoTime()));
+        bytes += size - (previous != null ? previous.bytes : 0);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Builds the cache key of a search. Airline, airport and reason filters are
+     * trimmed and upper-cased, since the repositories compare them ignoring case, and
+     * blank ones dropped as the repositories ignore them; a blank delay reason is
+     * kept, as it still restricts the search to delayed flights. The flight number
+     * is keyed as parsed, so "AA0100" and "AA100" share an entry, but its airline
+     * code keeps its case, as it is matched exactly.
+     * @param criteria the search filters
+     * @return the key
+     */
+    static String key(SearchCriteria criteria) {
+        SearchCriteria.FlightNumber flightNumber = criteria.parseFlightNumber();
+        String flight = flightNumber == null ? null
+                : flightNumber == SearchCriteria.FlightNumber.NONE ? "none"
+                : (flightNumber.getAirlineCode() != null ? flightNumber.getAirlineCode() : "") + flightNumber.getNumber();
+        String delayReason = criteria.getDelayReason() != null ? upperCaseAscii(criteria.getDelayReason().trim()) : null;
+        return String.join("|",
+                String.valueOf(normalize(criteria.getAirline())),
+                String.valueOf(flight),
+                String.valueOf(normalize(criteria.getOrigin())),
+                String.valueOf(normalize(criteria.getDestination())),
+                String.valueOf(criteria.getStartDate()),
+                String.valueOf(criteria.getEndDate()),
+                String.valueOf(criteria.getMinDelay()),
+                String.valueOf(criteria.getMaxDelay()),
+                String.valueOf(delayReason));
+    }
+
+    /**
+     * Normalizes a text filter.
+     * @param value the filter
+     * @return the trimmed, upper-cased filter, or null if it is blank
+     */
+    private static String normalize(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        return upperCaseAscii(value.trim());
+    }
+
+    /**
+     * Upper-cases ASCII letters only, as SQLite's LIKE ignores the case of those and
+     * no others.
+     * @param value the text
+     * @return the text with a-z upper-cased
+     */
+    private static String upperCaseAscii(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'a' && chars[i] <= 'z') {
+                chars[i] -= 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Estimates the heap taken by an entry: the key, the list and each flight with
+     * its date, strings and delays.
+     * @param key the cache key
+     * @param flights the result
+     * @return the estimated size in bytes
+     */
+    private static long estimateBytes(String key, List<Flight> flights) {
+        long size = 64 + stringBytes(key) + 16 + 8L * flights.size();
+        for (Flight flight : flights) {
+            size += 88 + 24
+                    + stringBytes(flight.getAirlineCode()) + stringBytes(flight.getAirlineName())
+                    + stringBytes(flight.getOriginCode()) + stringBytes(flight.getOriginCity())
+                    + stringBytes(flight.getDestCode()) + stringBytes(flight.getDestCity())
+                    + 40 + 32L * flight.getDelays().size();
+        }
+        return size;
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the share of searches answered from the cache.
+     * @return hits divided by hits and misses, 0 before the first search
+     */
+    public synchronized double getHitRatio() {
+        return hits + misses > 0 ? hits / (double) (hits + misses) : 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Formats the cache metrics on one line.
+     * @return the summary line
+     */
+    public synchronized String summaryLine() {
+        return String.format("Search cache: %d entries, %,d of %,d bytes, hit ratio %.1f%% (%d hits, %d misses), "
+                        + "%d evicted, %d expired, %d invalidations",
+                entries.size(), bytes, maxBytes, getHitRatio() * 100, hits, misses,
+                evictions, expirations, invalidations);
+    }
+}
@@ -0,0 +1,952 @@
+package service;
+
+import database.DatabaseManager;
+import database.SchemaFeature;
+import database.YearPartitions;
+import model.Flight;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link FlightRepository} reading the SQLite database written by the importer.
+ * Adapts its SQL to the schema features the database was created with, and reads
+ * the delay rollup tables for the analyses when they exist.
+ */
+public class SqliteFlightRepository implements FlightRepository {
+
+    private final String dbUrl;
+    private final ReadConnectionPool pool;
+
+    /** True when the database stores delay minutes on Flight, see {@link SchemaFeature#WIDE_DELAYS}. */
+    private boolean wideDelays;
+
+    /** True when Flight refers to airlines and airports by ID, see {@link SchemaFeature#SURROGATE_KEYS}. */
+    private boolean surrogateKeys;
+    private final DimensionDictionary airlines = new DimensionDictionary("Airline", "airline_id");
+    private final DimensionDictionary airports = new DimensionDictionary("Airport", "airport_id");
+
+    /** True when the importer maintains the delay rollup tables, which the analyses then read. */
+    private boolean delayRollups;
+
+    /** True when flights are stored per year, see {@link SchemaFeature#YEAR_PARTITIONS}. */
+    private boolean partitioned;
+
+    /**
+     * Creates a repository reading the database through a pool of
+     * {@link ReadConnectionPool#DEFAULT_SIZE} connections.
+     * @param dbUrl JDBC URL of the database, e.g. jdbc:sqlite:flights.db
+     * @throws SQLException if a database access error occurs
+     */
+    public SqliteFlightRepository(String dbUrl) throws SQLException {
+        this(dbUrl, ReadConnectionPool.DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a repository reading the database through a pool of connections.
+     * Its methods may be called from several threads at once, up to the pool size
+     * running side by side.
+     * @param dbUrl JDBC URL of the database, e.g. jdbc:sqlite:flights.db
+     * @param poolSize the number of read connections
+     * @throws SQLException if a database access error occurs
+     */
+    public SqliteFlightRepository(String dbUrl, int poolSize) throws SQLException {
+        this.dbUrl = dbUrl;
+        this.pool = new ReadConnectionPool(dbUrl, poolSize);
+        try {
+            pool.withConnection(connection -> {
+                connect(connection);
+                return null;
+            });
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads which schema features the database was created with.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    private void connect(Connection connection) throws SQLException {
+        // Debug message to verify connection
+        System.out.println("Connected to database: " + dbUrl);
+        wideDelays = SchemaFeature.WIDE_DELAYS.isEnabled(connection);
+        surrogateKeys = SchemaFeature.SURROGATE_KEYS.isEnabled(connection);
+        partitioned = SchemaFeature.YEAR_PARTITIONS.isEnabled(connection);
+        if (surrogateKeys) {
+            loadDictionaries(connection);
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'Airline_Year_Delay'")) {
+            delayRollups = rs.next();
+        }
+    }
+
+    /**
+     * Reads the airline and airport tables into memory.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    private void loadDictionaries(Connection connection) throws SQLException {
+        airlines.load(connection);
+        airports.load(connection);
+    }
+
+    /**
+     * Finds dimension IDs for a search term, reloading the dictionaries once if
+     * nothing matches, in case airlines or airports were imported since they were read.
+     * @param connection the database connection
+     * @param dictionary the airline or airport dictionary
+     * @param exactCode code to match exactly, or null
+     * @param term the search term
+     * @param partialCode true to also match codes containing the term
+     * @return the matching IDs
+     * @throws SQLException if a database access error occurs
+     */
+    private List<Integer> findIds(Connection connection, DimensionDictionary dictionary, String exactCode, String term,
+                                  boolean partialCode) throws SQLException {
+        List<Integer> ids = dictionary.find(exactCode, term, partialCode);
+        if (ids.isEmpty()) {
+            loadDictionaries(connection);
+            ids = dictionary.find(exactCode, term, partialCode);
+        }
+        return ids;
+    }
+
+    /**
+     * Appends a filter restricting a surrogate key column to a set of IDs. The IDs are
+     * bound as one JSON array, so the SQL is the same however many there are.
+     * @param sqlBuilder the query being built
+     * @param params the query parameters
+     * @param column the Flight column
+     * @param ids the allowed IDs
+     */
+    private static void appendIdFilter(StringBuilder sqlBuilder, List<Object> params, String column, List<Integer> ids) {
+        if (ids.isEmpty()) {
+            sqlBuilder.append("AND 1=0 ");
+            return;
+        }
+        sqlBuilder.append("AND ").append(column).append(" IN (SELECT value FROM json_each(?)) ");
+        params.add(ids.toString());
+    }
+
+    /**
+     * Gets the pool the repository reads through, for its metrics.
+     * @return the connection pool
+     */
+    public ReadConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Gets the database's data version, which changes when another connection,
+     * such as an import, commits.
+     * @return the data version
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public long getDataVersion() throws SQLException {
+        return pool.dataVersion();
+    }
+
+    @Override
+    public long getImportGeneration() throws SQLException {
+        return pool.withConnection(DatabaseManager::readImportGeneration);
+    }
+
+    /**
+     * Closes the database connections, reporting the pool metrics.
+     */
+    @Override
+    public void close() {
+        System.out.println(pool.summaryLine());
+        pool.close();
+    }
+
+    @Override
+    public List<Flight> searchFlights(SearchCriteria criteria) throws SQLException {
+        return pool.withConnection(connection -> searchFlights(connection, criteria));
+    }
+
+    /**
+     * Searches for flights on a connection of the pool.
+     * @param connection the database connection
+     * @param criteria the search filters
+     * @return the matching flights, newest first
+     * @throws SQLException if a database access error occurs
+     */
+    private List<Flight> searchFlights(Connection connection, SearchCriteria criteria) throws SQLException {
+        String airline = criteria.getAirline();
+        String origin = criteria.getOrigin();
+        String destination = criteria.getDestination();
+        LocalDate startDate = criteria.getStartDate();
+        LocalDate endDate = criteria.getEndDate();
+        Integer minDelay = criteria.getMinDelay();
+        Integer maxDelay = criteria.getMaxDelay();
+        String delayReason = criteria.getDelayReason();
+
+        StringBuilder sqlBuilder = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+
+        // Base query; with surrogate keys, codes and names come from the dictionaries instead of joins
+        if (surrogateKeys) {
+            sqlBuilder.append(
+                    "SELECT f.flight_id, f.date, f.airline_id, f.flight_number, f.origin_id, f.destination_id, " +
+                            "f.scheduled_departure, f.actual_departure, f.scheduled_arrival, f.actual_arrival"
+            );
+        } else {
+            sqlBuilder.append(
+                    "SELECT f.flight_id, f.date, a.iata_code AS airline_code, a.name AS airline_name, " +
+                            "f.flight_number, o.iata_code AS origin_code, o.name AS origin_city, " +
+                            "d.iata_code AS dest_code, d.name AS dest_city, " +
+                            "f.scheduled_departure, f.actual_departure, f.scheduled_arrival, f.actual_arrival"
+            );
+        }
+        if (wideDelays) {
+            for (String reason : DatabaseManager.DELAY_REASONS) {
+                sqlBuilder.append(", f.").append(DatabaseManager.delayColumn(reason));
+            }
+        }
+        if (surrogateKeys) {
+            sqlBuilder.append(" FROM Flight f WHERE 1=1 ");
+        } else {
+            sqlBuilder.append(
+                    " FROM Flight f " +
+                            "JOIN Airline a ON f.airline_code = a.iata_code " +
+                            "JOIN Airport o ON f.flight_origin = o.iata_code " +
+                            "JOIN Airport d ON f.flight_destination = d.iata_code " +
+                            "WHERE 1=1 "
+            );
+        }
+
+        // Add filters based on provided criteria
+        if (surrogateKeys && airline != null && !airline.trim().isEmpty()) {
+            appendIdFilter(sqlBuilder, params, "f.airline_id", findIds(connection, airlines, null, airline.trim(), true));
+        } else if (airline != null && !airline.trim().isEmpty()) {
+            sqlBuilder.append("AND (a.iata_code LIKE ? OR a.name LIKE ?) ");
+            String pattern = "%" + airline.trim() + "%";
+            params.add(pattern);
+            params.add(pattern);
+        }
+
+        SearchCriteria.FlightNumber parsedFlightNumber = criteria.parseFlightNumber();
+        if (parsedFlightNumber == SearchCriteria.FlightNumber.NONE) {
+            // Not a flight number, add an impossible condition
+            sqlBuilder.append("AND 1=0 ");
+        } else if (parsedFlightNumber != null) {
+            // Flight numbers may have an airline code prefix (e.g., "AA123")
+            String airlineCode = parsedFlightNumber.getAirlineCode();
+            if (airlineCode != null && surrogateKeys) {
+                Integer airlineId = airlines.getId(airlineCode);
+                if (airlineId == null) {
+                    loadDictionaries(connection);
+                    airlineId = airlines.getId(airlineCode);
+                }
+                appendIdFilter(sqlBuilder, params, "f.airline_id",
+                        airlineId != null ? List.of(airlineId) : List.of());
+            } else if (airlineCode != null) {
+                sqlBuilder.append("AND a.iata_code = ? ");
+                params.add(airlineCode);
+            }
+            sqlBuilder.append("AND f.flight_number = ? ");
+            params.add(parsedFlightNumber.getNumber());
+        }
+
+        if (surrogateKeys && origin != null && !origin.trim().isEmpty()) {
+            appendIdFilter(sqlBuilder, params, "f.origin_id",
+                    findIds(connection, airports, origin.trim().toUpperCase(), origin.trim(), false));
+        } else if (origin != null && !origin.trim().isEmpty()) {
+            sqlBuilder.append("AND (o.iata_code = ? OR o.name LIKE ?) ");
+            params.add(origin.trim().toUpperCase());
+            params.add("%" + origin.trim() + "%");
+        }
+
+        if (surrogateKeys && destination != null && !destination.trim().isEmpty()) {
+            appendIdFilter(sqlBuilder, params, "f.destination_id",
+                    findIds(connection, airports, destination.trim().toUpperCase(), destination.trim(), false));
+        } else if (destination != null && !destination.trim().isEmpty()) {
+            sqlBuilder.append("AND (d.iata_code = ? OR d.name LIKE ?) ");
+            params.add(destination.trim().toUpperCase());
+            params.add("%" + destination.trim() + "%");
+        }
+
+        if (startDate != null) {
+            sqlBuilder.append("AND f.epoch_day >= ? ");
+            params.add(startDate.toEpochDay());
+        }
+
+        if (endDate != null) {
+            sqlBuilder.append("AND f.epoch_day <= ? ");
+            params.add(endDate.toEpochDay());
+        }
+
+        // Handle delay filters
+        if (wideDelays && (minDelay != null || maxDelay != null || delayReason != null)) {
+            appendWideDelayFilter(sqlBuilder, params, minDelay, maxDelay, delayReason);
+        } else if (minDelay != null || maxDelay != null || delayReason != null) {
+            sqlBuilder.append("AND EXISTS (SELECT 1 FROM Delay_Reason dr WHERE dr.flight_id = f.flight_id ");
+
+            if (delayReason != null && !delayReason.trim().isEmpty()) {
+                sqlBuilder.append("AND dr.reason = ? ");
+                params.add(delayReason.trim().toUpperCase());
+            }
+
+            if (minDelay != null) {
+                sqlBuilder.append("AND dr.delay_length >= ? ");
+                params.add(minDelay);
+            }
+
+            if (maxDelay != null) {
+                sqlBuilder.append("AND dr.delay_length <= ? ");
+                params.add(maxDelay);
+            }
+
+            sqlBuilder.append(") ");
+        }
+
+        // Add order by clause; the flight ID breaks ties so the flights at the limit are well defined
+        sqlBuilder.append("ORDER BY f.epoch_day DESC, f.scheduled_departure, f.flight_id LIMIT ?");
+
+        // Debug the SQL query
+        System.out.println("Search SQL: " + sqlBuilder.toString());
+
+        // With year partitions, query the years in the date range newest first, so the
+        // results come out in order and the search stops once the limit is reached
+        List<String> queries = new ArrayList<>();
+        if (partitioned) {
+            List<Integer> years = YearPartitions.years(connection);
+            for (int i = years.size() - 1; i >= 0; i--) {
+                int year = years.get(i);
+                if ((startDate == null || year >= startDate.getYear()) && (endDate == null || year <= endDate.getYear())) {
+                    queries.add(partitionSql(sqlBuilder.toString(), year));
+                }
+            }
+        } else {
+            queries.add(sqlBuilder.toString());
+        }
+
+        // Execute query
+        List<Flight> results = new ArrayList<>();
+        Map<Integer, Flight> flightMap = new HashMap<>();
+
+        for (String sql : queries) {
+            if (results.size() >= SEARCH_LIMIT) {
+                break;
+            }
+            PreparedStatement stmt = pool.prepare(connection, sql);
+            // Set parameters
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+                System.out.println("Param " + (i+1) + ": " + params.get(i));
+            }
+            stmt.setInt(params.size() + 1, SEARCH_LIMIT - results.size());
+
+            // Execute and process results
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Flight flight = mapResultSetToFlight(connection, rs);
+                    if (wideDelays) {
+                        for (String reason : DatabaseManager.DELAY_REASONS) {
+                            int delayLength = rs.getInt(DatabaseManager.delayColumn(reason));
+                            if (delayLength > 0) {
+                                flight.addDelay(new Flight.Delay(reason, delayLength));
+                            }
+                        }
+                    }
+                    results.add(flight);
+                    flightMap.put(flight.getFlightId(), flight);
+                }
+            }
+        }
+
+        System.out.println("Search found " + results.size() + " results");
+
+        // Fetch delay reasons for all found flights, already read from the row with wide delay columns
+        if (!results.isEmpty() && !wideDelays) {
+            fetchDelayReasons(connection, flightMap);
+        }
+
+        return results;
+    }
+
+    /**
+     * Points a search query at one year's partition instead of the Flight and Delay_Reason views.
+     * @param sql the search query
+     * @param year the year
+     * @return the query reading the year's tables
+     */
+    private static String partitionSql(String sql, int year) {
+        return sql.replace("FROM Flight f ", "FROM " + YearPartitions.flightTable(year) + " f ")
+                .replace("FROM Delay_Reason dr ", "FROM " + YearPartitions.delayTable(year) + " dr ");
+    }
+
+    /**
+     * Appends the delay filters for a database with wide delay columns. The conditions
+     * compare the Flight columns directly, so they can use the partial delay indices.
+     * A flight matches if one of its delays satisfies all given conditions.
+     * @param sqlBuilder the query being built
+     * @param params the query parameters
+     * @param minDelay minimum delay in minutes, or null
+     * @param maxDelay maximum delay in minutes, or null
+     * @param delayReason specific delay reason, or null or blank for any reason
+     */
+    private void appendWideDelayFilter(StringBuilder sqlBuilder, List<Object> params,
+                                       Integer minDelay, Integer maxDelay, String delayReason) {
+        List<String> columns = new ArrayList<>();
+        if (delayReason != null && !delayReason.trim().isEmpty()) {
+            String reason = delayReason.trim().toUpperCase();
+            if (!DatabaseManager.DELAY_REASONS.contains(reason)) {
+                // No flight has a delay with an unknown reason
+                sqlBuilder.append("AND 1=0 ");
+                return;
+            }
+            columns.add("f." + DatabaseManager.delayColumn(reason));
+        } else if (minDelay == null && maxDelay == null) {
+            sqlBuilder.append("AND f." + DatabaseManager.DELAY_TOTAL_COLUMN + " > 0 ");
+            return;
+        } else {
+            for (String reason : DatabaseManager.DELAY_REASONS) {
+                columns.add("f." + DatabaseManager.delayColumn(reason));
+            }
+        }
+
+        sqlBuilder.append("AND (");
+        for (int i = 0; i < columns.size(); i++) {
+            String column = columns.get(i);
+            if (i > 0) {
+                sqlBuilder.append(" OR ");
+            }
+            sqlBuilder.append("(").append(column).append(" > 0");
+            if (minDelay != null) {
+                sqlBuilder.append(" AND ").append(column).append(" >= ?");
+                params.add(minDelay);
+            }
+            if (maxDelay != null) {
+                sqlBuilder.append(" AND ").append(column).append(" <= ?");
+                params.add(maxDelay);
+            }
+            sqlBuilder.append(")");
+        }
+        sqlBuilder.append(") ");
+    }
+
+    /**
+     * Gets the join from Flight to its airline, as a.
+     * @return the join clause
+     */
+    private String airlineJoinSql() {
+        return surrogateKeys ? "JOIN Airline a ON f.airline_id = a.airline_id "
+                : "JOIN Airline a ON f.airline_code = a.iata_code ";
+    }
+
+    /**
+     * Gets the join from Flight to its origin airport, as o.
+     * @return the join clause
+     */
+    private String originJoinSql() {
+        return surrogateKeys ? "JOIN Airport o ON f.origin_id = o.airport_id "
+                : "JOIN Airport o ON f.flight_origin = o.iata_code ";
+    }
+
+    /**
+     * Gets the Flight column referring to the origin airport.
+     * @return the column name
+     */
+    private String originColumn() {
+        return surrogateKeys ? "origin_id" : "flight_origin";
+    }
+
+    /**
+     * Translates an airport code to the value stored in {@link #originColumn()}.
+     * @param connection the database connection
+     * @param airportCode the airport IATA code
+     * @return the code, or with surrogate keys its ID (0, matching nothing, if unknown)
+     * @throws SQLException if a database access error occurs
+     */
+    private Object originKey(Connection connection, String airportCode) throws SQLException {
+        if (!surrogateKeys) {
+            return airportCode;
+        }
+        Integer id = airports.getId(airportCode);
+        if (id == null) {
+            loadDictionaries(connection);
+            id = airports.getId(airportCode);
+        }
+        return id != null ? id : 0;
+    }
+
+    /**
+     * Gets the join that makes delays available to the analysis queries.
+     * @return the join clause, empty with wide delay columns
+     */
+    private String delayJoinSql() {
+        return wideDelays ? "" : "JOIN Delay_Reason dr ON f.flight_id = dr.flight_id ";
+    }
+
+    /**
+     * Gets the condition restricting the analysis queries to delayed flights.
+     * @return the condition, starting with AND, or empty when the join already restricts them
+     */
+    private String delayedFlightSql() {
+        return wideDelays ? "AND f." + DatabaseManager.DELAY_TOTAL_COLUMN + " > 0 " : "";
+    }
+
+    /**
+     * Gets the aggregate counting the delays of a group, one per reason that applied.
+     * @return the aggregate expression
+     */
+    private String delayCountSql() {
+        if (!wideDelays) {
+            return "COUNT(*)";
+        }
+        StringBuilder count = new StringBuilder("SUM(");
+        for (int i = 0; i < DatabaseManager.DELAY_REASONS.size(); i++) {
+            if (i > 0) {
+                count.append(" + ");
+            }
+            count.append("(f.").append(DatabaseManager.delayColumn(DatabaseManager.DELAY_REASONS.get(i))).append(" > 0)");
+        }
+        return count.append(")").toString();
+    }
+
+    /**
+     * Gets the aggregate averaging the delays of a group. With wide delay columns
+     * it divides the total minutes by the number of delays, matching the average
+     * over Delay_Reason rows.
+     * @return the aggregate expression
+     */
+    private String averageDelaySql() {
+        if (!wideDelays) {
+            return "AVG(dr.delay_length)";
+        }
+        return "SUM(f." + DatabaseManager.DELAY_TOTAL_COLUMN + ") * 1.0 / " + delayCountSql();
+    }
+
+    /**
+     * Fetches delay reasons for the specified flights.
+     * @param connection the database connection
+     * @param flightMap map of flight IDs to Flight objects
+     * @throws SQLException if a database access error occurs
+     */
+    private void fetchDelayReasons(Connection connection, Map<Integer, Flight> flightMap) throws SQLException {
+        if (flightMap.isEmpty()) {
+            return;
+        }
+
+        // The IDs are bound as one JSON array, so the statement is the same for every search
+        PreparedStatement stmt = pool.prepare(connection,
+                "SELECT flight_id, reason, delay_length FROM Delay_Reason WHERE flight_id IN (SELECT value FROM json_each(?))");
+        stmt.setString(1, flightMap.keySet().toString());
+        try (ResultSet rs = stmt.executeQuery()) {
+
+            while (rs.next()) {
+                int flightId = rs.getInt("flight_id");
+                String reason = rs.getString("reason");
+                int delayLength = rs.getInt("delay_length");
+
+                Flight flight = flightMap.get(flightId);
+                if (flight != null) {
+                    flight.addDelay(new Flight.Delay(reason, delayLength));
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a database result set row to a Flight object.
+     * @param connection the database connection
+     * @param rs the result set
+     * @return a Flight object
+     * @throws SQLException if a database access error occurs
+     */
+    private Flight mapResultSetToFlight(Connection connection, ResultSet rs) throws SQLException {
+        Flight flight = new Flight();
+
+        flight.setFlightId(rs.getInt("flight_id"));
+        flight.setDateFromString(rs.getString("date"));
+        flight.setFlightNumber(rs.getInt("flight_number"));
+        if (surrogateKeys) {
+            int airlineId = rs.getInt("airline_id");
+            int originId = rs.getInt("origin_id");
+            int destinationId = rs.getInt("destination_id");
+            if (!airlines.contains(airlineId) || !airports.contains(originId) || !airports.contains(destinationId)) {
+                // Imported after the dictionaries were read
+                loadDictionaries(connection);
+            }
+            flight.setAirlineCode(airlines.getCode(airlineId));
+            flight.setAirlineName(airlines.getName(airlineId));
+            flight.setOriginCode(airports.getCode(originId));
+            flight.setOriginCity(airports.getName(originId));
+            flight.setDestCode(airports.getCode(destinationId));
+            flight.setDestCity(airports.getName(destinationId));
+        } else {
+            flight.setAirlineCode(rs.getString("airline_code"));
+            flight.setAirlineName(rs.getString("airline_name"));
+            flight.setOriginCode(rs.getString("origin_code"));
+            flight.setOriginCity(rs.getString("origin_city"));
+            flight.setDestCode(rs.getString("dest_code"));
+            flight.setDestCity(rs.getString("dest_city"));
+        }
+        flight.setScheduledDeparture(rs.getInt("scheduled_departure"));
+        flight.setActualDeparture(rs.getInt("actual_departure"));
+        flight.setScheduledArrival(rs.getInt("scheduled_arrival"));
+        flight.setActualArrival(rs.getInt("actual_arrival"));
+
+        return flight;
+    }
+
+    @Override
+    public List<String> getAirlines() throws SQLException {
+        return pool.withConnection(this::getAirlines);
+    }
+
+    /**
+     * Lists the airlines on a connection of the pool.
+     * @param connection the database connection
+     * @return the airlines as "code - name"
+     * @throws SQLException if a database access error occurs
+     */
+    private List<String> getAirlines(Connection connection) throws SQLException {
+        List<String> airlines = new ArrayList<>();
+
+        try (ResultSet rs = pool.prepare(connection, "SELECT iata_code, name FROM Airline ORDER BY name, iata_code").executeQuery()) {
+
+            while (rs.next()) {
+                String code = rs.getString("iata_code");
+                String name = rs.getString("name");
+                airlines.add(code + " - " + name);
+            }
+        }
+
+        System.out.println("Found " + airlines.size() + " airlines");
+        return airlines;
+    }
+
+    @Override
+    public List<String> getAirports() throws SQLException {
+        return pool.withConnection(this::getAirports);
+    }
+
+    /**
+     * Lists the airports on a connection of the pool.
+     * @param connection the database connection
+     * @return the airports as "code - name"
+     * @throws SQLException if a database access error occurs
+     */
+    private List<String> getAirports(Connection connection) throws SQLException {
+        List<String> airports = new ArrayList<>();
+
+        try (ResultSet rs = pool.prepare(connection, "SELECT iata_code, name FROM Airport ORDER BY name, iata_code").executeQuery()) {
+
+            while (rs.next()) {
+                String code = rs.getString("iata_code");
+                String name = rs.getString("name");
+                airports.add(code + " - " + name);
+            }
+        }
+
+        System.out.println("Found " + airports.size() + " airports");
+        return airports;
+    }
+
+    @Override
+    public Map<String, Double> getAverageDelayByAirline(int year) throws SQLException {
+        return pool.withConnection(connection -> getAverageDelayByAirline(connection, year));
+    }
+
+    /**
+     * Calculates average delay by airline on a connection of the pool.
+     * @param connection the database connection
+     * @param year the year to analyze
+     * @return map of airline names to average delay in minutes
+     * @throws SQLException if a database access error occurs
+     */
+    private Map<String, Double> getAverageDelayByAirline(Connection connection, int year) throws SQLException {
+        Map<String, Double> results = new HashMap<>();
+
+        // Calculate delays from the rollup table, or by looking at delay_reason table
+        String sql = delayRollups
+                ? "SELECT a.name AS airline_name, " +
+                        "SUM(r.delay_sum) * 1.0 / SUM(r.delay_count) AS avg_delay " +
+                        "FROM Airline_Year_Delay r " +
+                        "JOIN Airline a ON r.airline_code = a.iata_code " +
+                        "WHERE r.year = ? " +
+                        "GROUP BY a.name " +
+                        "HAVING SUM(r.delay_count) > 1 " +
+                        "ORDER BY avg_delay DESC"
+                : "SELECT a.name AS airline_name, " +
+                        averageDelaySql() + " AS avg_delay " +
+                        "FROM Flight f " +
+                        airlineJoinSql() +
+                        delayJoinSql() +
+                        "WHERE f.year = ? " +
+                        delayedFlightSql() +
+                        "GROUP BY a.name " +
+                        "HAVING " + delayCountSql() + " > 1 " + // Reduce threshold to show more airlines
+                        "ORDER BY avg_delay DESC";
+
+        System.out.println("Airline analysis SQL: " + sql);
+        System.out.println("Year: " + year);
+
+        PreparedStatement stmt = pool.prepare(connection, sql);
+        stmt.setInt(1, year);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String airlineName = rs.getString("airline_name");
+                double avgDelay = rs.getDouble("avg_delay");
+                results.put(airlineName, avgDelay);
+                System.out.println("Airline: " + airlineName + ", Avg Delay: " + avgDelay);
+            }
+        }
+
+        // If no results from delay_reason, use the arrival delay computed at import
+        if (results.isEmpty()) {
+            // Fallback approach - Calculate approximate delays
+            System.out.println("No delay_reason data found. Trying fallback approach...");
+
+            sql = delayRollups
+                    ? "SELECT a.name AS airline_name, " +
+                            "SUM(r.arrival_delay_sum) * 1.0 / SUM(r.arrival_count) AS avg_delay " +
+                            "FROM Airline_Year_Delay r " +
+                            "JOIN Airline a ON r.airline_code = a.iata_code " +
+                            "WHERE r.year = ? " +
+                            "GROUP BY a.name " +
+                            "HAVING SUM(r.arrival_count) > 1 " +
+                            "ORDER BY avg_delay DESC"
+                    : "SELECT a.name AS airline_name, " +
+                            "AVG(MAX(f.arrival_delay, 0)) AS avg_delay " +
+                            "FROM Flight f " +
+                            airlineJoinSql() +
+                            "WHERE f.year = ? " +
+                            "AND f.arrival_delay IS NOT NULL " +
+                            "GROUP BY a.name " +
+                            "HAVING COUNT(*) > 1 " +
+                            "ORDER BY avg_delay DESC";
+
+            PreparedStatement fallbackStmt = pool.prepare(connection, sql);
+            fallbackStmt.setInt(1, year);
+
+            try (ResultSet rs = fallbackStmt.executeQuery()) {
+                while (rs.next()) {
+                    String airlineName = rs.getString("airline_name");
+                    double avgDelay = rs.getDouble("avg_delay");
+
+                    results.put(airlineName, avgDelay);
+                    System.out.println("Fallback - Airline: " + airlineName + ", Avg Delay: " + avgDelay);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public Map<String, Double> getAverageDelayByAirport(int year) throws SQLException {
+        return pool.withConnection(connection -> getAverageDelayByAirport(connection, year));
+    }
+
+    /**
+     * Calculates average delay by departure airport on a connection of the pool.
+     * @param connection the database connection
+     * @param year the year to analyze
+     * @return map of airport names to average delay in minutes
+     * @throws SQLException if a database access error occurs
+     */
+    private Map<String, Double> getAverageDelayByAirport(Connection connection, int year) throws SQLException {
+        Map<String, Double> results = new HashMap<>();
+
+        // Calculate delays from the rollup table, or by looking at delay_reason table
+        String sql = delayRollups
+                ? "SELECT o.name AS airport_name, " +
+                        "SUM(r.delay_sum) * 1.0 / SUM(r.delay_count) AS avg_delay " +
+                        "FROM Origin_Year_Delay r " +
+                        "JOIN Airport o ON r.origin_code = o.iata_code " +
+                        "WHERE r.year = ? " +
+                        "GROUP BY o.name " +
+                        "HAVING SUM(r.delay_count) > 1 " +
+                        "ORDER BY avg_delay DESC " +
+                        "LIMIT 20"
+                : "SELECT o.name AS airport_name, " +
+                        averageDelaySql() + " AS avg_delay " +
+                        "FROM Flight f " +
+                        originJoinSql() +
+                        delayJoinSql() +
+                        "WHERE f.year = ? " +
+                        delayedFlightSql() +
+                        "GROUP BY o.name " +
+                        "HAVING " + delayCountSql() + " > 1 " + // Reduce threshold to show more airports
+                        "ORDER BY avg_delay DESC " +
+                        "LIMIT 20"; // Focus on top 20 for readability
+
+        System.out.println("Airport analysis SQL: " + sql);
+
+        PreparedStatement stmt = pool.prepare(connection, sql);
+        stmt.setInt(1, year);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String airportName = rs.getString("airport_name");
+                double avgDelay = rs.getDouble("avg_delay");
+                results.put(airportName, avgDelay);
+                System.out.println("Airport: " + airportName + ", Avg Delay: " + avgDelay);
+            }
+        }
+
+        // If no results from delay_reason, use the arrival delay computed at import
+        if (results.isEmpty()) {
+            // Fallback approach - Calculate approximate delays
+            System.out.println("No delay_reason data found. Trying fallback approach...");
+
+            sql = delayRollups
+                    ? "SELECT o.name AS airport_name, " +
+                            "SUM(r.arrival_delay_sum) * 1.0 / SUM(r.arrival_count) AS avg_delay " +
+                            "FROM Origin_Year_Delay r " +
+                            "JOIN Airport o ON r.origin_code = o.iata_code " +
+                            "WHERE r.year = ? " +
+                            "GROUP BY o.name " +
+                            "HAVING SUM(r.arrival_count) > 1 " +
+                            "ORDER BY avg_delay DESC " +
+                            "LIMIT 20"
+                    : "SELECT o.name AS airport_name, " +
+                            "AVG(MAX(f.arrival_delay, 0)) AS avg_delay " +
+                            "FROM Flight f " +
+                            originJoinSql() +
+                            "WHERE f.year = ? " +
+                            "AND f.arrival_delay IS NOT NULL " +
+                            "GROUP BY o.name " +
+                            "HAVING COUNT(*) > 1 " +
+                            "ORDER BY avg_delay DESC " +
+                            "LIMIT 20";
+
+            PreparedStatement fallbackStmt = pool.prepare(connection, sql);
+            fallbackStmt.setInt(1, year);
+
+            try (ResultSet rs = fallbackStmt.executeQuery()) {
+                while (rs.next()) {
+                    String airportName = rs.getString("airport_name");
+                    double avgDelay = rs.getDouble("avg_delay");
+
+                    results.put(airportName, avgDelay);
+                    System.out.println("Fallback - Airport: " + airportName + ", Avg Delay: " + avgDelay);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public Map<String, Double> getDelaysByMonth(String airportCode, int startYear, int endYear) throws SQLException {
+        return pool.withConnection(connection -> getDelaysByMonth(connection, airportCode, startYear, endYear));
+    }
+
+    /**
+     * Calculates average delays by month for an airport on a connection of the pool.
+     * @param connection the database connection
+     * @param airportCode the airport code
+     * @param startYear the start year for analysis
+     * @param endYear the end year for analysis
+     * @return map of month-year to average delay in minutes
+     * @throws SQLException if a database access error occurs
+     */
+    private Map<String, Double> getDelaysByMonth(Connection connection, String airportCode, int startYear, int endYear) throws SQLException {
+        Map<String, Double> results = new HashMap<>();
+
+        // Calculate delays from the rollup table, or by looking at delay_reason table
+        String sql = delayRollups
+                ? "SELECT r.year, r.month, " +
+                        "r.delay_sum * 1.0 / r.delay_count AS avg_delay " +
+                        "FROM Origin_Month_Delay r " +
+                        "WHERE r.origin_code = ? " +
+                        "AND r.year BETWEEN ? AND ? " +
+                        "AND r.delay_count > 0 " +
+                        "ORDER BY r.year, r.month"
+                : "SELECT f.year, f.month, " +
+                        averageDelaySql() + " AS avg_delay " +
+                        "FROM Flight f " +
+                        delayJoinSql() +
+                        "WHERE f." + originColumn() + " = ? " +
+                        "AND f.year BETWEEN ? AND ? " +
+                        delayedFlightSql() +
+                        "GROUP BY f.year, f.month " +
+                        "ORDER BY f.year, f.month";
+
+        System.out.println("Time series SQL: " + sql);
+        System.out.println("Airport: " + airportCode + ", Years: " + startYear + "-" + endYear);
+
+        PreparedStatement stmt = pool.prepare(connection, sql);
+        stmt.setObject(1, delayRollups ? airportCode : originKey(connection, airportCode));
+        stmt.setInt(2, startYear);
+        stmt.setInt(3, endYear);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                double avgDelay = rs.getDouble("avg_delay");
+
+                // Format month-year for display
+                String formattedMonthYear = formatMonthYear(rs.getInt("year"), rs.getInt("month"));
+                results.put(formattedMonthYear, avgDelay);
+                System.out.println("Month-Year: " + formattedMonthYear + ", Avg Delay: " + avgDelay);
+            }
+        }
+
+        // If no results from delay_reason, use the arrival delay computed at import
+        if (results.isEmpty()) {
+            // Fallback approach - Calculate approximate delays
+            System.out.println("No delay_reason data found. Trying fallback approach...");
+
+            sql = delayRollups
+                    ? "SELECT r.year, r.month, " +
+                            "r.arrival_delay_sum * 1.0 / r.arrival_count AS avg_delay " +
+                            "FROM Origin_Month_Delay r " +
+                            "WHERE r.origin_code = ? " +
+                            "AND r.year BETWEEN ? AND ? " +
+                            "AND r.arrival_count > 0 " +
+                            "ORDER BY r.year, r.month"
+                    : "SELECT f.year, f.month, " +
+                            "AVG(MAX(f.arrival_delay, 0)) AS avg_delay " +
+                            "FROM Flight f " +
+                            "WHERE f." + originColumn() + " = ? " +
+                            "AND f.year BETWEEN ? AND ? " +
+                            "AND f.arrival_delay IS NOT NULL " +
+                            "GROUP BY f.year, f.month " +
+                            "ORDER BY f.year, f.month";
+
+            PreparedStatement fallbackStmt = pool.prepare(connection, sql);
+            fallbackStmt.setObject(1, delayRollups ? airportCode : originKey(connection, airportCode));
+            fallbackStmt.setInt(2, startYear);
+            fallbackStmt.setInt(3, endYear);
+
+            try (ResultSet rs = fallbackStmt.executeQuery()) {
+                while (rs.next()) {
+                    double avgDelay = rs.getDouble("avg_delay");
+
+                    // Format month-year for display
+                    String formattedMonthYear = formatMonthYear(rs.getInt("year"), rs.getInt("month"));
+                    results.put(formattedMonthYear, avgDelay);
+                    System.out.println("Fallback - Month-Year: " + formattedMonthYear + ", Avg Delay: " + avgDelay);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Formats a month for the time series keys.
+     * @param year the year
+     * @param month the month, 1 to 12
+     * @return the month as MM/YYYY
+     */
+    private static String formatMonthYear(int year, int month) {
+        return (month < 10 ? "0" + month : String.valueOf(month)) + "/" + year;
+    }
+}
@@ -2,6 +2,9 @@ package test;
 
 import database.DatabaseManager;
 import database.CsvImporter;
+import database.SchemaFeature;
+import database.ShardedImporter;
+import database.YearPartitions;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -11,6 +14,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 
 /**
  * Test class for the Database Import functionality.
@@ -19,6 +23,11 @@ public class DatabaseImportTest {
 
     private static final String TEST_DB_URL = "jdbc:sqlite:test_flights.db";
     private static final String TEST_CSV_FILE = "test_flights.csv";
+    private static final String TEST_CSV_DIR = "test_flights_dir";
+    private static final String TEST_RESUME_CSV_FILE = "test_flights_resume.csv";
+    private static final String TEST_APPEND_CSV_FILE = "test_flights_append.csv";
+    private static final String TEST_BAD_CSV_FILE = "test_flights_bad.csv";
+    private static final String TEST_QUARANTINE_FILE = "test_flights_bad.rejects.csv";
 
     /**
      * Main method to run tests.
@@ -50,9 +59,139 @@ public class DatabaseImportTest {
             // Verify the imported data
             verifyImportedData(dbManager.getConnection());
 
+            // Optimizing swaps in a compacted copy with planner statistics and keeps every row
+            dbManager.optimize();
+            verifyImportedData(dbManager.getConnection());
+            try (Statement stmt = dbManager.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_stat1")) {
+                assert rs.next() && rs.getInt(1) > 0 : "Expected planner statistics after optimizing";
+                System.out.println("✓ Optimized database verified");
+            }
+
+            // A database another connection has open in WAL mode keeps its file instead of being swapped
+            dbManager.getConnection().setAutoCommit(true);
+            try (Statement stmt = dbManager.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA journal_mode = WAL")) {
+                assert rs.next() && "wal".equals(rs.getString(1)) : "Expected WAL mode";
+            } finally {
+                dbManager.getConnection().setAutoCommit(false);
+            }
+            try (Connection reader = java.sql.DriverManager.getConnection(TEST_DB_URL)) {
+                try (Statement stmt = reader.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Flight")) {
+                    rs.next();
+                }
+                dbManager.optimize();
+                assert !new File("test_flights.db.compact").exists() : "Expected the unused copy to be deleted";
+                try (Statement stmt = reader.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Flight")) {
+                    assert rs.next() && rs.getInt(1) == 3 : "Expected the open connection to still read the flights";
+                }
+                verifyImportedData(dbManager.getConnection());
+                System.out.println("✓ Database in use left uncompacted");
+            }
+
+            // Import again through the multi-threaded pipeline with batched inserts and verify the same data
+            dbManager.createSchema();
+            CsvImporter pipelineImporter = new CsvImporter(dbManager.getConnection());
+            pipelineImporter.setPipelineWorkers(2);
+            pipelineImporter.setInsertMode(CsvImporter.InsertMode.BATCH);
+            pipelineImporter.importCsv(TEST_CSV_FILE);
+            verifyImportedData(dbManager.getConnection());
+
+            // Import again through the memory-mapped tokenizer and verify the same data
+            dbManager.createSchema();
+            CsvImporter mappedImporter = new CsvImporter(dbManager.getConnection());
+            mappedImporter.setMappedInput(true);
+            mappedImporter.importCsv(TEST_CSV_FILE);
+            verifyImportedData(dbManager.getConnection());
+
+            // Resuming an interrupted import continues after its checkpoint, with both readers
+            verifyResume(dbManager, false);
+            verifyResume(dbManager, true);
+
+            // Appending the same file again must not add any rows
+            dbManager.createIndices();
+            CsvImporter appendImporter = new CsvImporter(dbManager.getConnection());
+            appendImporter.setAppendMode(true);
+            appendImporter.importCsv(TEST_CSV_FILE);
+            assert appendImporter.getDuplicateRows() == 3 : "Expected 3 duplicate rows";
+            verifyImportedData(dbManager.getConnection());
+
+            // A row repeated within one batch is skipped like a row stored before
+            verifyBatchAppend(dbManager);
+
+            // Rejected rows go to the quarantine file as they were, and can be imported again once fixed
+            verifyQuarantine(dbManager, false);
+            verifyQuarantine(dbManager, true);
+
+            // Import a gzip-compressed copy of the file and verify the same data
+            File gzipFile = new File(TEST_CSV_FILE + ".gz");
+            try (java.io.OutputStream out = new java.util.zip.GZIPOutputStream(new java.io.FileOutputStream(gzipFile))) {
+                java.nio.file.Files.copy(new File(TEST_CSV_FILE).toPath(), out);
+            }
+            dbManager.createSchema();
+            CsvImporter gzipImporter = new CsvImporter(dbManager.getConnection());
+            gzipImporter.importCsv(gzipFile.getPath());
+            verifyImportedData(dbManager.getConnection());
+
+            // Import the rows split over two files through two staging shards and verify the same data
+            File csvDir = createTestCsvDirectory();
+            dbManager.createSchema();
+            ShardedImporter shardedImporter = new ShardedImporter(dbManager.getConnection(), new File("."), 2);
+            shardedImporter.importDirectory(csvDir);
+            assert shardedImporter.getProcessedRows() == 3 : "Expected 3 processed rows";
+            verifyImportedData(dbManager.getConnection());
+
+            // Enabling wide delay columns fills them from the rows already imported
+            dbManager.enableFeature(SchemaFeature.WIDE_DELAYS);
+            verifyWideDelays(dbManager.getConnection());
+
+            // A fresh import with the feature enabled writes the columns directly
+            dbManager.createSchema();
+            dbManager.enableFeature(SchemaFeature.WIDE_DELAYS);
+            CsvImporter wideImporter = new CsvImporter(dbManager.getConnection());
+            wideImporter.setInsertMode(CsvImporter.InsertMode.BATCH);
+            wideImporter.importCsv(TEST_CSV_FILE);
+            verifyImportedData(dbManager.getConnection());
+            verifyWideDelays(dbManager.getConnection());
+
+            // With surrogate keys, both importers must assign IDs that Flight resolves through
+            dbManager.createSchema();
+            dbManager.enableFeature(SchemaFeature.SURROGATE_KEYS);
+            new CsvImporter(dbManager.getConnection()).importCsv(TEST_CSV_FILE);
+            verifyImportedData(dbManager.getConnection());
+            dbManager.createSchema();
+            dbManager.enableFeature(SchemaFeature.SURROGATE_KEYS);
+            new ShardedImporter(dbManager.getConnection(), new File("."), 2).importDirectory(csvDir);
+            verifyImportedData(dbManager.getConnection());
+            verifySurrogateKeys(dbManager.getConnection());
+
+            // With year partitions the rows are stored per year behind the Flight view, and
+            // dropping the year removes its flights and rollups; the sharded merge fills it again
+            dbManager.createSchema();
+            dbManager.enableFeature(SchemaFeature.YEAR_PARTITIONS);
+            new CsvImporter(dbManager.getConnection()).importCsv(TEST_CSV_FILE);
+            verifyImportedData(dbManager.getConnection());
+            assert YearPartitions.years(dbManager.getConnection()).equals(List.of(2021)) : "Expected one partition for 2021";
+            dbManager.dropYear(2021);
+            try (Statement stmt = dbManager.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                         "SELECT (SELECT COUNT(*) FROM Flight) + (SELECT COUNT(*) FROM Origin_Month_Delay)")) {
+                assert rs.next() && rs.getInt(1) == 0 : "Expected no flights or rollups after dropping 2021";
+                System.out.println("✓ Dropped year verified");
+            }
+            new ShardedImporter(dbManager.getConnection(), new File("."), 2).importDirectory(csvDir);
+            verifyImportedData(dbManager.getConnection());
+
             // Cleanup
             dbManager.disconnect();
             new File(TEST_CSV_FILE).delete(); // Delete test CSV file
+            gzipFile.delete();
+            for (File file : csvDir.listFiles()) {
+                file.delete();
+            }
+            csvDir.delete();
             new File("test_flights.db").delete(); // Delete test database
 
             System.out.println("All tests passed!");
@@ -83,12 +222,178 @@ public class DatabaseImportTest {
         System.out.println("Created test CSV file: " + TEST_CSV_FILE);
     }
 
+    /**
+     * Creates a directory holding the test rows split over two CSV files.
+     * @return the directory
+     * @throws IOException if an I/O error occurs
+     */
+    private static File createTestCsvDirectory() throws IOException {
+        File dir = new File(TEST_CSV_DIR);
+        dir.mkdirs();
+        java.util.List<String> lines = java.nio.file.Files.readAllLines(new File(TEST_CSV_FILE).toPath());
+        String header = lines.get(0) + "\n";
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dir, "part1.csv")))) {
+            writer.write(header);
+            writer.write(lines.get(1) + "\n");
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dir, "part2.csv")))) {
+            writer.write(header);
+            writer.write(lines.get(2) + "\n");
+            writer.write(lines.get(3) + "\n");
+        }
+        System.out.println("Created test CSV directory: " + TEST_CSV_DIR);
+        return dir;
+    }
+
+    /**
+     * Imports the first test row, then appends the other rows to the file and resumes,
+     * as if the first import had been interrupted after committing that row. The resumed
+     * import must start at its checkpoint, so no row is stored twice.
+     * @param dbManager the database manager
+     * @param mappedInput true to read the file through the memory-mapped tokenizer
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if a database access error occurs
+     */
+    private static void verifyResume(DatabaseManager dbManager, boolean mappedInput) throws IOException, SQLException {
+        java.util.List<String> lines = java.nio.file.Files.readAllLines(new File(TEST_CSV_FILE).toPath());
+        File resumeFile = new File(TEST_RESUME_CSV_FILE);
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(resumeFile))) {
+                writer.write(lines.get(0) + "\n");
+                writer.write(lines.get(1) + "\n");
+            }
+            dbManager.createSchema();
+            CsvImporter firstImporter = new CsvImporter(dbManager.getConnection());
+            firstImporter.setMappedInput(mappedInput);
+            firstImporter.importCsv(TEST_RESUME_CSV_FILE);
+            assert firstImporter.getProcessedRows() == 1 : "Expected 1 processed row before resuming";
+
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(resumeFile, true))) {
+                writer.write(lines.get(2) + "\n");
+                writer.write(lines.get(3) + "\n");
+            }
+            CsvImporter resumeImporter = new CsvImporter(dbManager.getConnection());
+            resumeImporter.setMappedInput(mappedInput);
+            resumeImporter.setResume(true);
+            resumeImporter.importCsv(TEST_RESUME_CSV_FILE);
+            assert resumeImporter.getProcessedRows() == 2 :
+                    "Expected the resumed import to process 2 rows, got " + resumeImporter.getProcessedRows();
+            verifyImportedData(dbManager.getConnection());
+            System.out.println("✓ Resumed " + (mappedInput ? "memory-mapped " : "") + "import verified");
+        } finally {
+            resumeFile.delete();
+        }
+    }
+
+    /**
+     * Appends a file in batch mode that holds a stored row and a new row twice, onto
+     * the three test rows. The second copy of the new row is still in the pending batch
+     * when it is looked up, and must be skipped all the same.
+     * @param dbManager the database manager, holding the test rows with indices
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if a database access error occurs
+     */
+    private static void verifyBatchAppend(DatabaseManager dbManager) throws IOException, SQLException {
+        java.util.List<String> lines = java.nio.file.Files.readAllLines(new File(TEST_CSV_FILE).toPath());
+        String newRow = "20210104,Delta Air Lines,DL,1235,ATL,Atlanta,LAX,Los Angeles,900,905,1200,1200,0,0,0,0,0,0";
+        File appendFile = new File(TEST_APPEND_CSV_FILE);
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(appendFile))) {
+                writer.write(lines.get(0) + "\n");
+                writer.write(lines.get(1) + "\n");
+                writer.write(newRow + "\n");
+                writer.write(newRow + "\n");
+            }
+            CsvImporter importer = new CsvImporter(dbManager.getConnection());
+            importer.setInsertMode(CsvImporter.InsertMode.BATCH);
+            importer.setAppendMode(true);
+            importer.importCsv(TEST_APPEND_CSV_FILE);
+            assert importer.getDuplicateRows() == 2 : "Expected 2 duplicate rows, got " + importer.getDuplicateRows();
+            try (Statement stmt = dbManager.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Flight")) {
+                assert rs.next() && rs.getInt(1) == 4 : "Expected 4 flights after the batch append";
+            }
+            System.out.println("✓ Batch append skipped the repeated row");
+        } finally {
+            appendFile.delete();
+        }
+    }
+
+    /**
+     * Imports the test rows with two bad ones added and checks the quarantine file: the
+     * header with SOURCE_LINE and REJECT_REASON in front, then each rejected row with its
+     * line number, reason and original text. Fixing the rows in the quarantine file and
+     * importing it must add them to the database.
+     * @param dbManager the database manager
+     * @param mappedInput true to read the file through the memory-mapped tokenizer
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if a database access error occurs
+     */
+    private static void verifyQuarantine(DatabaseManager dbManager, boolean mappedInput)
+            throws IOException, SQLException {
+        java.util.List<String> lines = java.nio.file.Files.readAllLines(new File(TEST_CSV_FILE).toPath());
+        String overflowRow = "20210104,Delta Air Lines,DL,9999999999,ATL,Atlanta,LAX,Los Angeles,900,910,1200,1210,0,0,0,0,0,0";
+        String letterRow = "20210105,Delta Air Lines,DL,12AB,ATL,Atlanta,LAX,Los Angeles,900,910,1200,1210,0,0,0,0,0,0";
+        File badFile = new File(TEST_BAD_CSV_FILE);
+        File quarantineFile = new File(TEST_QUARANTINE_FILE);
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(badFile))) {
+                for (String line : lines) {
+                    writer.write(line + "\n");
+                }
+                writer.write(overflowRow + "\n");
+                writer.write(letterRow + "\n");
+            }
+            dbManager.createSchema();
+            CsvImporter importer = new CsvImporter(dbManager.getConnection());
+            importer.setMappedInput(mappedInput);
+            importer.setQuarantineFile(TEST_QUARANTINE_FILE);
+            importer.importCsv(TEST_BAD_CSV_FILE);
+            verifyImportedData(dbManager.getConnection());
+
+            java.util.List<String> rejects = java.nio.file.Files.readAllLines(quarantineFile.toPath());
+            assert rejects.size() == 3 : "Expected a header and 2 rejected rows, got " + rejects;
+            assert rejects.get(0).equals("SOURCE_LINE,REJECT_REASON," + lines.get(0)) :
+                    "Unexpected quarantine header: " + rejects.get(0);
+            assert rejects.get(1).equals("5,\"invalid flight number: 9999999999\"," + overflowRow) :
+                    "Unexpected quarantined row: " + rejects.get(1);
+            assert rejects.get(2).equals("6,\"invalid flight number: 12AB\"," + letterRow) :
+                    "Unexpected quarantined row: " + rejects.get(2);
+            System.out.println("✓ Quarantine file verified");
+
+            // Fix the rows in place and import the quarantine file as is
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(quarantineFile))) {
+                writer.write(rejects.get(0) + "\n");
+                writer.write(rejects.get(1).replace(",9999999999,", ",2001,") + "\n");
+                writer.write(rejects.get(2).replace(",12AB,", ",2002,") + "\n");
+            }
+            dbManager.createIndices();
+            CsvImporter fixedImporter = new CsvImporter(dbManager.getConnection());
+            fixedImporter.setMappedInput(mappedInput);
+            fixedImporter.setAppendMode(true);
+            fixedImporter.importCsv(TEST_QUARANTINE_FILE);
+            assert fixedImporter.getProcessedRows() == 2 :
+                    "Expected 2 fixed rows, got " + fixedImporter.getProcessedRows();
+            try (Statement stmt = dbManager.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Flight WHERE flight_number IN (2001, 2002)")) {
+                assert rs.next() && rs.getInt(1) == 2 : "Expected the 2 fixed flights";
+            }
+            System.out.println("✓ Fixed quarantine file imported");
+        } finally {
+            badFile.delete();
+            quarantineFile.delete();
+        }
+    }
+
     /**
      * Verifies that data was correctly imported into the database.
      * @param connection the database connection
      * @throws SQLException if a database access error occurs
      */
     private static void verifyImportedData(Connection connection) throws SQLException {
+        String airlineJoin = SchemaFeature.SURROGATE_KEYS.isEnabled(connection)
+                ? "JOIN Airline a ON f.airline_id = a.airline_id "
+                : "JOIN Airline a ON f.airline_code = a.iata_code ";
         try (Statement stmt = connection.createStatement()) {
             // Check airlines
             try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Airline")) {
@@ -117,7 +422,7 @@ public class DatabaseImportTest {
             // Check specific flight details
             try (ResultSet rs = stmt.executeQuery(
                     "SELECT f.date, a.name, f.flight_number " +
-                            "FROM Flight f JOIN Airline a ON f.airline_code = a.iata_code " +
+                            "FROM Flight f " + airlineJoin +
                             "WHERE f.flight_number = 1234")) {
 
                 assert rs.next() : "Expected to find flight 1234";
@@ -126,6 +431,67 @@ public class DatabaseImportTest {
                 assert rs.getInt(3) == 1234 : "Expected flight number 1234, got " + rs.getInt(3);
                 System.out.println("✓ Flight details verified");
             }
+
+            // Check the columns derived from the date and times
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT epoch_day, year, month, departure_delay, arrival_delay FROM Flight " +
+                            "WHERE flight_number IN (1234, 5678) ORDER BY flight_number")) {
+
+                assert rs.next() : "Expected to find flight 1234";
+                assert rs.getInt(1) == 18628 : "Expected epoch day 18628, got " + rs.getInt(1);
+                assert rs.getInt(2) == 2021 && rs.getInt(3) == 1 : "Expected 2021-01, got " + rs.getInt(2) + "-" + rs.getInt(3);
+                assert rs.getInt(4) == 10 && rs.getInt(5) == 10 : "Expected 10 minute delays, got " + rs.getInt(4) + "/" + rs.getInt(5);
+                assert rs.next() : "Expected to find flight 5678";
+                assert rs.getInt(4) == 0 && rs.getInt(5) == -5 : "Expected 0/-5 minute delays, got " + rs.getInt(4) + "/" + rs.getInt(5);
+                System.out.println("✓ Derived date and delay columns verified");
+            }
+
+            // Check the delay rollups against the rows they summarize
+            for (String table : new String[]{"Airline_Year_Delay", "Origin_Year_Delay", "Origin_Month_Delay"}) {
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT (SELECT SUM(delay_sum) FROM " + table + ") = (SELECT SUM(delay_length) FROM Delay_Reason), " +
+                                "(SELECT SUM(delay_count) FROM " + table + ") = (SELECT COUNT(*) FROM Delay_Reason), " +
+                                "(SELECT SUM(arrival_count) FROM " + table + ") = (SELECT COUNT(arrival_delay) FROM Flight)")) {
+                    assert rs.next() && rs.getBoolean(1) && rs.getBoolean(2) && rs.getBoolean(3)
+                            : "Expected " + table + " to match the imported flights";
+                }
+            }
+            System.out.println("✓ Delay rollups verified");
+        }
+    }
+
+    /**
+     * Verifies that the wide delay columns on Flight match the Delay_Reason rows.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    private static void verifyWideDelays(Connection connection) throws SQLException {
+        assert SchemaFeature.WIDE_DELAYS.isEnabled(connection) : "Expected wide delays to be enabled";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT COUNT(*) FROM Flight f WHERE f.delay_total <> " +
+                             "COALESCE((SELECT SUM(delay_length) FROM Delay_Reason dr WHERE dr.flight_id = f.flight_id), 0) " +
+                             "OR f.delay_carrier + f.delay_weather + f.delay_nas + f.delay_security " +
+                             "+ f.delay_late_aircraft <> f.delay_total")) {
+            assert rs.next() && rs.getInt(1) == 0 : "Expected wide delay columns to match Delay_Reason";
+            System.out.println("✓ Wide delay columns verified");
+        }
+    }
+
+    /**
+     * Verifies that every Flight row refers to existing airline and airport IDs.
+     * @param connection the database connection
+     * @throws SQLException if a database access error occurs
+     */
+    private static void verifySurrogateKeys(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT COUNT(*) FROM Flight f " +
+                             "JOIN Airline a ON f.airline_id = a.airline_id " +
+                             "JOIN Airport o ON f.origin_id = o.airport_id " +
+                             "JOIN Airport d ON f.destination_id = d.airport_id")) {
+            assert rs.next() && rs.getInt(1) == 3 : "Expected all flights to resolve their surrogate keys";
+            System.out.println("✓ Surrogate keys verified");
         }
     }
 
@@ -1,18 +1,41 @@
 package test;
 
 import model.Flight;
+import database.CsvImporter;
+import database.DatabaseManager;
+import service.AnalysisResultCache;
 import service.FlightDataService;
+import service.ReadConnectionPool;
+import service.SearchResultCache;
+import service.SqliteFlightRepository;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Test class for the Flight Data Service functionality.
  */
 public class FlightDataServiceTest {
 
+    private static final String CACHE_TEST_CSV_FILE = "service_cache_test.csv";
+    private static final String CACHE_TEST_DB_FILE = "service_cache_test.db";
+    private static final String CACHE_TEST_ANALYSIS_FILE = CACHE_TEST_DB_FILE + "-analysis";
+
     /**
      * Main method to run tests.
      * @param args command line arguments (not used)
@@ -21,7 +44,8 @@ public class FlightDataServiceTest {
         System.out.println("Running Flight Data Service Tests...");
 
         try {
-            FlightDataService service = new FlightDataService();
+            // Analysis results stay in memory, so the test leaves no sidecar file next to flights.db
+            FlightDataService service = new FlightDataService(new SqliteFlightRepository("jdbc:sqlite:flights.db"));
 
             // Test basic queries
             testBasicQueries(service);
@@ -29,9 +53,23 @@ public class FlightDataServiceTest {
             // Test analysis queries
             testAnalysisQueries(service);
 
+            // Test queries from several threads at once
+            testConcurrentQueries(service);
+
             // Cleanup
             service.disconnect();
 
+            // Test the result caches on a scratch database, as the tests write to it
+            createCacheTestDatabase();
+            FlightDataService scratchService = openCacheTestService();
+            try {
+                testSearchCache(scratchService);
+                testAnalysisCache(scratchService);
+            } finally {
+                scratchService.disconnect();
+                deleteCacheTestDatabase();
+            }
+
             System.out.println("All tests passed!");
 
         } catch (Exception e) {
@@ -103,4 +141,188 @@ public class FlightDataServiceTest {
 
         System.out.println("Analysis query tests passed.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that searches and analyses run from several threads at once give the
+     * same results as run one after another, and that the connection pool
+     * records them.
+     * @param service the flight data service
+     * @throws Exception if a query fails
+     */
+    private static void testConcurrentQueries(FlightDataService service) throws Exception {
+        System.out.println("\nTesting concurrent queries...");
+
+        List<Callable<Object>> queries = new ArrayList<>();
+        queries.add(() -> service.searchFlights("DL", null, null, null, null, null, null, null, null).size());
+        queries.add(() -> service.searchFlights(null, null, "JFK", null, null, null, null, null, null).size());
+        queries.add(() -> service.searchFlights(null, null, null, "DEN", null, null, 30, null, "SECURITY").size());
+        queries.add(() -> service.getAverageDelayByAirline(2022).keySet());
+        queries.add(() -> service.getAverageDelayByAirport(2023).keySet());
+        queries.add(() -> service.getAirports().size());
+
+        List<Object> expected = new ArrayList<>();
+        for (Callable<Object> query : queries) {
+            expected.add(query.call());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            for (int round = 0; round < 3; round++) {
+                List<Callable<Object>> batch = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    batch.addAll(queries);
+                }
+                List<Future<Object>> results = executor.invokeAll(batch);
+                for (int i = 0; i < results.size(); i++) {
+                    assert results.get(i).get().equals(expected.get(i % queries.size()))
+                            : "Concurrent result differs for query " + (i % queries.size());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println("✓ Concurrent queries match sequential results");
+
+        if (service.getRepository() instanceof SqliteFlightRepository) {
+            ReadConnectionPool pool = ((SqliteFlightRepository) service.getRepository()).getConnectionPool();
+            assert pool.getInUse() == 0 : "Connections still in use: " + pool.getInUse();
+            assert pool.getOpenConnections() <= pool.getSize();
+            // Repeated searches and analyses come from the caches, the airport list reaches the pool every time
+            assert pool.getAcquisitions() >= 13L + 3 : "Too few acquisitions: " + pool.getAcquisitions();
+            // The airport list ran 13 times, so all but its first run on each connection reused the statement
+            assert pool.getStatementHits() >= 13 - pool.getSize() : "Statements not reused: " + pool.summaryLine();
+            System.out.println("✓ " + pool.summaryLine());
+        }
+
+        System.out.println("Concurrent query tests passed.");
+    }
+
+    /**
+     * Tests that repeated and equivalent searches are answered from the search
+     * cache, and that a change to the database drops the cached results.
+     * @param service the flight data service
+     * @throws SQLException if a database access error occurs
+     */
+    private static void testSearchCache(FlightDataService service) throws SQLException {
+        System.out.println("\nTesting search result cache...");
+
+        SearchResultCache cache = service.getSearchCache();
+        List<Flight> first = service.searchFlights("DL", null, "JFK", null, null, null, null, null, null);
+        assert first.size() == 2 : "Expected 2 Delta flights from JFK, got " + first.size();
+        long hits = cache.getHits();
+        List<Flight> again = service.searchFlights(" dl ", null, "jfk", "", null, null, null, null, null);
+        assert cache.getHits() == hits + 1 : "Equivalent search missed the cache";
+        assert again.equals(first) : "Cached search returned different flights";
+        assert cache.getBytes() > 0 && cache.getEntries() > 0 : "Cache holds nothing: " + cache.summaryLine();
+        System.out.println("✓ Equivalent search answered from cache");
+
+        // Any commit by another connection changes the data version
+        try (Connection writer = DriverManager.getConnection("jdbc:sqlite:" + CACHE_TEST_DB_FILE);
+             Statement stmt = writer.createStatement()) {
+            stmt.execute("CREATE TABLE Search_Cache_Probe (id INTEGER)");
+            stmt.execute("DROP TABLE Search_Cache_Probe");
+        }
+        long misses = cache.getMisses();
+        List<Flight> fresh = service.searchFlights("DL", null, "JFK", null, null, null, null, null, null);
+        assert cache.getMisses() == misses + 1 : "Search after a database change was served from cache";
+        assert cache.getInvalidations() > 0 : "Cache not invalidated: " + cache.summaryLine();
+        assert fresh.size() == first.size();
+        System.out.println("✓ Database change invalidated the cache");
+
+        System.out.println("✓ " + cache.summaryLine());
+        System.out.println("Search cache tests passed.");
+    }
+
+    /**
+     * Tests that repeated analyses are answered from the analysis cache, that a new
+     * import generation drops the cached results, and that a restarted service reads
+     * them back from the sidecar file.
+     * @param service the flight data service
+     * @throws SQLException if a database access error occurs
+     */
+    private static void testAnalysisCache(FlightDataService service) throws SQLException {
+        System.out.println("\nTesting analysis result cache...");
+
+        AnalysisResultCache cache = service.getAnalysisCache();
+        Map<String, Double> first = service.getAverageDelayByAirline(2022);
+        long hits = cache.getHits();
+        assert service.getAverageDelayByAirline(2022).equals(first) : "Cached analysis returned different results";
+        assert cache.getHits() == hits + 1 : "Repeated analysis missed the cache";
+        System.out.println("✓ Repeated analysis answered from cache");
+
+        // What DataImportMain does after an import
+        DatabaseManager dbManager = new DatabaseManager(CACHE_TEST_DB_FILE);
+        dbManager.connect();
+        long generation = dbManager.advanceImportGeneration();
+        dbManager.disconnect();
+
+        long misses = cache.getMisses();
+        assert service.getAverageDelayByAirline(2022).equals(first);
+        assert cache.getMisses() == misses + 1 : "Analysis after an import was served from cache";
+        assert cache.getGeneration() == generation : "Cache not stamped with the new generation: " + cache.summaryLine();
+        System.out.println("✓ New import generation invalidated the cache");
+
+        // A restarted service answers from the sidecar file
+        FlightDataService restarted = openCacheTestService();
+        try {
+            assert restarted.getAverageDelayByAirline(2022).equals(first);
+            assert restarted.getAnalysisCache().getHits() == 1 : "Restarted service missed the cache: "
+                    + restarted.getAnalysisCache().summaryLine();
+        } finally {
+            restarted.disconnect();
+        }
+        System.out.println("✓ Restarted service answered from the sidecar file");
+
+        System.out.println("✓ " + cache.summaryLine());
+        System.out.println("Analysis cache tests passed.");
+    }
+
+    /**
+     * Creates the scratch database of the cache tests: four flights of two airlines.
+     * @throws IOException if the CSV file cannot be written or read
+     * @throws SQLException if a database access error occurs
+     */
+    private static void createCacheTestDatabase() throws IOException, SQLException {
+        deleteCacheTestDatabase();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(CACHE_TEST_CSV_FILE))) {
+            writer.write("FL_DATE,AIRLINE,AIRLINE_CODE,FL_NUMBER,ORIGIN,ORIGIN_CITY,DEST,DEST_CITY," +
+                    "CRS_DEP_TIME,DEP_TIME,CRS_ARR_TIME,ARR_TIME,CANCELLED," +
+                    "DELAY_DUE_CARRIER,DELAY_DUE_WEATHER,DELAY_DUE_NAS,DELAY_DUE_SECURITY," +
+                    "DELAY_DUE_LATE_AIRCRAFT\n");
+            writer.write("20220110,Delta Air Lines,DL,100,JFK,\"New York, NY\",ATL,\"Atlanta, GA\",800,830,1000,1040,0,30,0,10,0,0\n");
+            writer.write("20220111,Delta Air Lines,DL,101,JFK,\"New York, NY\",ATL,\"Atlanta, GA\",900,900,1100,1055,0,0,0,0,0,0\n");
+            writer.write("20220112,Delta Air Lines,DL,102,ATL,\"Atlanta, GA\",JFK,\"New York, NY\",900,920,1100,1125,0,20,0,0,0,5\n");
+            writer.write("20220220,JetBlue Airways,B6,200,JFK,\"New York, NY\",FLL,\"Fort Lauderdale, FL\",900,1100,1200,1400,0,60,0,0,0,60\n");
+        }
+        DatabaseManager dbManager = new DatabaseManager(CACHE_TEST_DB_FILE);
+        dbManager.connect();
+        try {
+            dbManager.createSchema();
+            new CsvImporter(dbManager.getConnection()).importCsv(CACHE_TEST_CSV_FILE);
+            dbManager.createIndices();
+        } finally {
+            dbManager.disconnect();
+        }
+    }
+
+    /**
+     * Opens a service on the scratch database, with its own analysis cache sidecar file.
+     * @return the flight data service
+     * @throws SQLException if a database access error occurs
+     */
+    private static FlightDataService openCacheTestService() throws SQLException {
+        return new FlightDataService(new SqliteFlightRepository("jdbc:sqlite:" + CACHE_TEST_DB_FILE),
+                Path.of(CACHE_TEST_ANALYSIS_FILE));
+    }
+
+    /**
+     * Deletes the scratch database of the cache tests and the files next to it.
+     */
+    private static void deleteCacheTestDatabase() {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(CACHE_TEST_DB_FILE + suffix).delete();
+        }
+        new File(CACHE_TEST_ANALYSIS_FILE).delete();
+        new File(CACHE_TEST_CSV_FILE).delete();
+    }
+}
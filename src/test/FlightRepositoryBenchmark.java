@@ -0,0 +1,138 @@
+package test;
+
+import service.ColumnarFlightRepository;
+import service.FlightRepository;
+import service.SearchCriteria;
+import service.SqliteFlightRepository;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark for {@link FlightRepository} engines: times the searches of
+ * {@link FlightRepositoryConformance#queryMix()} and the three analyses on an
+ * imported database, so engines can be compared on the same query mix.
+ * <p>
+ * Usage: {@code FlightRepositoryBenchmark [database file] [engine...]}, by default
+ * flights.db and every engine.
+ */
+public class FlightRepositoryBenchmark {
+
+    /** Engines the benchmark can open. */
+    private static final List<String> ENGINES = List.of("sqlite", "columnar");
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int TIMED_RUNS = 10;
+
+    /**
+     * Main method to run the benchmark.
+     * @param args optional database file, followed by the engines to run
+     */
+    public static void main(String[] args) {
+        String dbFile = args.length > 0 ? args[0] : "flights.db";
+        List<String> engines = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : ENGINES;
+
+        // The engines log every query; keep the report readable
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (String engine : engines) {
+                out.println("Engine " + engine + " on " + dbFile);
+                long openStart = System.nanoTime();
+                try (FlightRepository repository = open(engine, dbFile)) {
+                    out.printf("  %-60s %8.1f ms%n", "open", (System.nanoTime() - openStart) / 1e6);
+                    for (SearchCriteria criteria : FlightRepositoryConformance.queryMix()) {
+                        report(out, describe(criteria), () -> repository.searchFlights(criteria));
+                    }
+                    report(out, "getAverageDelayByAirline(2022)", () -> repository.getAverageDelayByAirline(2022));
+                    report(out, "getAverageDelayByAirport(2023)", () -> repository.getAverageDelayByAirport(2023));
+                    report(out, "getDelaysByMonth(LAX, 2019, 2023)", () -> repository.getDelaysByMonth("LAX", 2019, 2023));
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Opens an engine on a database file.
+     * @param engine the engine name, one of {@link #ENGINES}
+     * @param dbFile the database file
+     * @return the engine
+     * @throws SQLException if a database access error occurs
+     */
+    private static FlightRepository open(String engine, String dbFile) throws SQLException {
+        switch (engine) {
+            case "sqlite":
+                return new SqliteFlightRepository("jdbc:sqlite:" + dbFile);
+            case "columnar":
+                return new ColumnarFlightRepository("jdbc:sqlite:" + dbFile);
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine + ", expected one of " + ENGINES);
+        }
+    }
+
+    /** A query under test. */
+    private interface Query {
+        Object run() throws SQLException;
+    }
+
+    /**
+     * Runs a query a few times untimed, then times it and prints the median and maximum.
+     * @param out where to print the report
+     * @param name the name of the query in the report
+     * @param query the query
+     * @throws SQLException if a database access error occurs
+     */
+    private static void report(PrintStream out, String name, Query query) throws SQLException {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            query.run();
+        }
+        long[] times = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        out.printf("  %-60s %8.1f ms median %8.1f ms max%n", name, times[TIMED_RUNS / 2] / 1e6, times[TIMED_RUNS - 1] / 1e6);
+    }
+
+    /**
+     * Describes the filters of a search that are set.
+     * @param criteria the search filters
+     * @return e.g. "search origin=JFK minDelay=30"
+     */
+    private static String describe(SearchCriteria criteria) {
+        List<String> filters = new ArrayList<>();
+        addFilter(filters, "airline", criteria.getAirline());
+        addFilter(filters, "flight", criteria.getFlightNumber());
+        addFilter(filters, "origin", criteria.getOrigin());
+        addFilter(filters, "dest", criteria.getDestination());
+        addFilter(filters, "from", criteria.getStartDate());
+        addFilter(filters, "to", criteria.getEndDate());
+        addFilter(filters, "minDelay", criteria.getMinDelay());
+        addFilter(filters, "maxDelay", criteria.getMaxDelay());
+        addFilter(filters, "reason", criteria.getDelayReason());
+        return "search " + (filters.isEmpty() ? "(all)" : String.join(" ", filters));
+    }
+
+    /**
+     * Adds a filter to a description if it is set.
+     * @param filters the description being built
+     * @param name the filter name
+     * @param value the filter value, or null
+     */
+    private static void addFilter(List<String> filters, String name, Object value) {
+        if (value != null) {
+            filters.add(name + "=" + value);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package test;
+
+import database.CsvImporter;
+import database.DatabaseManager;
+import database.SchemaFeature;
+import model.Flight;
+import service.ColumnarFlightRepository;
+import service.FlightRepository;
+import service.SearchCriteria;
+import service.SqliteFlightRepository;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Conformance suite for {@link FlightRepository} engines. Every engine must pass
+ * {@link #checkFixedData(FlightRepository)} on the small hand-checked data set, and
+ * {@link #compare(FlightRepository, FlightRepository)} against the SQLite engine on
+ * a larger generated data set, over the searches of {@link #queryMix()}.
+ * <p>
+ * The main method runs the suite against the SQLite and columnar engines on every
+ * schema layout the importer can write.
+ */
+public class FlightRepositoryConformance {
+
+    private static final String FIXED_CSV_FILE = "conformance_fixed.csv";
+    private static final String GENERATED_CSV_FILE = "conformance_generated.csv";
+
+    private static final String CSV_HEADER = "FL_DATE,AIRLINE,AIRLINE_CODE,FL_NUMBER,ORIGIN,ORIGIN_CITY,DEST,DEST_CITY," +
+            "CRS_DEP_TIME,DEP_TIME,CRS_ARR_TIME,ARR_TIME,CANCELLED," +
+            "DELAY_DUE_CARRIER,DELAY_DUE_WEATHER,DELAY_DUE_NAS,DELAY_DUE_SECURITY," +
+            "DELAY_DUE_LATE_AIRCRAFT\n";
+
+    /**
+     * Main method to run the suite against the engines.
+     * @param args command line arguments (not used)
+     */
+    public static void main(String[] args) {
+        System.out.println("Running Flight Repository Conformance Tests...");
+
+        List<String> databases = new ArrayList<>();
+        try {
+            writeFixedCsvFile();
+            writeGeneratedCsvFile();
+
+            // The fixed data set, in every layout
+            for (SchemaFeature[] features : layouts()) {
+                String dbFile = importDatabase("conformance_fixed.db", FIXED_CSV_FILE, features);
+                databases.add(dbFile);
+                try (FlightRepository repository = new SqliteFlightRepository("jdbc:sqlite:" + dbFile)) {
+                    checkFixedData(repository);
+                }
+                try (FlightRepository repository = new ColumnarFlightRepository("jdbc:sqlite:" + dbFile)) {
+                    checkFixedData(repository);
+                }
+            }
+            dropRollupTables("conformance_fixed.db");
+            try (FlightRepository repository = new SqliteFlightRepository("jdbc:sqlite:conformance_fixed.db")) {
+                checkFixedData(repository);
+            }
+            System.out.println("✓ Fixed data set verified in every layout");
+
+            // The generated data set, every layout against the plain one
+            String referenceFile = importDatabase("conformance_reference.db", GENERATED_CSV_FILE);
+            databases.add(referenceFile);
+            try (FlightRepository reference = new SqliteFlightRepository("jdbc:sqlite:" + referenceFile)) {
+                for (SchemaFeature[] features : layouts()) {
+                    String dbFile = importDatabase("conformance_generated.db", GENERATED_CSV_FILE, features);
+                    databases.add(dbFile);
+                    try (FlightRepository candidate = new SqliteFlightRepository("jdbc:sqlite:" + dbFile)) {
+                        compare(reference, candidate);
+                    }
+                    try (FlightRepository candidate = new ColumnarFlightRepository("jdbc:sqlite:" + dbFile)) {
+                        compare(reference, candidate);
+                    }
+                }
+                dropRollupTables("conformance_generated.db");
+                try (FlightRepository candidate = new SqliteFlightRepository("jdbc:sqlite:conformance_generated.db")) {
+                    compare(reference, candidate);
+                }
+            }
+            System.out.println("✓ Generated data set matches in every layout");
+
+            System.out.println("All tests passed!");
+
+        } catch (Exception e) {
+            System.err.println("Test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            // Cleanup
+            new File(FIXED_CSV_FILE).delete();
+            new File(GENERATED_CSV_FILE).delete();
+            for (String dbFile : databases) {
+                new File(dbFile).delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the schema features of the layouts the suite covers, in the order the importer enables them.
+     * @return the feature sets, starting with the plain schema
+     */
+    private static List<SchemaFeature[]> layouts() {
+        return List.of(
+                new SchemaFeature[]{},
+                new SchemaFeature[]{SchemaFeature.WIDE_DELAYS},
+                new SchemaFeature[]{SchemaFeature.SURROGATE_KEYS},
+                new SchemaFeature[]{SchemaFeature.SURROGATE_KEYS, SchemaFeature.WIDE_DELAYS, SchemaFeature.YEAR_PARTITIONS}
+        );
+    }
+
+    /**
+     * Imports a CSV file into a new database.
+     * @param dbFile the database file, replaced if it exists
+     * @param csvFile the CSV file
+     * @param features schema features to enable before the import
+     * @return the database file
+     * @throws IOException if the CSV file cannot be read
+     * @throws SQLException if a database access error occurs
+     */
+    private static String importDatabase(String dbFile, String csvFile, SchemaFeature... features)
+            throws IOException, SQLException {
+        new File(dbFile).delete();
+        DatabaseManager dbManager = new DatabaseManager(dbFile);
+        dbManager.connect();
+        try {
+            dbManager.createSchema();
+            for (SchemaFeature feature : features) {
+                dbManager.enableFeature(feature);
+            }
+            new CsvImporter(dbManager.getConnection()).importCsv(csvFile);
+            dbManager.createIndices();
+        } finally {
+            dbManager.disconnect();
+        }
+        return dbFile;
+    }
+
+    /**
+     * Drops the delay rollup tables, so the analyses fall back to aggregating the flights.
+     * @param dbFile the database file
+     * @throws SQLException if a database access error occurs
+     */
+    private static void dropRollupTables(String dbFile) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DROP TABLE Airline_Year_Delay");
+            stmt.executeUpdate("DROP TABLE Origin_Year_Delay");
+            stmt.executeUpdate("DROP TABLE Origin_Month_Delay");
+        }
+    }
+
+    /**
+     * Writes the fixed data set: nine flights of two airlines between three airports,
+     * with delay reasons in 2022 and 2023 and only arrival delays in 2021.
+     * @throws IOException if an I/O error occurs
+     */
+    private static void writeFixedCsvFile() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FIXED_CSV_FILE))) {
+            writer.write(CSV_HEADER);
+            writer.write("20210601,Delta Air Lines,DL,300,ATL,\"Atlanta, GA\",JFK,\"New York, NY\",800,800,1000,1025,0,0,0,0,0,0\n");
+            writer.write("20210602,Delta Air Lines,DL,301,ATL,\"Atlanta, GA\",JFK,\"New York, NY\",900,900,1100,1055,0,0,0,0,0,0\n");
+            writer.write("20220110,Delta Air Lines,DL,100,ATL,\"Atlanta, GA\",JFK,\"New York, NY\",800,830,1000,1040,0,30,0,10,0,0\n");
+            writer.write("20220115,Delta Air Lines,DL,101,JFK,\"New York, NY\",ATL,\"Atlanta, GA\",1200,1200,1400,1350,0,0,0,0,0,0\n");
+            writer.write("20220220,JetBlue Airways,B6,200,JFK,\"New York, NY\",FLL,\"Fort Lauderdale, FL\",900,1100,1200,1400,0,60,0,0,0,60\n");
+            writer.write("20220221,JetBlue Airways,B6,201,JFK,\"New York, NY\",FLL,\"Fort Lauderdale, FL\",900,905,1200,1220,0,0,20,0,0,0\n");
+            writer.write("20230305,Delta Air Lines,DL,100,ATL,\"Atlanta, GA\",JFK,\"New York, NY\",800,800,1000,1015,0,0,0,0,15,0\n");
+            writer.write("20230306,Delta Air Lines,DL,100,ATL,\"Atlanta, GA\",JFK,\"New York, NY\",800,820,1000,1030,0,0,0,30,0,0\n");
+            writer.write("20230410,JetBlue Airways,B6,200,FLL,\"Fort Lauderdale, FL\",JFK,\"New York, NY\",2330,10,230,300,0,40,0,0,0,0\n");
+        }
+    }
+
+    /**
+     * Writes the generated data set: a few thousand flights over three years with the
+     * airlines and airports of {@link #queryMix()}, many of them sharing a date and
+     * departure time so the search limit and its tie-break are exercised.
+     * @throws IOException if an I/O error occurs
+     */
+    private static void writeGeneratedCsvFile() throws IOException {
+        String[][] airlines = {{"AA", "American Airlines"}, {"DL", "Delta Air Lines"}, {"B6", "JetBlue Airways"}, {"UA", "United Air Lines"}};
+        String[][] airports = {{"ATL", "Atlanta, GA"}, {"DEN", "Denver, CO"}, {"FLL", "Fort Lauderdale, FL"},
+                {"JFK", "New York, NY"}, {"LAX", "Los Angeles, CA"}, {"ORD", "Chicago, IL"}};
+        Random random = new Random(42);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(GENERATED_CSV_FILE))) {
+            writer.write(CSV_HEADER);
+            for (int i = 0; i < 6000; i++) {
+                LocalDate date = LocalDate.of(2021, 1, 1).plusDays(random.nextInt(3 * 365));
+                String[] airline = airlines[random.nextInt(airlines.length)];
+                String[] origin = airports[random.nextInt(airports.length)];
+                String[] destination = airports[random.nextInt(airports.length)];
+                int scheduledDeparture = (6 + random.nextInt(4)) * 100;
+                int departureDelay = random.nextInt(10) < 7 ? random.nextInt(10) : random.nextInt(180);
+                int scheduledArrival = scheduledDeparture + 300;
+                int arrivalDelay = departureDelay - 10 + random.nextInt(20);
+                StringBuilder delays = new StringBuilder();
+                for (int reason = 0; reason < DatabaseManager.DELAY_REASONS.size(); reason++) {
+                    delays.append(',').append(arrivalDelay >= 15 && random.nextBoolean() ? 1 + random.nextInt(arrivalDelay) : 0);
+                }
+                writer.write(date.toString().replace("-", "") + "," + airline[1] + "," + airline[0] + "," +
+                        (100 + random.nextInt(20)) + "," + origin[0] + ",\"" + origin[1] + "\"," +
+                        destination[0] + ",\"" + destination[1] + "\"," +
+                        scheduledDeparture + "," + addMinutes(scheduledDeparture, departureDelay) + "," +
+                        scheduledArrival + "," + addMinutes(scheduledArrival, arrivalDelay) + ",0" + delays + "\n");
+            }
+        }
+    }
+
+    /**
+     * Adds minutes to a time of day.
+     * @param time the time in HHMM format
+     * @param minutes the minutes to add, may be negative
+     * @return the time in HHMM format, wrapped around midnight
+     */
+    private static int addMinutes(int time, int minutes) {
+        int total = Math.floorMod(time / 100 * 60 + time % 100 + minutes, 1440);
+        return total / 60 * 100 + total % 60;
+    }
+
+    /**
+     * Gets the searches the engines are compared and benchmarked on: every filter
+     * alone and the combinations the search panel is used with.
+     * @return the search criteria
+     */
+    public static List<SearchCriteria> queryMix() {
+        return List.of(
+                new SearchCriteria(),
+                new SearchCriteria("DL", null, null, null, null, null, null, null, null),
+                new SearchCriteria("jet", null, null, null, null, null, null, null, null),
+                new SearchCriteria(null, "AA100", null, null, null, null, null, null, null),
+                new SearchCriteria(null, "105", null, null, null, null, null, null, null),
+                new SearchCriteria(null, "UA", null, null, null, null, null, null, null),
+                new SearchCriteria(null, null, "JFK", null, null, null, null, null, null),
+                new SearchCriteria(null, null, "chicago", null, null, null, null, null, null),
+                new SearchCriteria(null, null, null, "LAX", null, null, null, null, null),
+                new SearchCriteria(null, null, "JFK", null, LocalDate.of(2021, 11, 1), LocalDate.of(2021, 11, 30), null, null, null),
+                new SearchCriteria(null, null, null, null, LocalDate.of(2022, 12, 20), null, null, null, null),
+                new SearchCriteria(null, null, null, null, null, LocalDate.of(2021, 3, 31), null, null, null),
+                new SearchCriteria("B6", null, null, "FLL", null, null, 60, null, null),
+                new SearchCriteria(null, null, null, "DEN", null, null, 30, null, "SECURITY"),
+                new SearchCriteria(null, null, null, null, null, null, null, 15, null),
+                new SearchCriteria(null, null, null, null, null, null, 30, 120, null),
+                new SearchCriteria(null, null, null, null, null, null, null, null, "weather"),
+                new SearchCriteria(null, null, null, null, null, null, null, null, "BOGUS"),
+                new SearchCriteria("AA", null, "ORD", "ATL", LocalDate.of(2022, 1, 1), LocalDate.of(2022, 12, 31), 10, null, "NAS")
+        );
+    }
+
+    /**
+     * Checks an engine loaded with the fixed data set against the hand-computed answers.
+     * @param repository the engine
+     * @throws SQLException if a database access error occurs
+     */
+    public static void checkFixedData(FlightRepository repository) throws SQLException {
+        assert repository.getAirlines().equals(List.of("DL - Delta Air Lines", "B6 - JetBlue Airways"))
+                : "Unexpected airlines " + repository.getAirlines();
+        assert repository.getAirports().equals(List.of("ATL - Atlanta, GA", "FLL - Fort Lauderdale, FL", "JFK - New York, NY"))
+                : "Unexpected airports " + repository.getAirports();
+
+        List<Flight> all = repository.searchFlights(new SearchCriteria());
+        assert all.size() == 9 : "Expected 9 flights, got " + all.size();
+        assert describe(all.get(0)).equals("2023-04-10 B6 JetBlue Airways 200 FLL Fort Lauderdale, FL JFK New York, NY 2330 10 230 300 [CARRIER40]")
+                : "Unexpected newest flight " + describe(all.get(0));
+        assert describe(all.get(6)).equals("2022-01-10 DL Delta Air Lines 100 ATL Atlanta, GA JFK New York, NY 800 830 1000 1040 [CARRIER30, NAS10]")
+                : "Unexpected flight " + describe(all.get(6));
+        assert describe(all.get(8)).startsWith("2021-06-01 DL Delta Air Lines 300 ") : "Unexpected oldest flight " + describe(all.get(8));
+
+        assertCount(repository, new SearchCriteria("DL", null, null, null, null, null, null, null, null), 6);
+        assertCount(repository, new SearchCriteria("jet", null, null, null, null, null, null, null, null), 3);
+        assertCount(repository, new SearchCriteria(null, "DL100", null, null, null, null, null, null, null), 3);
+        assertCount(repository, new SearchCriteria(null, "100", null, null, null, null, null, null, null), 3);
+        assertCount(repository, new SearchCriteria(null, "XX", null, null, null, null, null, null, null), 0);
+        assertCount(repository, new SearchCriteria(null, null, "JFK", null, null, null, null, null, null), 3);
+        assertCount(repository, new SearchCriteria(null, null, "atlanta", null, null, null, null, null, null), 5);
+        assertCount(repository, new SearchCriteria(null, null, null, "FLL", null, null, null, null, null), 2);
+        assertCount(repository, new SearchCriteria(null, null, null, null,
+                LocalDate.of(2022, 2, 1), LocalDate.of(2022, 2, 28), null, null, null), 2);
+        assertCount(repository, new SearchCriteria(null, null, null, null, null, null, 40, null, null), 2);
+        assertCount(repository, new SearchCriteria(null, null, null, null, null, null, null, 15, null), 2);
+        assertCount(repository, new SearchCriteria(null, null, null, null, null, null, null, null, "weather"), 1);
+        assertCount(repository, new SearchCriteria(null, null, null, null, null, null, 35, null, "CARRIER"), 2);
+        assertCount(repository, new SearchCriteria(null, null, null, null, null, null, null, null, "BOGUS"), 0);
+
+        assertAverages(repository.getAverageDelayByAirline(2022), Map.of("Delta Air Lines", 20.0, "JetBlue Airways", 140.0 / 3));
+        assertAverages(repository.getAverageDelayByAirline(2023), Map.of("Delta Air Lines", 22.5));
+        assertAverages(repository.getAverageDelayByAirport(2022), Map.of("Atlanta, GA", 20.0, "New York, NY", 140.0 / 3));
+        assertAverages(repository.getAverageDelayByAirport(2023), Map.of("Atlanta, GA", 22.5));
+        assertAverages(repository.getDelaysByMonth("JFK", 2022, 2023), Map.of("02/2022", 140.0 / 3));
+        assertAverages(repository.getDelaysByMonth("ATL", 2022, 2023), Map.of("01/2022", 20.0, "03/2023", 22.5));
+
+        // 2021 has no delay reasons, so the analyses average the arrival delays, early arrivals counting as 0
+        assertAverages(repository.getAverageDelayByAirline(2021), Map.of("Delta Air Lines", 12.5));
+        assertAverages(repository.getAverageDelayByAirport(2021), Map.of("Atlanta, GA", 12.5));
+        assertAverages(repository.getDelaysByMonth("ATL", 2021, 2021), Map.of("06/2021", 12.5));
+
+        assertAverages(repository.getAverageDelayByAirline(2020), Map.of());
+        assertAverages(repository.getDelaysByMonth("XXX", 2021, 2023), Map.of());
+    }
+
+    /**
+     * Checks that an engine gives the same answers as a reference engine loaded with the same data.
+     * @param reference the reference engine
+     * @param candidate the engine under test
+     * @throws SQLException if a database access error occurs
+     */
+    public static void compare(FlightRepository reference, FlightRepository candidate) throws SQLException {
+        assert candidate.getAirlines().equals(reference.getAirlines()) : "Airlines differ";
+        assert candidate.getAirports().equals(reference.getAirports()) : "Airports differ";
+
+        for (SearchCriteria criteria : queryMix()) {
+            List<String> expected = describe(reference.searchFlights(criteria));
+            List<String> actual = describe(candidate.searchFlights(criteria));
+            assert actual.equals(expected) : "Search results differ for " + criteria +
+                    ": expected " + expected.size() + " flights, got " + actual.size();
+        }
+
+        for (int year = 2020; year <= 2024; year++) {
+            assertAverages(candidate.getAverageDelayByAirline(year), reference.getAverageDelayByAirline(year));
+            assertAverages(candidate.getAverageDelayByAirport(year), reference.getAverageDelayByAirport(year));
+        }
+        for (String airport : new String[]{"JFK", "ORD", "XXX"}) {
+            assertAverages(candidate.getDelaysByMonth(airport, 2021, 2023), reference.getDelaysByMonth(airport, 2021, 2023));
+            assertAverages(candidate.getDelaysByMonth(airport, 2022, 2022), reference.getDelaysByMonth(airport, 2022, 2022));
+        }
+    }
+
+    /**
+     * Checks the number of flights a search finds.
+     * @param repository the engine
+     * @param criteria the search filters
+     * @param expected the expected number of flights
+     * @throws SQLException if a database access error occurs
+     */
+    private static void assertCount(FlightRepository repository, SearchCriteria criteria, int expected) throws SQLException {
+        int actual = repository.searchFlights(criteria).size();
+        assert actual == expected : "Expected " + expected + " flights for " + criteria + ", got " + actual;
+    }
+
+    /**
+     * Checks analysis results, allowing for rounding differences in the averages.
+     * @param actual the results of the engine
+     * @param expected the expected results
+     */
+    private static void assertAverages(Map<String, Double> actual, Map<String, Double> expected) {
+        assert actual.keySet().equals(expected.keySet()) : "Expected groups " + expected.keySet() + ", got " + actual.keySet();
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            assert Math.abs(actual.get(entry.getKey()) - entry.getValue()) < 1e-9
+                    : "Expected " + entry + ", got " + actual.get(entry.getKey());
+        }
+    }
+
+    /**
+     * Describes search results by everything but the flight IDs, which differ between imports.
+     * @param flights the flights
+     * @return one description per flight, in result order
+     */
+    private static List<String> describe(List<Flight> flights) {
+        List<String> descriptions = new ArrayList<>();
+        for (Flight flight : flights) {
+            descriptions.add(describe(flight));
+        }
+        return descriptions;
+    }
+
+    /**
+     * Describes a flight by its date, airline, number, airports, times and delays.
+     * @param flight the flight
+     * @return the description
+     */
+    private static String describe(Flight flight) {
+        List<String> delays = new ArrayList<>();
+        for (Flight.Delay delay : flight.getDelays()) {
+            delays.add(delay.getReason() + delay.getMinutes());
+        }
+        delays.sort(null);
+        return flight.getDate() + " " + flight.getAirlineCode() + " " + flight.getAirlineName() + " " +
+                flight.getFlightNumber() + " " + flight.getOriginCode() + " " + flight.getOriginCity() + " " +
+                flight.getDestCode() + " " + flight.getDestCity() + " " +
+                flight.getScheduledDeparture() + " " + flight.getActualDeparture() + " " +
+                flight.getScheduledArrival() + " " + flight.getActualArrival() + " " + delays;
+    }
+}
@@ -0,0 +1,303 @@
+package test;
+
+import service.RowBitmap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Randomized test of {@link RowBitmap} against {@link BitSet}.
+ * <p>
+ * The generated sets mix sparse, dense and run-shaped blocks, blocks of exactly
+ * 4096 and 4097 rows around the array limit, runs across block boundaries and
+ * missing blocks, so that the set operations move rows between the array, bitset
+ * and run forms.
+ */
+public class RowBitmapTest {
+
+    private static final int ROUNDS = 500;
+    private static final int BLOCK_SIZE = 65536;
+    private static final int MAX_ARRAY_SIZE = 4096;
+
+    /**
+     * Main method to run tests.
+     * @param args command line arguments: optional random seed
+     */
+    public static void main(String[] args) {
+        System.out.println("Running Row Bitmap Tests...");
+
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        System.out.println("Random seed: " + seed);
+        Random random = new Random(seed);
+
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                BitSet left = randomRows(random);
+                BitSet right = randomRows(random);
+                RowBitmap leftBitmap = build(left);
+                RowBitmap rightBitmap = build(right);
+                String context = "round " + round;
+
+                verify(leftBitmap, left, context + " build");
+
+                BitSet expected = (BitSet) left.clone();
+                expected.and(right);
+                verify(leftBitmap.and(rightBitmap), expected, context + " and");
+
+                expected = (BitSet) left.clone();
+                expected.or(right);
+                verify(leftBitmap.or(rightBitmap), expected, context + " or");
+
+                expected = (BitSet) left.clone();
+                expected.andNot(right);
+                verify(leftBitmap.andNot(rightBitmap), expected, context + " andNot");
+
+                verifyForEach(random, leftBitmap, left, context);
+            }
+            System.out.println("✓ and, or, andNot and forEach match BitSet over " + ROUNDS + " rounds");
+
+            // The union of many sets goes through the n-way merge
+            for (int round = 0; round < ROUNDS / 10; round++) {
+                List<RowBitmap> bitmaps = new ArrayList<>();
+                BitSet expected = new BitSet();
+                int count = random.nextInt(6);
+                for (int i = 0; i < count; i++) {
+                    BitSet rows = randomRows(random);
+                    bitmaps.add(build(rows));
+                    expected.or(rows);
+                }
+                verify(RowBitmap.or(bitmaps), expected, "round " + round + " or of " + count);
+            }
+            System.out.println("✓ Union of several sets matches BitSet");
+
+            verifyEdges();
+            System.out.println("✓ Block and array limit edges verified");
+
+            System.out.println("All tests passed!");
+
+        } catch (Exception e) {
+            System.err.println("Test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Generates a set of rows over up to five blocks, each in one of several shapes.
+     * @param random the random source
+     * @return the rows
+     */
+    private static BitSet randomRows(Random random) {
+        BitSet rows = new BitSet();
+        int blocks = 1 + random.nextInt(5);
+        int key = random.nextInt(2);
+        for (int block = 0; block < blocks; block++) {
+            int base = key * BLOCK_SIZE;
+            switch (random.nextInt(6)) {
+                case 0:
+                    // Sparse: an array block
+                    addRandom(random, rows, base, 1 + random.nextInt(200));
+                    break;
+                case 1:
+                    // On either side of the array limit
+                    addRandom(random, rows, base, MAX_ARRAY_SIZE + random.nextInt(2));
+                    break;
+                case 2:
+                    // Dense: a bitset block
+                    for (int offset = 0; offset < BLOCK_SIZE; offset++) {
+                        if (random.nextBoolean()) {
+                            rows.set(base + offset);
+                        }
+                    }
+                    break;
+                case 3:
+                    // A few runs, the last one possibly reaching into the next block
+                    int runs = 1 + random.nextInt(4);
+                    for (int i = 0; i < runs; i++) {
+                        int start = base + random.nextInt(BLOCK_SIZE);
+                        rows.set(start, start + 1 + random.nextInt(8000));
+                    }
+                    break;
+                case 4:
+                    // The first and last rows of the block, alone or as a full block
+                    if (random.nextBoolean()) {
+                        rows.set(base, base + BLOCK_SIZE);
+                    } else {
+                        rows.set(base);
+                        rows.set(base + BLOCK_SIZE - 1);
+                    }
+                    break;
+                default:
+                    // Left empty
+                    break;
+            }
+            key += 1 + random.nextInt(2);
+        }
+        return rows;
+    }
+
+    /**
+     * Adds distinct random rows to a block.
+     * @param random the random source
+     * @param rows the set to add to
+     * @param base the first row of the block
+     * @param count the number of rows to add
+     */
+    private static void addRandom(Random random, BitSet rows, int base, int count) {
+        int added = 0;
+        while (added < count) {
+            int row = base + random.nextInt(BLOCK_SIZE);
+            if (!rows.get(row)) {
+                rows.set(row);
+                added++;
+            }
+        }
+    }
+
+    /**
+     * Builds a bitmap of the rows of a set.
+     * @param rows the rows
+     * @return the bitmap
+     */
+    private static RowBitmap build(BitSet rows) {
+        RowBitmap.Builder builder = new RowBitmap.Builder();
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            builder.add(row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks that a bitmap holds exactly the rows of a set, in ascending order.
+     * @param bitmap the bitmap
+     * @param expected the rows it should hold
+     * @param context what is checked, for the failure message
+     */
+    private static void verify(RowBitmap bitmap, BitSet expected, String context) {
+        assert bitmap.cardinality() == expected.cardinality() :
+                context + ": cardinality " + bitmap.cardinality() + ", expected " + expected.cardinality();
+        assert bitmap.isEmpty() == expected.isEmpty() : context + ": isEmpty " + bitmap.isEmpty();
+
+        BitSet actual = new BitSet();
+        int[] previous = {-1};
+        bitmap.forEach(0, Integer.MAX_VALUE, row -> {
+            assert row > previous[0] : context + ": row " + row + " after " + previous[0];
+            previous[0] = row;
+            actual.set(row);
+            return true;
+        });
+        assert actual.equals(expected) : context + ": rows differ";
+
+        for (int row = expected.nextSetBit(0); row >= 0; row = expected.nextSetBit(row + 1)) {
+            assert bitmap.contains(row) : context + ": missing row " + row;
+            assert row == 0 || bitmap.contains(row - 1) == expected.get(row - 1) : context + ": row " + (row - 1);
+            assert bitmap.contains(row + 1) == expected.get(row + 1) : context + ": row " + (row + 1);
+        }
+    }
+
+    /**
+     * Checks forEach over random ranges, many starting or ending at a block boundary,
+     * and with actions that stop early.
+     * @param random the random source
+     * @param bitmap the bitmap
+     * @param rows the rows it holds
+     * @param context the round, for the failure message
+     */
+    private static void verifyForEach(Random random, RowBitmap bitmap, BitSet rows, String context) {
+        int end = rows.length() + BLOCK_SIZE;
+        for (int i = 0; i < 20; i++) {
+            int from = rangeBound(random, end);
+            int to = rangeBound(random, end);
+            if (from > to) {
+                int swap = from;
+                from = to;
+                to = swap;
+            }
+            int limit = random.nextBoolean() ? 1 + random.nextInt(20) : Integer.MAX_VALUE;
+
+            List<Integer> expected = new ArrayList<>();
+            for (int row = rows.nextSetBit(from); row >= 0 && row < to && expected.size() < limit;
+                 row = rows.nextSetBit(row + 1)) {
+                expected.add(row);
+            }
+            List<Integer> actual = new ArrayList<>();
+            bitmap.forEach(from, to, row -> {
+                actual.add(row);
+                return actual.size() < limit;
+            });
+            assert actual.equals(expected) :
+                    context + ": forEach(" + from + ", " + to + ") with limit " + limit + " differs";
+        }
+    }
+
+    /**
+     * Picks a range bound: a block boundary, one row either side of it, or any row.
+     * @param random the random source
+     * @param end the largest bound
+     * @return the bound
+     */
+    private static int rangeBound(Random random, int end) {
+        int boundary = random.nextInt(end / BLOCK_SIZE + 1) * BLOCK_SIZE;
+        switch (random.nextInt(4)) {
+            case 0:
+                return boundary;
+            case 1:
+                return Math.max(boundary - 1, 0);
+            case 2:
+                return boundary + 1;
+            default:
+                return random.nextInt(end + 1);
+        }
+    }
+
+    /**
+     * Checks the cases at the edges of the layout: the array limit reached through
+     * a union and left through an intersection, a full block, the last rows of the
+     * int range and the empty set.
+     */
+    private static void verifyEdges() {
+        // Two arrays of 2048 rows unite to exactly 4096, one more row needs a bitset
+        BitSet even = new BitSet();
+        BitSet odd = new BitSet();
+        for (int row = 0; row < MAX_ARRAY_SIZE; row++) {
+            (row % 2 == 0 ? even : odd).set(row * 3);
+        }
+        BitSet extra = (BitSet) odd.clone();
+        extra.set(BLOCK_SIZE - 1);
+        BitSet expected = (BitSet) even.clone();
+        expected.or(odd);
+        verify(build(even).or(build(odd)), expected, "array limit union");
+        expected.or(extra);
+        verify(build(even).or(build(extra)), expected, "past array limit union");
+        verify(RowBitmap.or(List.of(build(even), build(odd), build(extra))), expected, "past array limit n-way union");
+
+        // A full block minus a bitset leaves a few rows; intersecting leaves a run
+        BitSet full = new BitSet();
+        full.set(BLOCK_SIZE, 2 * BLOCK_SIZE);
+        BitSet holes = (BitSet) full.clone();
+        holes.clear(BLOCK_SIZE + 10);
+        holes.clear(2 * BLOCK_SIZE - 1);
+        expected = (BitSet) full.clone();
+        expected.andNot(holes);
+        verify(build(full).andNot(build(holes)), expected, "full block andNot");
+        verify(build(full).and(build(holes)), holes, "full block and");
+
+        // The last block of the int range, too large for a BitSet to compare against
+        RowBitmap.Builder builder = new RowBitmap.Builder();
+        for (int row = Integer.MAX_VALUE - 100; row < Integer.MAX_VALUE; row++) {
+            builder.add(row);
+        }
+        RowBitmap top = builder.build();
+        assert top.cardinality() == 100 : "Top block cardinality " + top.cardinality();
+        assert top.contains(Integer.MAX_VALUE - 1) && !top.contains(Integer.MAX_VALUE) : "Top block rows differ";
+        assert !top.contains(-1) : "Negative row found";
+        List<Integer> last = new ArrayList<>();
+        top.forEach(Integer.MAX_VALUE - 2, Integer.MAX_VALUE, last::add);
+        assert last.equals(List.of(Integer.MAX_VALUE - 2, Integer.MAX_VALUE - 1)) : "Top block forEach " + last;
+
+        verify(RowBitmap.EMPTY, new BitSet(), "empty");
+        verify(RowBitmap.or(List.of()), new BitSet(), "empty union");
+        verify(build(even).and(RowBitmap.EMPTY), new BitSet(), "and empty");
+    }
+}
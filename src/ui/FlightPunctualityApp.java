@@ -32,10 +32,19 @@ public class FlightPunctualityApp extends JFrame {
      * @throws SQLException if a database access error occurs
      */
     public FlightPunctualityApp() throws SQLException {
+        this(new FlightDataService());
+    }
+
+    /**
+     * Creates and initializes the main application frame on a data service.
+     * @param dataService the service to query, disconnected when the window closes
+     * @throws SQLException if a database access error occurs
+     */
+    public FlightPunctualityApp(FlightDataService dataService) throws SQLException {
         super("Flight Punctuality Application");
 
         // Set up data service
-        dataService = new FlightDataService();
+        this.dataService = dataService;
 
         // Set up main components
         tableModel = new FlightTableModel();